@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: TestMateSolver.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.engines;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import chesspresso.Chess;
+import chesspresso.move.IllegalMoveException;
+import chesspresso.move.Move;
+import chesspresso.position.Position;
+
+/**
+ * Tests for the MateSolver class.
+ *
+ * @author Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class TestMateSolver
+{
+
+    @Test
+    public void testQuietMateInTwo()
+    {
+        Position position = new Position("kbK5/pp6/1P6/8/8/8/8/R7 w - - 0 1");
+        MateSolver solver = new MateSolver(12);
+
+        assertEquals("no mate in 1", MateSolver.NO_MATE, solver.solve(position, 1));
+        assertEquals("mate in 2", MateSolver.MATE, solver.solve(position, 2));
+        assertEquals("key move", Move.getRegularMove(Chess.A1, Chess.A6, false), solver.getSolution()[0]);
+
+        solver.setChecksOnly(true);
+        assertEquals("no checking mate in 2", MateSolver.NO_MATE, solver.solve(position, 2));
+    }
+
+    private static void assertMatingLine(String message, Position position, short[] line, int numOfMoves) throws IllegalMoveException
+    {
+        assertEquals(message + ", length", 2 * numOfMoves - 1, line.length);
+        Position pos = new Position(position);
+        for (int i = 0; i < line.length; i++) pos.doMove(line[i]);
+        assertTrue(message + ", mate", pos.isMate());
+    }
+
+    @Test
+    public void testSolutionFromTranspositionTable() throws IllegalMoveException
+    {
+        Position position = new Position("kbK5/pp6/1P6/8/8/8/8/R7 w - - 0 1");
+        MateSolver solver = new MateSolver(12);
+
+        assertEquals("mate in 2", MateSolver.MATE, solver.solve(position, 2));
+        assertMatingLine("searched", position, solver.getSolution(), 2);
+
+        // the root is proven by the table, the line is taken from the table
+        assertEquals("mate in 3", MateSolver.MATE, solver.solve(position, 3));
+        assertEquals("no nodes expanded", 1, solver.getNumOfNodes());
+        assertMatingLine("stored", position, solver.getSolution(), 2);
+        assertEquals("key move", Move.getRegularMove(Chess.A1, Chess.A6, false), solver.getSolution()[0]);
+    }
+
+    @Test
+    public void testAttackerOfStoredPositions()
+    {
+        MateSolver solver = new MateSolver(12);
+        assertEquals("no mate for black", MateSolver.NO_MATE, solver.solve(new Position("7k/5ppp/8/8/8/8/8/R5K1 b - - 0 1"), 2));
+        // positions found with black as attacker must not answer for white
+        assertEquals("back rank mate", MateSolver.MATE, solver.solve(new Position("6k1/5ppp/8/8/8/8/8/R5K1 w - - 0 1"), 1));
+    }
+
+    @Test
+    public void testNodeBudget()
+    {
+        MateSolver solver = new MateSolver(12);
+        solver.setMaxNodes(100);
+        assertEquals("budget exhausted", MateSolver.UNKNOWN, solver.solve(Position.createInitialPosition(), 3));
+    }
+
+}
@@ -13,14 +13,33 @@
  */
 package chesspresso.game;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 
 import org.junit.Test;
 
 import ch.seybold.util.FootprintTestCase;
+import chesspresso.Chess;
+import chesspresso.move.Move;
+import chesspresso.pgn.PGN;
 import chesspresso.pgn.PGNReader;
 import chesspresso.pgn.PGNWriter;
+import chesspresso.position.Position;
 
 /**
  * 
@@ -32,6 +51,13 @@ import chesspresso.pgn.PGNWriter;
 public class GameTests extends FootprintTestCase
 {
 
+	private static PGNReader createReader(String resourceName, String name) throws Exception
+	{
+		InputStream is = ClassLoader.getSystemResourceAsStream("chesspresso/pgn/" + resourceName);
+		if (resourceName.endsWith(".gz")) is = new GZIPInputStream(is);
+		return new PGNReader(is, name);
+	}
+	
 	@Test
 	public void testInsertGame() throws Exception
 	{
@@ -57,4 +83,417 @@ public class GameTests extends FootprintTestCase
 		
 		stopFootprint();
 	}
+	
+	@Test
+	public void testCheckpoints() throws Exception
+	{
+		PGNReader pgnReader = createReader("PGNTestSuite.pgn", "CheckpointTest");
+		
+		for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+			Game game = new Game(gameModel);
+			int numOfPlies = game.getNumOfPlies();
+			int[] nodes = new int[numOfPlies + 1];
+			long[] hashCodes = new long[numOfPlies + 1];
+			for (int i = 0; i <= numOfPlies; i++) {
+				nodes[i] = game.getCurNode();
+				hashCodes[i] = game.getPosition().getHashCode();
+				game.goForward();
+			}
+			
+			game.setCheckpointInterval(4);
+			for (int i = numOfPlies; i >= 0; i--) {
+				game.gotoNode(nodes[i]);
+				assertEquals("position at ply " + i, hashCodes[i], game.getPosition().getHashCode());
+				if (i > 0) {
+					game.goBack();
+					assertEquals("position after going back from ply " + i, hashCodes[i - 1], game.getPosition().getHashCode());
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testContainsPosition() throws Exception
+	{
+		PGNReader pgnReader = createReader("PGNTestSuite.pgn", "ContainsPositionTest");
+		Position absent = new Position("8/8/8/8/8/8/8/K6k w - - 0 1");
+		
+		for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+			Game game = new Game(gameModel);
+			assertFalse("absent position in " + gameModel, game.containsPosition(absent));
+			do {
+				assertTrue("main line position at ply " + game.getCurrentPly(), game.containsPosition(game.getPosition()));
+			} while (game.goForward());
+			assertEquals("main line length", game.getNumOfPlies() + 1, gameModel.getMainLineHashCodes().length);
+		}
+	}
+	
+	@Test
+	public void testTraverseNodes() throws Exception
+	{
+		PGNReader pgnReader = createReader("PGNTestSuite.pgn", "TraverseTest");
+		
+		for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+			Game game = new Game(gameModel);
+			game.goForward();
+			final int curNode = game.getCurNode();
+			final long curHashCode = game.getPosition().getHashCode();
+			final int[] numOfNodes = new int[1];
+			
+			game.traverse(new GameNodeListener() {
+				public void notifyNode(Game game, int node, short move, int plyNumber, int level)
+				{
+					assertEquals("cursor on node", node, game.getCurNode());
+					assertEquals("last move", move, game.getPosition().getLastShortMove());
+					assertEquals("ply number", plyNumber + 1, game.getPosition().getPlyNumber());
+					numOfNodes[0]++;
+				}
+				public void notifyLineStart(int level) {}
+				public void notifyLineEnd(int level) {}
+			}, true);
+			
+			assertEquals("all nodes visited in " + gameModel, gameModel.getMoveModel().getTotalNumOfPlies(), numOfNodes[0]);
+			assertEquals("cursor restored", curNode, game.getCurNode());
+			assertEquals("position restored", curHashCode, game.getPosition().getHashCode());
+		}
+	}
+	
+	@Test
+	public void testCompactMoves() throws Exception
+	{
+		PGNReader pgnReader = createReader("PGNTestSuite.pgn", "CompactMovesTest");
+		
+		for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+			GameMoveModel moveModel = gameModel.getMoveModel();
+			moveModel.pack(0);
+			ByteArrayOutputStream raw = new ByteArrayOutputStream();
+			moveModel.save(new DataOutputStream(raw), GameMoveModel.MODE_EVERYTHING);
+			
+			ByteArrayOutputStream compact = new ByteArrayOutputStream();
+			gameModel.save(new DataOutputStream(compact), GameHeaderModel.MODE_STANDARD_TAGS, GameMoveModel.MODE_COMPACT);
+			GameModel loaded = new GameModel(new DataInputStream(new ByteArrayInputStream(compact.toByteArray())),
+				GameHeaderModel.MODE_STANDARD_TAGS, GameMoveModel.MODE_COMPACT);
+			
+			ByteArrayOutputStream reloaded = new ByteArrayOutputStream();
+			loaded.getMoveModel().save(new DataOutputStream(reloaded), GameMoveModel.MODE_EVERYTHING);
+			assertArrayEquals("moves of " + gameModel, raw.toByteArray(), reloaded.toByteArray());
+		}
+	}
+	
+	@Test
+	public void testComments() throws Exception
+	{
+		// more comments than pool tokens, the remaining ones are stored inline
+		int numOfMoves = 5000;
+		short move = Move.getRegularMove(Chess.E2, Chess.E4, false);
+		GameMoveModel moveModel = new GameMoveModel();
+		int[] nodes = new int[numOfMoves];
+		for (int i = 0, index = 0; i < numOfMoves; i++) {
+			index = moveModel.appendAsRightMostLine(index, move);
+			moveModel.addComment(index, "comment " + i);
+			nodes[i] = index;
+		}
+		for (int i = 0; i < numOfMoves; i++) {
+			assertEquals("comment " + i, "comment " + i, moveModel.getComment(nodes[i]));
+			if (i % 2 == 0) assertTrue("comment " + i + " removed", moveModel.removeComment(nodes[i]));
+		}
+		moveModel.pack(0);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		moveModel.save(new DataOutputStream(out), GameMoveModel.MODE_EVERYTHING);
+		GameMoveModel loaded = new GameMoveModel(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), GameMoveModel.MODE_EVERYTHING);
+		
+		for (int i = 0, index = 0, loadedIndex = 0; i < numOfMoves; i++) {
+			index = moveModel.goForward(index);
+			loadedIndex = loaded.goForward(loadedIndex);
+			if (i % 2 == 0) {
+				assertNull("removed comment " + i, moveModel.getComment(index));
+				assertNull("removed comment " + i + " after loading", loaded.getComment(loadedIndex));
+			} else {
+				assertEquals("comment " + i + " after pack", "comment " + i, moveModel.getComment(index));
+				assertEquals("comment " + i + " after loading", "comment " + i, loaded.getComment(loadedIndex));
+			}
+		}
+		assertEquals("total comment size", moveModel.getTotalCommentSize(), loaded.getTotalCommentSize());
+	}
+	
+	@Test
+	public void testFingerprint() throws Exception
+	{
+		PGNReader pgnReader = createReader("chusa99.pgn.gz", "FingerprintTest");
+		Set<GameModel> games = new HashSet<GameModel>();
+		Set<Long> fingerprints = new HashSet<Long>();
+		
+		for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+			games.add(gameModel);
+			fingerprints.add(Long.valueOf(gameModel.getFingerprint()));
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			gameModel.save(new DataOutputStream(out), GameHeaderModel.MODE_STANDARD_TAGS, GameMoveModel.MODE_COMPACT);
+			GameModel loaded = new GameModel(new DataInputStream(new ByteArrayInputStream(out.toByteArray())),
+				GameHeaderModel.MODE_STANDARD_TAGS, GameMoveModel.MODE_COMPACT);
+			assertEquals("loaded fingerprint of " + gameModel, gameModel.getFingerprint(), loaded.getFingerprint());
+			assertEquals("loaded game " + gameModel, gameModel, loaded);
+			
+			long fingerprint = gameModel.getFingerprint();
+			Game game = new Game(gameModel);
+			if (game.getNumOfPlies() == 0) continue;
+			game.gotoEndOfLine();
+			game.deleteCurrentLine();
+			assertFalse("fingerprint changed by edit of " + gameModel, fingerprint == gameModel.getFingerprint());
+		}
+		assertEquals("distinct fingerprints", games.size(), fingerprints.size());
+	}
+	
+	@Test
+	public void testLazyMoves() throws Exception
+	{
+		PGNReader pgnReader = createReader("chusa99.pgn.gz", "LazyMovesTest");
+		
+		for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			gameModel.save(new DataOutputStream(out), GameHeaderModel.MODE_STANDARD_TAGS, GameMoveModel.MODE_EVERYTHING);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+			new GameHeaderModel(in, GameHeaderModel.MODE_STANDARD_TAGS);
+			GameMoveModel.skip(in, GameMoveModel.MODE_EVERYTHING);
+			assertEquals("moves skipped", 0, in.available());
+			
+			out = new ByteArrayOutputStream();
+			gameModel.save(new DataOutputStream(out), GameHeaderModel.MODE_STANDARD_TAGS, GameMoveModel.MODE_COMPACT);
+			final byte[] data = out.toByteArray();
+			in = new DataInputStream(new ByteArrayInputStream(data));
+			GameHeaderModel headerModel = new GameHeaderModel(in, GameHeaderModel.MODE_STANDARD_TAGS);
+			final int startOfMoves = data.length - in.available();
+			GameMoveModel.skip(in, GameMoveModel.MODE_COMPACT);
+			long fingerprint = in.readLong();
+			assertEquals("compact moves skipped", 0, in.available());
+			
+			final int[] numOfLoads = new int[1];
+			GameModel lazy = new GameModel(headerModel, fingerprint) {
+				protected GameMoveModel loadMoveModel() {
+					numOfLoads[0]++;
+					try {
+						return new GameMoveModel(new DataInputStream(new ByteArrayInputStream(data, startOfMoves, data.length - startOfMoves)), GameMoveModel.MODE_COMPACT);
+					} catch (Exception ex) {
+						throw new RuntimeException(ex.getMessage());
+					}
+				}
+			};
+			assertEquals("fingerprint of " + gameModel, gameModel.getFingerprint(), lazy.getFingerprint());
+			assertEquals("hash code of " + gameModel, gameModel.hashCode(), lazy.hashCode());
+			assertEquals("moves not loaded for fingerprint", 0, numOfLoads[0]);
+			assertEquals("lazy game " + gameModel, gameModel, lazy);
+			lazy.getMoveModel();
+			assertEquals("moves loaded once", 1, numOfLoads[0]);
+			assertEquals("fingerprint after loading", gameModel.getFingerprint(), lazy.getFingerprint());
+		}
+	}
+	
+	@Test
+	public void testFreeze() throws Exception
+	{
+		PGNReader pgnReader = createReader("chusa99.pgn.gz", "FreezeTest");
+		final List<GameModel> games = new ArrayList<GameModel>();
+		final List<Long> fingerprints = new ArrayList<Long>();
+		for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+			gameModel.freeze();
+			assertTrue("frozen", gameModel.isFrozen());
+			games.add(gameModel);
+			fingerprints.add(Long.valueOf(gameModel.getFingerprint()));
+		}
+		
+		GameModel frozen = games.get(0);
+		try {
+			frozen.getHeaderModel().setTag(PGN.TAG_WHITE, "X");
+			fail("header of frozen game changed");
+		} catch (UnsupportedOperationException ex) {}
+		Game game = new Game(frozen);
+		game.gotoEndOfLine();
+		try {
+			game.deleteCurrentLine();
+			fail("moves of frozen game changed");
+		} catch (UnsupportedOperationException ex) {}
+		
+		GameModel copy = new GameModel(frozen);
+		assertFalse("copy frozen", copy.isFrozen());
+		assertEquals("copy", frozen, copy);
+		copy.getHeaderModel().setTag(PGN.TAG_WHITE, "X");
+		game = new Game(copy);
+		game.gotoEndOfLine();
+		game.deleteCurrentLine();
+		assertFalse("copy edited", frozen.getFingerprint() == copy.getFingerprint());
+		assertFalse("white of frozen game", "X".equals(frozen.getHeaderModel().getWhite()));
+		
+		// read the shared games concurrently
+		final List<GameModel> errors = new ArrayList<GameModel>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < games.size(); i++) {
+						GameModel gameModel = games.get(i);
+						Game game = new Game(gameModel);
+						game.gotoEndOfLine();
+						long[] hashCodes = gameModel.getMainLineHashCodes();
+						if (game.getPosition().getHashCode() != hashCodes[hashCodes.length - 1]
+							|| gameModel.getFingerprint() != fingerprints.get(i).longValue()) {
+							synchronized (errors) {errors.add(gameModel);}
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++) threads[t].join();
+		assertEquals("errors reading frozen games", 0, errors.size());
+	}
+	
+	@Test
+	public void testHeader()
+	{
+		GameHeaderModel header = new GameHeaderModel();
+		header.setTag(PGN.TAG_WHITE, "Kasparov, G.");
+		header.setTag(PGN.TAG_DATE, "1999.??.??");
+		header.setTag(PGN.TAG_WHITE_ELO, "2851");
+		header.setTag(PGN.TAG_BLACK_ELO, "-");
+		header.setTag(PGN.TAG_RESULT, "1-0");
+		header.setTag(PGN.TAG_EVENT_DATE, "1999.13.01");
+		header.setTag("Annotator", "BerniMan");
+		
+		assertEquals("white", "Kasparov, G.", header.getWhite());
+		assertEquals("date", "1999.??.??", header.getDate());
+		assertEquals("year", 1999, header.getYear());
+		assertEquals("white elo", 2851, header.getWhiteElo());
+		assertEquals("black elo string", "-", header.getBlackEloStr());
+		assertEquals("black elo", 0, header.getBlackElo());
+		assertEquals("result", Chess.RES_WHITE_WINS, header.getResult());
+		assertEquals("event date", "1999.13.01", header.getEventDate());
+		assertEquals("annotator", "BerniMan", header.getTag("Annotator"));
+		assertArrayEquals("tags", new String[] {PGN.TAG_DATE, PGN.TAG_WHITE, PGN.TAG_RESULT, PGN.TAG_WHITE_ELO,
+			PGN.TAG_BLACK_ELO, PGN.TAG_EVENT_DATE, "Annotator"}, header.getTags());
+		
+		GameHeaderModel copy = new GameHeaderModel(header);
+		header.setTag(PGN.TAG_BLACK_ELO, "2700");
+		header.removeTag("Annotator");
+		assertEquals("black elo", 2700, header.getBlackElo());
+		assertNull("annotator removed", header.getTag("Annotator"));
+		assertEquals("black elo of copy", "-", copy.getBlackEloStr());
+		assertEquals("annotator of copy", "BerniMan", copy.getTag("Annotator"));
+	}
+	
+	private static void assertSameTags(String message, GameHeaderModel expected, GameHeaderModel actual)
+	{
+		String[] tags = expected.getTags();
+		assertArrayEquals(message + " tags", tags, actual.getTags());
+		for (int i = 0; i < tags.length; i++) {
+			assertEquals(message + " " + tags[i], expected.getTag(tags[i]), actual.getTag(tags[i]));
+		}
+	}
+	
+	@Test
+	public void testHeaderPersistence() throws Exception
+	{
+		PGNReader pgnReader = createReader("chusa99.pgn.gz", "HeaderPersistenceTest");
+		TagDictionary dictionary = new TagDictionary();
+		ByteArrayOutputStream utf = new ByteArrayOutputStream(), binary = new ByteArrayOutputStream();
+		DataOutputStream utfOut = new DataOutputStream(utf), binaryOut = new DataOutputStream(binary);
+		
+		List<GameHeaderModel> headers = new ArrayList<GameHeaderModel>();
+		for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+			GameHeaderModel header = gameModel.getHeaderModel();
+			header.setTag(PGN.TAG_BLACK_ELO, "-");
+			header.setTag("Annotator", "BerniMan");
+			header.setTag("Source", header.getWhite());
+			headers.add(header);
+			header.save(utfOut, GameHeaderModel.MODE_ALL_TAGS);
+			header.save(binaryOut, GameHeaderModel.MODE_ALL_TAGS, dictionary);
+		}
+		
+		ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+		dictionary.save(new DataOutputStream(dictionaryBytes));
+		TagDictionary loadedDictionary = new TagDictionary(new DataInputStream(new ByteArrayInputStream(dictionaryBytes.toByteArray())));
+		assertEquals("dictionary size", dictionary.size(), loadedDictionary.size());
+		
+		DataInputStream utfIn = new DataInputStream(new ByteArrayInputStream(utf.toByteArray()));
+		DataInputStream binaryIn = new DataInputStream(new ByteArrayInputStream(binary.toByteArray()));
+		for (int i = 0; i < headers.size(); i++) {
+			GameHeaderModel header = headers.get(i);
+			assertSameTags("utf " + header, header, new GameHeaderModel(utfIn, GameHeaderModel.MODE_ALL_TAGS));
+			GameHeaderModel loaded = new GameHeaderModel(binaryIn, GameHeaderModel.MODE_ALL_TAGS, loadedDictionary);
+			assertSameTags("binary " + header, header, loaded);
+			assertEquals("white elo of " + header, header.getWhiteElo(), loaded.getWhiteElo());
+		}
+		assertEquals("utf read completely", 0, utfIn.available());
+		assertEquals("binary read completely", 0, binaryIn.available());
+	}
+	
+	@Test
+	public void testSymbolTable() throws Exception
+	{
+		PGNReader pgnReader = createReader("chusa99.pgn.gz", "SymbolTableTest");
+		SymbolTable symbols = new SymbolTable();
+		pgnReader.setSymbolTable(symbols);
+		int defaultSize = GameHeaderModel.getDefaultSymbolTable().size();
+		TagDictionary dictionary = new TagDictionary();
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		DataOutputStream binaryOut = new DataOutputStream(binary);
+		List<GameHeaderModel> headers = new ArrayList<GameHeaderModel>();
+		for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+			GameHeaderModel header = gameModel.getHeaderModel();
+			assertTrue("table of " + header, header.getSymbolTable() == symbols);
+			headers.add(header);
+			header.save(binaryOut, GameHeaderModel.MODE_ALL_TAGS, dictionary);
+		}
+		assertEquals("default table not used", defaultSize, GameHeaderModel.getDefaultSymbolTable().size());
+		
+		// load into headers of the default table, translating the symbols of the other table
+		DataInputStream binaryIn = new DataInputStream(new ByteArrayInputStream(binary.toByteArray()));
+		for (int i = 0; i < headers.size(); i++) {
+			GameHeaderModel header = headers.get(i);
+			GameHeaderModel loaded = new GameHeaderModel(binaryIn, GameHeaderModel.MODE_ALL_TAGS, dictionary);
+			assertTrue("default table", loaded.getSymbolTable() == GameHeaderModel.getDefaultSymbolTable());
+			assertSameTags("loaded " + header, header, loaded);
+		}
+		
+		GameHeaderModel header = new GameHeaderModel();
+		header.setTag(PGN.TAG_WHITE, "Released, Player");
+		SymbolTable released = GameHeaderModel.getDefaultSymbolTable();
+		GameHeaderModel.releaseDefaultSymbolTable();
+		assertFalse("new default table", released == GameHeaderModel.getDefaultSymbolTable());
+		assertEquals("white after release", "Released, Player", header.getWhite());
+		assertEquals("white of copy", "Released, Player", new GameHeaderModel(header).getWhite());
+		assertEquals("released string", SymbolTable.NO_SYMBOL, GameHeaderModel.getDefaultSymbolTable().lookup("Released, Player"));
+	}
+	
+	@Test
+	public void testSymbolTableThreads() throws Exception
+	{
+		final SymbolTable symbols = new SymbolTable();
+		final List<String> errors = new ArrayList<String>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t;
+			threads[t] = new Thread() {
+				public void run() {
+					// strings are added by all threads, read back while others grow the table
+					for (int i = 0; i < 20000; i++) {
+						String s = "s" + ((i + 5000 * offset) % 20000);
+						int symbol = symbols.getSymbol(s);
+						int other = symbols.lookup("s" + ((i * 7) % 20000));
+						if (!s.equals(symbols.getString(symbol)) || (other != SymbolTable.NO_SYMBOL && !symbols.getString(other).startsWith("s"))) {
+							synchronized (errors) {errors.add(s);}
+							return;
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++) threads[t].join();
+		assertTrue("errors " + errors, errors.isEmpty());
+		assertEquals("size", 20000, symbols.size());
+		for (int i = 0; i < 20000; i++) {
+			assertEquals("string " + i, "s" + i, symbols.getString(symbols.lookup("s" + i)));
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: TestECOClassifier.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.game;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import chesspresso.pgn.PGNReader;
+import chesspresso.position.map.PositionMap;
+
+/**
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class TestECOClassifier
+{
+
+    private static final String LINES =
+        "[ECO \"A40\"]\n\n1. d4 *\n\n" +
+        "[ECO \"B20\"]\n\n1. e4 c5 *\n\n" +
+        "[ECO \"C20\"]\n\n1. e4 e5 *\n\n" +
+        "[ECO \"C50\"]\n\n1. e4 e5 2. Nf3 Nc6 3. Bc4 *\n\n" +
+        "[ECO \"C53\"]\n\n1. e4 e5 2. Nf3 Nc6 3. Bc4 Bc5 4. c3 *\n\n";
+
+    private static PGNReader createReader(String pgn, String name) throws Exception
+    {
+        return new PGNReader(ByteBuffer.wrap(pgn.getBytes("UTF-8")), name);
+    }
+
+    private static GameModel parse(String pgn) throws Exception
+    {
+        return createReader(pgn, "test").parseGame();
+    }
+
+    private static GameModel parseGame(String moves) throws Exception
+    {
+        return parse("[White \"A\"]\n[Black \"B\"]\n\n" + moves + " *\n");
+    }
+
+    @Test
+    public void testClassify() throws Exception
+    {
+        ECOClassifier classifier = new ECOClassifier(createReader(LINES, "eco"));
+        assertEquals(5, classifier.size());
+
+        assertEquals("C50", classifier.getECO(parseGame("1. e4 e5 2. Nf3 Nc6 3. Bc4 Nf6 4. d3")));
+        assertEquals("C53", classifier.getECO(parseGame("1. e4 e5 2. Nf3 Nc6 3. Bc4 Bc5 4. c3 Nf6")));
+        assertEquals("B20", classifier.getECO(parseGame("1. e4 c5 2. b4")));
+        assertNull(classifier.getECO(parseGame("1. c4 e5")));
+
+        // transposition into the C50 position
+        assertEquals("C50", classifier.getECO(parseGame("1. Nf3 Nc6 2. e4 e5 3. Bc4 Be7")));
+
+        // games not starting from the initial position are not classified
+        assertNull(classifier.getECO(parse("[FEN \"rnbqkbnr/pppppppp/8/8/3P4/8/PPP1PPPP/RNBQKBNR b KQkq d3 0 1\"]\n\n1... d5 *\n")));
+    }
+
+    @Test
+    public void testSetECO() throws Exception
+    {
+        ECOClassifier classifier = new ECOClassifier(createReader(LINES, "eco"));
+
+        GameModel gameModel = parseGame("1. d4 d5 2. c4");
+        assertTrue(classifier.classify(gameModel, false));
+        assertEquals("A40", gameModel.getHeaderModel().getECO());
+
+        gameModel.getHeaderModel().setTag("ECO", "D06");
+        assertFalse(classifier.classify(gameModel, false));
+        assertEquals("D06", gameModel.getHeaderModel().getECO());
+        assertTrue(classifier.classify(gameModel, true));
+        assertEquals("A40", gameModel.getHeaderModel().getECO());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        classifier.save(new DataOutputStream(out));
+        ECOClassifier loaded = new ECOClassifier(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(classifier.size(), loaded.size());
+        assertEquals("C53", loaded.getECO(parseGame("1. e4 e5 2. Nf3 Nc6 3. Bc4 Bc5 4. c3 Nf6")));
+        assertEquals("C50", loaded.getECO(parseGame("1. Nf3 Nc6 2. e4 e5 3. Bc4 Be7")));
+    }
+
+    @Test
+    public void testPutFrozen() throws Exception
+    {
+        PositionMap map = new PositionMap();
+        map.setECOClassifier(new ECOClassifier(createReader(LINES, "eco")));
+
+        GameModel gameModel = parseGame("1. e4 c5 2. Nf3");
+        map.putData(gameModel, 10);
+        assertEquals("B20", gameModel.getHeaderModel().getECO());
+
+        // frozen games are put unclassified
+        GameModel frozen = parseGame("1. d4 d5 2. c4");
+        frozen.freeze();
+        map.putData(frozen, 10);
+        assertNull(frozen.getHeaderModel().getECO());
+        assertEquals(2, map.getNumOfGames());
+    }
+
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: TestGameMoveModel.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.game;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import chesspresso.Chess;
+import chesspresso.move.IllegalMoveException;
+import chesspresso.move.Move;
+import chesspresso.pgn.PGN;
+import chesspresso.pgn.PGNWriter;
+import chesspresso.position.Position;
+
+/**
+ * Tests for the GameMoveModel class, comparing navigation with the skip index
+ * of packed models to the linear scans of edited models, and edits in the
+ * gap buffer to the same edits of freshly loaded models.
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class TestGameMoveModel
+{
+
+    private static final int
+        NESTING_DEPTH = 20,  // deeper than the initial levels of the skip index
+        LINE_LENGTH = 16;
+
+    //======================================================================
+
+    /**
+     * Plays a line of random moves, with a variation nested at its second ply
+     * and a few flat variations. Returns to the start of the line.
+     */
+    private static void addLine(Game game, Random random, int depth) throws IllegalMoveException
+    {
+        Position position = game.getPosition();
+        int numOfPlies = 0;
+        for (int ply = 0; ply < LINE_LENGTH; ply++) {
+            short[] moves = position.getAllMoves();
+            if (moves.length < 2) break;
+            int index = random.nextInt(moves.length);
+            position.doMove(moves[index]);
+            numOfPlies++;
+            if (random.nextInt(4) == 0) game.addNag((short)(1 + random.nextInt(6)));
+            if (random.nextInt(6) == 0) game.addComment("ply " + ply);
+            if (depth > 0 && (ply == 1 || random.nextInt(8) == 0)) {
+                position.undoMove();
+                position.doMove(moves[(index + 1 + random.nextInt(moves.length - 1)) % moves.length]);
+                addLine(game, random, (ply == 1 ? depth - 1 : Math.min(depth - 1, 1)));
+                position.undoMove();
+                position.doMove(moves[index]);  // follows the existing move
+            }
+        }
+        for (int i = 0; i < numOfPlies; i++) position.undoMove();
+    }
+
+    private static Game createGame(long seed) throws IllegalMoveException
+    {
+        Game game = new Game();
+        addLine(game, new Random(seed), NESTING_DEPTH);
+        return game;
+    }
+
+    //======================================================================
+
+    private static String toString(GameMoveModel model, int index)
+    {
+        if (index == -1) return "-";  // =====>
+        if (index == 0) return "root";  // =====>
+        return Move.getString(model.getMove(index));
+    }
+
+    /**
+     * Describes the tree below a node by navigating the model: the moves of
+     * each line, the number of next moves and where going back leads to.
+     */
+    private static void describe(GameMoveModel model, int index, StringBuffer sb)
+    {
+        while (model.hasNextMove(index)) {
+            int numOfNextMoves = model.getNumOfNextMoves(index);
+            sb.append(" #").append(numOfNextMoves);
+            for (int line = 1; line < numOfNextMoves; line++) {
+                int next = model.goForward(index, line);
+                sb.append(" (").append(toString(model, next));
+                sb.append(" <").append(toString(model, model.goBack(next, false)));
+                sb.append(" <<").append(toString(model, model.goBack(next, true)));
+                describe(model, next, sb);
+                sb.append(')');
+            }
+            int next = model.goForward(index);
+            assertEquals("main line", next, model.goForward(index, 0));
+            sb.append(' ').append(toString(model, next));
+            sb.append(" <").append(toString(model, model.goBack(next, false)));
+            index = next;
+        }
+    }
+
+    private static String describe(GameMoveModel model)
+    {
+        StringBuffer sb = new StringBuffer();
+        describe(model, 0, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Describes the positions reached by going to each ply of the main line
+     * and into each variation starting there.
+     */
+    private static String describePlies(GameMoveModel model)
+    {
+        Game game = new Game(new GameModel(new GameHeaderModel(), model));
+        StringBuffer sb = new StringBuffer();
+        int numOfPlies = game.getNumOfPlies();
+        for (int ply = 0; ply <= numOfPlies; ply++) {
+            game.gotoStart();
+            for (int i = 0; i < ply; i++) game.goForward();
+            sb.append(' ').append(game.getCurrentPly()).append(':').append(game.getPosition().getHashCode());
+            for (int line = 1; line < game.getNumOfNextMoves(); line++) {
+                int node = game.getCurNode();
+                game.goForward(line);
+                game.gotoEndOfLine();
+                sb.append(" (").append(game.getPosition().getHashCode());
+                game.goBackToLineBegin();
+                sb.append(' ').append(game.getPosition().getHashCode()).append(')');
+                game.gotoNode(node);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String toPGN(GameMoveModel model)
+    {
+        GameHeaderModel headerModel = new GameHeaderModel();
+        headerModel.setTag(PGN.TAG_RESULT, PGN.getResultAsPGNResult(Chess.RES_NOT_FINISHED));
+        StringWriter out = new StringWriter();
+        new PGNWriter(out).write(new GameModel(headerModel, model));
+        return out.toString();
+    }
+
+    private static void assertSameTree(String message, GameMoveModel expected, GameMoveModel model)
+    {
+        assertEquals(message, describe(expected), describe(model));
+        assertEquals(message, describePlies(expected), describePlies(model));
+        assertEquals(message, toPGN(expected), toPGN(model));
+    }
+
+    //======================================================================
+    // edits addressing nodes by the lines chosen from the root
+
+    private static int[] choosePath(GameMoveModel model, Random random)
+    {
+        List<Integer> path = new ArrayList<Integer>();
+        int index = 0;
+        while (model.hasNextMove(index) && (path.isEmpty() || random.nextInt(12) != 0)) {
+            int numOfNextMoves = model.getNumOfNextMoves(index);
+            int line = (random.nextInt(3) == 0 ? random.nextInt(numOfNextMoves) : 0);
+            path.add(Integer.valueOf(line));
+            index = model.goForward(index, line);
+        }
+        int[] lines = new int[path.size()];
+        for (int i = 0; i < lines.length; i++) lines[i] = path.get(i).intValue();
+        return lines;
+    }
+
+    /**
+     * Returns the path to the root, to the first move, or to the end of the
+     * main line, the nodes at the start and at the end of the moves.
+     */
+    private static int[] choosePath(GameMoveModel model, Random random, int where)
+    {
+        if (where == START) return new int[model.hasNextMove(0) ? random.nextInt(2) : 0];  // =====>
+        if (where == MIDDLE) return choosePath(model, random);  // =====>
+        int numOfPlies = 0;
+        for (int index = 0; model.hasNextMove(index); index = model.goForward(index)) numOfPlies++;
+        return new int[numOfPlies];
+    }
+
+    private static int gotoPath(GameMoveModel model, int[] path)
+    {
+        int index = 0;
+        for (int i = 0; i < path.length; i++) index = model.goForward(index, path[i]);
+        return index;
+    }
+
+    private static final int
+        START = 0,
+        MIDDLE = 1,
+        END = 2;
+
+    private static final int
+        DELETE_LINE = 0,
+        ADD_LINE = 1,
+        ADD_NAG = 2,
+        REMOVE_NAG = 3,
+        ADD_COMMENT = 4,
+        REMOVE_COMMENT = 5,
+        NUM_OF_EDITS = 6;
+
+    /**
+     * Applies an edit to the node at the end of the path.
+     *
+     *@param arg chooses the moves, nags and comments of the edit
+     */
+    private static void edit(GameMoveModel model, int[] path, int edit, int arg) throws IllegalMoveException
+    {
+        int index = gotoPath(model, path);
+        if (edit == ADD_LINE) {
+            Game game = new Game(new GameModel(new GameHeaderModel(), model));
+            game.gotoNode(index);
+            Position position = game.getPosition();
+            for (int i = 0; i < 3; i++) {
+                short[] moves = position.getAllMoves();
+                if (moves.length == 0) break;
+                position.doMove(moves[(arg + i) % moves.length]);
+            }
+        } else if (index == 0) {
+            // the root has no move to edit
+        } else if (edit == DELETE_LINE) {
+            model.deleteCurrentLine(index);
+        } else if (edit == ADD_NAG) {
+            model.addNag(index, (short)(1 + arg % 6));
+        } else if (edit == REMOVE_NAG) {
+            model.removeNag(index, (short)(1 + arg % 6));
+        } else if (edit == ADD_COMMENT) {
+            model.addComment(index, "edit " + arg);
+        } else if (edit == REMOVE_COMMENT) {
+            model.removeComment(index);
+        }
+    }
+
+    //======================================================================
+
+    @Test
+    public void testSkipIndex() throws Exception
+    {
+        for (long seed = 1; seed <= 4; seed++) {
+            Game game = createGame(seed);
+            GameMoveModel model = game.getModel().getMoveModel();
+            GameMoveModel linear = createGame(seed).getModel().getMoveModel();  // the same moves, edited, navigated by linear scans
+            game.pack();  // navigated by the skip index
+            assertTrue("plies " + model.getTotalNumOfPlies(), model.getTotalNumOfPlies() > 256);
+            assertSameTree("packed, seed " + seed, linear, model);
+
+            // each edit drops the index, packing builds it again
+            Random random = new Random(seed);
+            for (int i = 0; i < 24; i++) {
+                int[] path = choosePath(linear, random);
+                int edit = random.nextInt(NUM_OF_EDITS);
+                int arg = random.nextInt(1000);
+                edit(linear, path, edit, arg);
+                edit(model, path, edit, arg);
+                assertSameTree("edit " + i + ", seed " + seed, linear, model);
+                if (i % 3 == 2) {
+                    model.pack(0);
+                    assertSameTree("packed after edit " + i + ", seed " + seed, linear, model);
+                }
+            }
+        }
+    }
+
+    private static GameMoveModel copyByLoading(GameMoveModel model) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.save(new DataOutputStream(out), GameMoveModel.MODE_EVERYTHING);
+        return new GameMoveModel(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), GameMoveModel.MODE_EVERYTHING);
+    }
+
+    /**
+     * Edits a model growing from an empty one at the start, in the middle and
+     * at the end of its moves, in runs at the same place and alternating
+     * places to move the gap. Each edit is also applied to a fresh model
+     * loaded from the moves before the edit, with the gap at the end.
+     */
+    @Test
+    public void testGapBuffer() throws Exception
+    {
+        for (long seed = 1; seed <= 4; seed++) {
+            Random random = new Random(seed);
+            GameMoveModel model = new GameMoveModel();
+            int where = START;
+            for (int i = 0; i < 400; i++) {
+                if (random.nextInt(4) == 0) where = random.nextInt(3);
+                int[] path = choosePath(model, random, where);
+                int edit = (random.nextInt(5) < 2 ? ADD_LINE : random.nextInt(NUM_OF_EDITS));
+                if (edit == DELETE_LINE && where == START && random.nextInt(4) != 0) edit = ADD_NAG;  // keep most of the moves
+                int arg = random.nextInt(1000);
+
+                GameMoveModel fresh = copyByLoading(model);
+                assertSameTree("loaded before edit " + i + ", seed " + seed, model, fresh);
+                edit(model, path, edit, arg);
+                edit(fresh, path, edit, arg);
+                assertEquals("plies after edit " + i + ", seed " + seed, fresh.getTotalNumOfPlies(), model.getTotalNumOfPlies());
+                assertSameTree("edit " + i + ", seed " + seed, fresh, model);
+            }
+            assertTrue("plies " + model.getTotalNumOfPlies(), model.getTotalNumOfPlies() > 32);
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: TestHeaderColumnStore.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.game;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import chesspresso.Chess;
+import chesspresso.pgn.PGN;
+
+/**
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class TestHeaderColumnStore
+{
+
+    private static int[] toArray(BitSet bits)
+    {
+        int[] arr = new int[bits.cardinality()];
+        int index = 0;
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) arr[index++] = i;
+        return arr;
+    }
+
+    @Test
+    public void testBitmap()
+    {
+        // sparse and dense chunks
+        Random random = new Random(42);
+        GameBitmap bitmap1 = new GameBitmap(), bitmap2 = new GameBitmap();
+        BitSet bits1 = new BitSet(), bits2 = new BitSet();
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(1 << 18);
+            bitmap1.add(value); bits1.set(value);
+            value = random.nextInt(1 << 17);
+            bitmap2.add(value); bits2.set(value);
+        }
+        for (int i = 0; i < 70000; i++) {
+            bitmap2.add(i); bits2.set(i);
+        }
+
+        assertEquals(bits1.cardinality(), bitmap1.getCardinality());
+        assertArrayEquals(toArray(bits1), bitmap1.toArray());
+        assertArrayEquals(toArray(bits2), bitmap2.toArray());
+        for (int i = 0; i < 1000; i++) {
+            int value = random.nextInt(1 << 19);
+            assertEquals(bits1.get(value), bitmap1.contains(value));
+        }
+
+        BitSet and = (BitSet)bits1.clone();
+        and.and(bits2);
+        assertArrayEquals(toArray(and), bitmap1.and(bitmap2).toArray());
+        BitSet or = (BitSet)bits1.clone();
+        or.or(bits2);
+        assertArrayEquals(toArray(or), bitmap1.or(bitmap2).toArray());
+
+        assertEquals(100000, GameBitmap.createRange(100000).getCardinality());
+        assertTrue(new GameBitmap().isEmpty());
+    }
+
+    private static GameHeaderModel createHeader(String white, String black, String date, int whiteElo, String result, String eco)
+    {
+        GameHeaderModel header = new GameHeaderModel();
+        header.setTag(PGN.TAG_EVENT, "Event");
+        header.setTag(PGN.TAG_WHITE, white);
+        header.setTag(PGN.TAG_BLACK, black);
+        header.setTag(PGN.TAG_DATE, date);
+        header.setTag(PGN.TAG_WHITE_ELO, Integer.toString(whiteElo));
+        header.setTag(PGN.TAG_RESULT, result);
+        header.setTag(PGN.TAG_ECO, eco);
+        return header;
+    }
+
+    @Test
+    public void testQuery() throws Exception
+    {
+        HeaderColumnStore store = new HeaderColumnStore();
+        store.add(createHeader("X", "Y", "2009.12.31", 2600, "1-0", "B90"));
+        store.add(createHeader("Y", "X", "2010.01.01", 2550, "1/2-1/2", "B12"));
+        store.add(createHeader("X", "Z", "2011.??.??", 2510, "0-1", "C42"));
+        store.add(createHeader("X", "Z", "2012.05.05", 2400, "1-0", "B90"));
+        store.add(createHeader("Z", "Y", "????.??.??", 2700, "*", "A00"));
+        assertEquals(5, store.size());
+        assertEquals(20110000, store.getDate(2));
+        assertEquals(0, store.getDate(4));
+
+        GameBitmap games = store.getGamesOfPlayer("X");
+        assertArrayEquals(new int[] {0, 1, 2, 3}, games.toArray());
+        games = store.filterWhiteElo(games, 2501, Integer.MAX_VALUE);
+        games = store.filterYear(games, 2010, Integer.MAX_VALUE);
+        assertArrayEquals(new int[] {1, 2}, games.toArray());
+
+        assertArrayEquals(new int[] {0, 1, 3}, store.getGamesOfECO("B").toArray());
+        assertArrayEquals(new int[] {0, 3}, store.getGamesOfECO("B90").toArray());
+        assertArrayEquals(new int[] {0, 3}, store.filterResult(null, Chess.RES_WHITE_WINS).toArray());
+        assertArrayEquals(new int[] {1, 2}, store.filterDate(null, 20100101, 20111231).toArray());
+        assertTrue(store.getGamesOfPlayer("W").isEmpty());
+        assertFalse(store.getGamesOfEvent("Event").isEmpty());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.save(new DataOutputStream(out));
+        HeaderColumnStore loaded = new HeaderColumnStore(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(store.size(), loaded.size());
+        for (int i = 0; i < store.size(); i++) {
+            assertEquals(store.getWhite(i), loaded.getWhite(i));
+            assertEquals(store.getECO(i), loaded.getECO(i));
+            assertEquals(store.getDate(i), loaded.getDate(i));
+            assertEquals(store.getWhiteElo(i), loaded.getWhiteElo(i));
+            assertEquals(store.getResult(i), loaded.getResult(i));
+        }
+        assertArrayEquals(new int[] {0, 1, 4}, loaded.getGamesOfPlayer("Y").toArray());
+    }
+
+}
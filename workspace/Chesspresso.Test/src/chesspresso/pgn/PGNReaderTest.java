@@ -15,16 +15,27 @@
 package chesspresso.pgn;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 
 import org.junit.Test;
 
 import ch.seybold.util.FootprintTestCase;
 import chesspresso.game.Game;
+import chesspresso.game.GameHeaderModel;
 import chesspresso.game.GameModel;
+import chesspresso.game.GameMoveModel;
 import chesspresso.move.Move;
 import chesspresso.position.Position;
 
@@ -62,6 +73,241 @@ public class PGNReaderTest extends FootprintTestCase
         doExtendedTest("chusa99", true);
     }
     
+    @Test
+    public void testByteInput() throws Exception
+    {
+        String pgn =
+            "[White \"M\u00fcller\"]\r\n[Black \"B\u00e4r\"]\r\n[Result \"1-0\"]\r\n\r\n" +
+            "1. e4 {Gr\u00fc\u00dfe} e5 2. Qh5 Nc6 3. Bc4 Nf6 4. Qxf7# 1-0\r\n\r\n" +
+            "[White \"A\"]\n[Black \"B\"]\n[Result \"*\"]\n\n1. e4 e5 2. xx *\n";
+        String[] encodings = {"UTF-8", "ISO-8859-1"};
+        for (int i = 0; i < encodings.length; i++) {
+            PGNReader pgnReader = new PGNReader(ByteBuffer.wrap(pgn.getBytes(encodings[i])), "ByteInputTest");
+            final List<Integer> errorLines = new ArrayList<Integer>();
+            pgnReader.setErrorHandler(new PGNErrorHandler() {
+                public void handleError(PGNSyntaxError error) {errorLines.add(Integer.valueOf(error.getLineNumber()));}
+                public void handleWarning(PGNSyntaxError warning) {}
+            });
+            
+            GameModel gameModel = pgnReader.parseGame();
+            assertEquals("white in " + encodings[i], "M\u00fcller", gameModel.getHeaderModel().getWhite());
+            assertEquals("black in " + encodings[i], "B\u00e4r", gameModel.getHeaderModel().getBlack());
+            Game game = new Game(gameModel);
+            game.goForward();
+            assertEquals("comment in " + encodings[i], "Gr\u00fc\u00dfe", game.getComment());
+            
+            gameModel = pgnReader.parseGame();
+            assertEquals("second game in " + encodings[i], "A", gameModel.getHeaderModel().getWhite());
+            assertEquals("errors in " + encodings[i], 1, errorLines.size());
+            assertEquals("line of wrong move in " + encodings[i], Integer.valueOf(11), errorLines.get(0));
+            assertEquals("end of input in " + encodings[i], null, pgnReader.parseGame());
+        }
+    }
+    
+    private static InputStream openResource(String name) throws Exception
+    {
+        return new GZIPInputStream(ClassLoader.getSystemResourceAsStream("chesspresso/pgn/" + name));
+    }
+    
+    @Test
+    public void testParallel() throws Exception
+    {
+        List<Long> fingerprints = new ArrayList<Long>();
+        PGNReader pgnReader = new PGNReader(openResource("fidech99.pgn.gz"), "fidech99");
+        for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+            fingerprints.add(Long.valueOf(gameModel.getFingerprint()));
+        }
+        
+        for (int ordered = 0; ordered < 2; ordered++) {
+            PGNParallelReader parallelReader = new PGNParallelReader(openResource("fidech99.pgn.gz"), "fidech99", 3, ordered == 0);
+            parallelReader.setChunkSize(4096);  // many chunks
+            List<Long> parallelFingerprints = new ArrayList<Long>();
+            for (GameModel gameModel = parallelReader.parseGame(); gameModel != null; gameModel = parallelReader.parseGame()) {
+                parallelFingerprints.add(Long.valueOf(gameModel.getFingerprint()));
+            }
+            Object[] expected = fingerprints.toArray(), actual = parallelFingerprints.toArray();
+            if (ordered == 1) {
+                Arrays.sort(expected);
+                Arrays.sort(actual);
+            }
+            assertTrue("games of " + (ordered == 0 ? "ordered" : "unordered") + " reader", Arrays.equals(expected, actual));
+        }
+        
+        // errors reported with the line numbers of the whole input
+        String pgn = "[White \"A\"]\n\n1. e4 e5 1-0\n\n[White \"B\"]\n\n1. e4 xx 0-1\n\n[White \"C\"]\r\n\r\n1. d4 xx *\r\n";
+        PGNParallelReader parallelReader = new PGNParallelReader(new ByteArrayInputStream(pgn.getBytes("US-ASCII")), "ParallelTest", 2, true);
+        parallelReader.setChunkSize(1);  // one game per chunk
+        final List<Integer> errorLines = new ArrayList<Integer>();
+        parallelReader.setErrorHandler(new PGNErrorHandler() {
+            public void handleError(PGNSyntaxError error) {errorLines.add(Integer.valueOf(error.getLineNumber()));}
+            public void handleWarning(PGNSyntaxError warning) {}
+        });
+        StringBuffer whites = new StringBuffer();
+        for (GameModel gameModel = parallelReader.parseGame(); gameModel != null; gameModel = parallelReader.parseGame()) {
+            whites.append(gameModel.getHeaderModel().getWhite());
+        }
+        assertEquals("ABC", whites.toString());
+        assertEquals(Arrays.asList(new Integer[] {Integer.valueOf(7), Integer.valueOf(11)}), errorLines);
+    }
+    
+    @Test
+    public void testStream() throws Exception
+    {
+        StringBuffer pgn = new StringBuffer();
+        for (int i = 0; i < 4000; i++) {
+            pgn.append("[White \"" + i + "\"]\n\n1. e4 " + (i == 3000 ? "xx" : "e5") + " 1-0\n\n");
+        }
+        ByteBuffer buf = ByteBuffer.wrap(pgn.toString().getBytes("US-ASCII"));
+        
+        assertEquals(4000, new PGNReader(buf.duplicate(), "StreamTest").stream().count());
+        assertNotNull("split", new PGNReader(buf.duplicate(), "StreamTest").stream().spliterator().trySplit());
+        
+        PGNReader pgnReader = new PGNReader(buf.duplicate(), "StreamTest");
+        final List<Integer> errorLines = Collections.synchronizedList(new ArrayList<Integer>());
+        pgnReader.setErrorHandler(new PGNErrorHandler() {
+            public void handleError(PGNSyntaxError error) {errorLines.add(Integer.valueOf(error.getLineNumber()));}
+            public void handleWarning(PGNSyntaxError warning) {}
+        });
+        assertEquals("0", pgnReader.parseGame().getHeaderModel().getWhite());
+        List<String> whites = pgnReader.stream().parallel().map(gameModel -> gameModel.getHeaderModel().getWhite()).collect(Collectors.toList());
+        assertEquals(3999, whites.size());
+        for (int i = 0; i < whites.size(); i++) {
+            assertEquals(String.valueOf(i + 1), whites.get(i));
+        }
+        assertEquals(Collections.singletonList(Integer.valueOf(4 * 3000 + 3)), errorLines);
+    }
+    
+    @Test
+    public void testParseHeader() throws Exception
+    {
+        List<GameHeaderModel> headers = new ArrayList<GameHeaderModel>();
+        PGNReader pgnReader = new PGNReader(openResource("chusa99.pgn.gz"), "chusa99");
+        for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+            headers.add(gameModel.getHeaderModel());
+        }
+        pgnReader = new PGNReader(openResource("chusa99.pgn.gz"), "chusa99");
+        int index = 0;
+        for (GameHeaderModel headerModel = pgnReader.parseHeader(); headerModel != null; headerModel = pgnReader.parseHeader()) {
+            GameHeaderModel expected = headers.get(index++);
+            assertTrue(Arrays.equals(expected.getTags(), headerModel.getTags()));
+            for (int i = 0; i < expected.getTags().length; i++) {
+                assertEquals(expected.getTag(expected.getTags()[i]), headerModel.getTag(expected.getTags()[i]));
+            }
+        }
+        assertEquals(headers.size(), index);
+        
+        String pgn =
+            "[White \"A\"]\n\n1. e4 {a [b] (c) 0-1} e5 (1... c5 2. Nf3) ; 1-0\n% 1-0\n2. Nf3 1/2-1/2\n\n" +
+            "[White \"B\"]\n\n1. d4 d5\n[White \"C\"]\n\n1. c4 *";
+        String[] movetexts = {
+            "1. e4 {a [b] (c) 0-1} e5 (1... c5 2. Nf3) ; 1-0\n% 1-0\n2. Nf3 1/2-1/2", "1. d4 d5", "1. c4 *"};
+        byte[] bytes = pgn.getBytes("US-ASCII");
+        pgnReader = new PGNReader(ByteBuffer.wrap(bytes), "HeaderTest");
+        for (int i = 0; i < movetexts.length; i++) {
+            GameHeaderModel headerModel = pgnReader.parseHeader();
+            assertEquals(String.valueOf((char)('A' + i)), headerModel.getWhite());
+            int start = (int)pgnReader.getMovetextStart(), end = (int)pgnReader.getMovetextEnd();
+            assertEquals(movetexts[i], new String(bytes, start, end - start, "US-ASCII").trim());
+        }
+        assertEquals(null, pgnReader.parseHeader());
+    }
+    
+    @Test
+    public void testLazyMoves() throws Exception
+    {
+        List<Long> fingerprints = new ArrayList<Long>();
+        PGNReader pgnReader = new PGNReader(openResource("fidech99.pgn.gz"), "fidech99");
+        for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+            fingerprints.add(Long.valueOf(gameModel.getFingerprint()));
+        }
+        
+        // all games are read before the moves are parsed, the bytes of the movetext are kept
+        List<GameModel> gameModels = new ArrayList<GameModel>();
+        pgnReader = new PGNReader(openResource("fidech99.pgn.gz"), "fidech99");
+        pgnReader.setLazyMoves(true);
+        for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+            gameModels.add(gameModel);
+        }
+        assertEquals(fingerprints.size(), gameModels.size());
+        for (int i = 0; i < gameModels.size(); i++) {
+            assertEquals(fingerprints.get(i), Long.valueOf(gameModels.get(i).getFingerprint()));
+        }
+        
+        // errors are reported when the moves are parsed
+        String pgn =
+            "[White \"A\"]\n[Result \"1-0\"]\n\n1. e4 e5 2. Nf3 1-0\n\n" +
+            "[White \"B\"]\n[Result \"*\"]\n\n1. d4 d5\n2. xx *\n\n" +
+            "[White \"C\"]\n[FEN \"4k3/8/8/8/8/8/8/4K3 w - - 0 1\"]\n\n1. Kd2 *\n";
+        pgnReader = new PGNReader(ByteBuffer.wrap(pgn.getBytes("US-ASCII")), "LazyTest");
+        pgnReader.setLazyMoves(true);
+        final List<Integer> errorLines = new ArrayList<Integer>();
+        pgnReader.setErrorHandler(new PGNErrorHandler() {
+            public void handleError(PGNSyntaxError error) {errorLines.add(Integer.valueOf(error.getLineNumber()));}
+            public void handleWarning(PGNSyntaxError warning) {}
+        });
+        GameModel[] gameModels2 = pgnReader.parseAll();
+        assertEquals(3, gameModels2.length);
+        assertEquals(0, errorLines.size());
+        
+        Game game = new Game(gameModels2[2]);
+        game.gotoEndOfLine();
+        assertEquals("Kd2", game.getLastMove().getSAN());
+        game = new Game(gameModels2[1]);
+        game.gotoEndOfLine();
+        assertEquals(2, game.getCurrentPly());
+        assertEquals(Arrays.asList(new Integer[] {Integer.valueOf(10)}), errorLines);
+        assertEquals(3, gameModels2[0].getMoveModel().getTotalNumOfPlies());
+    }
+    
+    /**
+     * Several threads get the moves of the same lazily parsed games at the
+     * same time. Each game parses its moves once, all threads get them.
+     */
+    @Test
+    public void testLazyMovesThreads() throws Exception
+    {
+        final List<Long> fingerprints = new ArrayList<Long>();
+        PGNReader pgnReader = new PGNReader(openResource("fidech99.pgn.gz"), "fidech99");
+        for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+            fingerprints.add(Long.valueOf(gameModel.getFingerprint()));
+        }
+        
+        pgnReader = new PGNReader(openResource("fidech99.pgn.gz"), "fidech99");
+        pgnReader.setLazyMoves(true);
+        final GameModel[] gameModels = pgnReader.parseAll();
+        assertEquals(fingerprints.size(), gameModels.length);
+        
+        final GameMoveModel[][] moveModels = new GameMoveModel[4][gameModels.length];
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CyclicBarrier barrier = new CyclicBarrier(moveModels.length);
+        Thread[] threads = new Thread[moveModels.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        for (int i = 0; i < gameModels.length; i++) {
+                            moveModels[thread][i] = gameModels[i].getMoveModel();
+                        }
+                    } catch (Throwable ex) {
+                        errors.add(ex);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) threads[t].join();
+        assertEquals("errors getting the moves", Collections.emptyList(), errors);
+        
+        for (int i = 0; i < gameModels.length; i++) {
+            for (int t = 1; t < moveModels.length; t++) {
+                assertTrue("moves of game " + i + " in thread " + t, moveModels[t][i] == moveModels[0][i]);
+            }
+            assertEquals("fingerprint of game " + i, fingerprints.get(i), Long.valueOf(gameModels[i].getFingerprint()));
+        }
+    }
+    
     private void doParseTest(String name, boolean zipped) throws Exception
     {
         String pgnFilename;
@@ -68,6 +68,77 @@ public abstract class MoveablePositionTests extends MutablePositionTests
         position.doMove(Move.getPawnMove(Chess.E2, Chess.E4, false, Chess.NO_PIECE));
     }
     
+    @Test
+    public void testPawnHashCode() throws IllegalMoveException
+    {
+        MoveablePosition position = createMoveablePosition();
+        
+        position.setStart();
+        long startPawnHashCode = position.getPawnHashCode();
+        
+        position.doMove(Move.getRegularMove(Chess.G1, Chess.F3, false));
+        assertEquals("Knight move changed pawn hash code", startPawnHashCode, position.getPawnHashCode());
+        
+        position.doMove(Move.getPawnMove(Chess.E7, Chess.E5, false, Chess.NO_PIECE));
+        assertEquals("Pawn hash code after pawn move",
+                     new LightWeightPosition(position).getPawnHashCode(), position.getPawnHashCode());
+        
+        position.undoMove();
+        position.undoMove();
+        assertEquals("Pawn hash code after undo", startPawnHashCode, position.getPawnHashCode());
+    }
+    
+    private void assertPawnHashCode(String message, MoveablePosition position)
+    {
+        assertEquals(message, new LightWeightPosition(position).getPawnHashCode(), position.getPawnHashCode());
+    }
+    
+    private void assertPawnHashCode(String message, String fen, short move) throws IllegalMoveException
+    {
+        MoveablePosition position = createMoveablePosition();
+        FEN.initFromFEN(position, fen, true);
+        long pawnHashCode = position.getPawnHashCode();
+        position.doMove(move);
+        assertPawnHashCode(message, position);
+        position.undoMove();
+        assertEquals(message + ", undone", pawnHashCode, position.getPawnHashCode());
+        assertEquals(message + ", can redo", true, position.canRedoMove());
+        position.redoMove();
+        assertPawnHashCode(message + ", redone", position);
+    }
+    
+    @Test
+    public void testPawnHashCodeSpecialMoves() throws IllegalMoveException
+    {
+        assertPawnHashCode("Short castle", "r3k2r/pppppppp/8/8/8/8/PPPPPPPP/R3K2R w KQkq - 0 1", Move.getShortCastle(Chess.WHITE));
+        assertPawnHashCode("Long castle", "r3k2r/pppppppp/8/8/8/8/PPPPPPPP/R3K2R b KQkq - 0 1", Move.getLongCastle(Chess.BLACK));
+        assertPawnHashCode("King move", "4k3/8/8/8/8/8/4P3/4K3 w - - 0 1", Move.getRegularMove(Chess.E1, Chess.D2, false));
+        assertPawnHashCode("En passant", "4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 1", Move.getEPMove(Chess.E5, Chess.D6));
+        assertPawnHashCode("Pawn takes pawn", "4k3/8/8/3p4/4P3/8/8/4K3 w - - 0 1", Move.getPawnMove(Chess.E4, Chess.D5, true, Chess.NO_PIECE));
+        assertPawnHashCode("Pawn takes piece", "4k3/8/8/3n4/4P3/8/8/4K3 w - - 0 1", Move.getPawnMove(Chess.E4, Chess.D5, true, Chess.NO_PIECE));
+        assertPawnHashCode("Piece takes pawn", "4k3/8/8/3p4/8/4N3/8/4K3 w - - 0 1", Move.getRegularMove(Chess.E3, Chess.D5, true));
+        assertPawnHashCode("Promotion", "4k3/1P6/8/8/8/8/8/4K3 w - - 0 1", Move.getPawnMove(Chess.B7, Chess.B8, false, Chess.KNIGHT));
+        assertPawnHashCode("Capturing promotion", "r3k3/1P6/8/8/8/8/8/4K3 w - - 0 1", Move.getPawnMove(Chess.B7, Chess.A8, true, Chess.QUEEN));
+    }
+    
+    @Test
+    public void testPawnHashCodeBaseline() throws IllegalMoveException
+    {
+        MoveablePosition position = createMoveablePosition();
+        if (!(position instanceof Position)) return;  // =====>
+        position.setStart();
+        position.doMove(Move.getPawnMove(Chess.E2, Chess.E4, false, Chess.NO_PIECE));
+        position.doMove(Move.getPawnMove(Chess.D7, Chess.D5, false, Chess.NO_PIECE));
+        ((Position)position).takeBaseline();
+        assertPawnHashCode("Pawn hash code after baseline", position);
+        position.doMove(Move.getPawnMove(Chess.E4, Chess.D5, true, Chess.NO_PIECE));
+        assertPawnHashCode("Pawn hash code after capture from baseline", position);
+        position.undoMove();
+        assertPawnHashCode("Pawn hash code after undo to baseline", position);
+        position.redoMove();
+        assertPawnHashCode("Pawn hash code after redo from baseline", position);
+    }
+    
     @Test
     public void testGenerateMoves_basic()
     {
@@ -14,6 +14,13 @@
 
 package chesspresso.position;
 
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import chesspresso.Chess;
+import chesspresso.move.IllegalMoveException;
+
 /**
  * Concrete test for the Position class.
  *
@@ -32,4 +39,41 @@ public class TestPosition extends MoveablePositionTests
     @Override
     protected MoveablePosition  createMoveablePosition() {return new Position();}
     
+    //======================================================================
+    
+    @Test
+    public void testHashCodeAfter() throws IllegalMoveException
+    {
+        Position position = new Position("r3k2r/pppq1ppp/2n2n2/3pp3/1bPP4/2N1PN2/PP1BQPPP/R3K2R w KQkq d6 0 8");
+        for (int ply = 0; ply < 6; ply++) {
+            short[] moves = position.getAllMoves();
+            long[] hashCodes = new long[moves.length];
+            position.getChildHashCodes(moves, hashCodes);
+            for (int i = 0; i < moves.length; i++) {
+                position.doMove(moves[i]);
+                assertEquals("Hash code after move " + i + " in ply " + ply, position.getHashCode(), hashCodes[i]);
+                position.undoMove();
+            }
+            position.doMove(moves[moves.length / 2]);
+        }
+    }
+    
+    @Test
+    public void testLegalDestinations()
+    {
+        // the knight on c3 is pinned by the bishop on b4
+        Position position = new Position("rnbqk1nr/pppp1ppp/8/4p3/1b6/2NP4/PPP1PPPP/R1BQKBNR w KQkq - 1 3");
+        assertEquals("pinned knight", 0L, position.getLegalDestinations(Chess.C3));
+        assertEquals("bishop c1", Position.ofSquare(Chess.D2) | Position.ofSquare(Chess.E3) | Position.ofSquare(Chess.F4)
+                     | Position.ofSquare(Chess.G5) | Position.ofSquare(Chess.H6), position.getLegalDestinations(Chess.C1));
+        assertEquals("empty square", 0L, position.getLegalDestinations(Chess.E4));
+        assertEquals("black piece", 0L, position.getLegalDestinations(Chess.B4));
+        assertEquals("from squares", 0L, position.getAllLegalFromSquares() & Position.ofSquare(Chess.C3));
+        
+        position.setStart();
+        assertEquals("from squares in start position",
+                     Position.ofRow(1) | Position.ofSquare(Chess.B1) | Position.ofSquare(Chess.G1),
+                     position.getAllLegalFromSquares());
+    }
+    
 }
\ No newline at end of file
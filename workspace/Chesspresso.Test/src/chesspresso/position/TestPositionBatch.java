@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: TestPositionBatch.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.position;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import chesspresso.Chess;
+import chesspresso.move.IllegalMoveException;
+
+/**
+ * Tests for the PositionBatch class.
+ *
+ * @author Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class TestPositionBatch
+{
+
+    private Position[] createPositions() throws IllegalMoveException
+    {
+        Position[] positions = new Position[24];
+        Position position = Position.createInitialPosition();
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = new Position(position);
+            short[] moves = position.getAllMoves();
+            position.doMove(moves[(7 * i) % moves.length]);
+        }
+        return positions;
+    }
+
+    @Test
+    public void testKernels() throws IllegalMoveException
+    {
+        Position[] positions = createPositions();
+        PositionBatch batch = new PositionBatch(4);
+        for (int i = 0; i < positions.length; i++) {
+            batch.add(i % 2 == 0 ? (ImmutablePosition)positions[i] : new LightWeightPosition(positions[i]));
+        }
+        assertEquals("size", positions.length, batch.size());
+
+        long[] hashCodes = new long[batch.size()];
+        int[] material = new int[batch.size()];
+        int[] pawns = new int[batch.size()];
+        batch.getHashCodes(hashCodes);
+        batch.getMaterial(material);
+        batch.countStones(Chess.WHITE_PAWN, pawns);
+
+        for (int i = 0; i < positions.length; i++) {
+            assertEquals("hash code of position " + i, positions[i].getHashCode(), hashCodes[i]);
+            assertEquals("material of position " + i, positions[i].getMaterial(), material[i]);
+
+            int numOfPawns = 0;
+            for (int sqi = 0; sqi < Chess.NUM_OF_SQUARES; sqi++) {
+                if (positions[i].getStone(sqi) == Chess.WHITE_PAWN) numOfPawns++;
+            }
+            assertEquals("white pawns of position " + i, numOfPawns, pawns[i]);
+
+            Position position = new Position();
+            batch.getPosition(i, position);
+            assertEquals("position " + i + " restored", positions[i].getHashCode(), position.getHashCode());
+        }
+    }
+
+    @Test
+    public void testAttacks()
+    {
+        PositionBatch batch = new PositionBatch();
+        batch.add(Position.createInitialPosition());
+        long[] attacks = new long[1];
+
+        batch.getAttacks(Chess.WHITE, attacks);
+        assertEquals("white attacks in start position", Position.ofRow(2) | 0x7EL | Position.ofRow(1), attacks[0]);
+
+        batch.getAttacks(Chess.BLACK, attacks);
+        assertEquals("black attacks in start position", Position.ofRow(5) | 0x7E00000000000000L | Position.ofRow(6), attacks[0]);
+    }
+
+}
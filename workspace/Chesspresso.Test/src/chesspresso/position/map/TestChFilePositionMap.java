@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: TestChFilePositionMap.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.position.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import chesspresso.game.GameHeaderModel;
+import chesspresso.game.GameModel;
+import chesspresso.game.GameModelIterator;
+import chesspresso.pgn.PGNReader;
+
+/**
+ * Tests for the ChFilePositionMap class.
+ *
+ * @author Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class TestChFilePositionMap
+{
+
+    private PositionMap readMap() throws Exception
+    {
+        InputStream is = new GZIPInputStream(ClassLoader.getSystemResourceAsStream("chesspresso/pgn/PGNTest.pgn.gz"));
+        PositionMap map = new PositionMap();
+        map.putData(new PGNReader(is, "PGNTest"), 40);
+        return map;
+    }
+
+    private static void assertSameGames(PositionMap map, ChFilePositionMap fileMap)
+    {
+        assertEquals("number of games", map.getNumOfGames(), fileMap.getNumOfGames());
+        int i = 0;
+        for (GameModelIterator it = map.getGameModelIterator(); it.hasNext(); i++) {
+            GameModel gameModel = it.nextGameModel();
+            GameModel fileGameModel = fileMap.getGameModel(i);
+            assertNotNull("game " + i, fileGameModel);
+            GameHeaderModel headerModel = gameModel.getHeaderModel();
+            GameHeaderModel fileHeaderModel = fileGameModel.getHeaderModel();
+            assertEquals("white of game " + i, headerModel.getWhite(), fileHeaderModel.getWhite());
+            assertEquals("black of game " + i, headerModel.getBlack(), fileHeaderModel.getBlack());
+            assertEquals("result of game " + i, headerModel.getResult(), fileHeaderModel.getResult());
+            assertEquals("moves of game " + i, gameModel.getMoveModel(), fileGameModel.getMoveModel());
+        }
+    }
+
+    /**
+     * Reads PGNTest.pm, written from PGNTest.pgn with the file format
+     * preceding the format version, which has no spare header bytes.
+     */
+    @Test
+    public void testReadOldFormat() throws Exception
+    {
+        File file = File.createTempFile("chfpm", ".pm");
+        file.deleteOnExit();
+        InputStream in = new GZIPInputStream(ClassLoader.getSystemResourceAsStream("chesspresso/position/map/PGNTest.pm.gz"));
+        OutputStream out = new FileOutputStream(file);
+        byte[] buf = new byte[4096];
+        for (int num = in.read(buf); num >= 0; num = in.read(buf)) out.write(buf, 0, num);
+        out.close();
+        in.close();
+
+        ChFilePositionMap fileMap = new ChFilePositionMap(file);
+        assertEquals("number of games", 11, fileMap.getNumOfGames());
+        assertSameGames(readMap(), fileMap);
+        String white = fileMap.getGameHeaderModel(0).getWhite();
+        int numOfGames = 0;
+        for (int i = 0; i < fileMap.getNumOfGames(); i++) {
+            GameHeaderModel headerModel = fileMap.getGameHeaderModel(i);
+            if (white.equals(headerModel.getWhite()) || white.equals(headerModel.getBlack())) numOfGames++;
+        }
+        assertEquals("games of " + white, numOfGames, fileMap.getHeaderColumnStore().getGamesOfPlayer(white).getCardinality());
+        fileMap.close();
+        file.delete();
+    }
+
+    @Test
+    public void testWriteRead() throws Exception
+    {
+        PositionMap map = readMap();
+        File file = File.createTempFile("chfpm", ".pm");
+        file.deleteOnExit();
+        ChFilePositionMap.writeToDataFile(map, file);
+
+        ChFilePositionMap fileMap = new ChFilePositionMap(file);
+        assertSameGames(map, fileMap);
+        fileMap.close();
+        file.delete();
+    }
+
+    /**
+     * Reads the moves of file map games when they are first accessed: games
+     * loaded before the map is closed keep their moves, the others cannot
+     * read them any more.
+     */
+    @Test
+    public void testLazyMoves() throws Exception
+    {
+        PositionMap map = readMap();
+        File file = File.createTempFile("chfpm", ".pm");
+        file.deleteOnExit();
+        ChFilePositionMap.writeToDataFile(map, file);
+
+        int numOfGames = map.getNumOfGames();
+        ChFilePositionMap fileMap = new ChFilePositionMap(file);
+        GameModel[] loaded = new GameModel[numOfGames];
+        GameModel[] deferred = new GameModel[numOfGames];
+        for (int i = 0; i < numOfGames; i++) {
+            GameModel gameModel = map.getGameModel(i);
+            loaded[i] = fileMap.getGameModel(i);
+            deferred[i] = fileMap.getGameModel(i);
+            assertEquals("stored fingerprint of game " + i, gameModel.getFingerprint(), deferred[i].getFingerprint());
+            assertEquals("moves of game " + i, gameModel.getMoveModel(), loaded[i].getMoveModel());
+        }
+        fileMap.close();
+
+        for (int i = 0; i < numOfGames; i++) {
+            GameModel gameModel = map.getGameModel(i);
+            assertEquals("moves of loaded game " + i, gameModel.getMoveModel(), loaded[i].getMoveModel());
+            assertEquals("fingerprint of loaded game " + i, gameModel.getFingerprint(), loaded[i].getFingerprint());
+            try {
+                deferred[i].getMoveModel();
+                fail("moves of game " + i + " read before the map was closed");
+            } catch (RuntimeException ex) {
+                // the moves are read from the closed file
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Looks up the final positions of the other games, most of them are
+     * rejected by the stored main line filters without reading the moves,
+     * which fails once the map is closed.
+     */
+    @Test
+    public void testMainLineFilter() throws Exception
+    {
+        PositionMap map = readMap();
+        File file = File.createTempFile("chfpm", ".pm");
+        file.deleteOnExit();
+        ChFilePositionMap.writeToDataFile(map, file);
+
+        int numOfGames = map.getNumOfGames();
+        GameModel[] gameModels = new GameModel[numOfGames];
+        long[] finalHashCodes = new long[numOfGames];
+        int i = 0;
+        for (GameModelIterator it = map.getGameModelIterator(); it.hasNext(); i++) {
+            gameModels[i] = it.nextGameModel();
+            long[] hashCodes = gameModels[i].getMainLineHashCodes();
+            finalHashCodes[i] = hashCodes[hashCodes.length - 1];
+        }
+
+        ChFilePositionMap fileMap = new ChFilePositionMap(file);
+        GameModel[] fileGameModels = new GameModel[numOfGames];
+        for (i = 0; i < numOfGames; i++) {
+            assertTrue("final position of game " + i, fileMap.getGameModel(i).containsPosition(finalHashCodes[i]));
+            fileGameModels[i] = fileMap.getGameModel(i);
+        }
+        fileMap.close();
+
+        int numOfQueries = 0, numOfRejected = 0;
+        for (i = 0; i < numOfGames; i++) {
+            for (int j = 0; j < numOfGames; j++) {
+                if (gameModels[i].containsPosition(finalHashCodes[j])) continue;
+                numOfQueries++;
+                try {
+                    assertFalse("final position of game " + j + " in game " + i, fileGameModels[i].containsPosition(finalHashCodes[j]));
+                    numOfRejected++;
+                } catch (RuntimeException ex) {
+                    // passed the filter, the moves cannot be read any more
+                }
+            }
+        }
+        assertTrue("rejected " + numOfRejected + " of " + numOfQueries, numOfRejected >= numOfQueries * 3 / 4);
+        file.delete();
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: TestDuplicateGameIndex.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.position.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import chesspresso.game.GameHeaderModel;
+import chesspresso.game.GameModel;
+import chesspresso.pgn.PGN;
+import chesspresso.pgn.PGNReader;
+
+/**
+ * Tests for the DuplicateGameIndex class.
+ *
+ * @author Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class TestDuplicateGameIndex
+{
+
+    private List<GameModel> readGames() throws Exception
+    {
+        InputStream is = new GZIPInputStream(ClassLoader.getSystemResourceAsStream("chesspresso/pgn/chusa99.pgn.gz"));
+        PGNReader pgnReader = new PGNReader(is, "DuplicateTest");
+        List<GameModel> games = new ArrayList<GameModel>();
+        for (GameModel gameModel = pgnReader.parseGame(); gameModel != null; gameModel = pgnReader.parseGame()) {
+            games.add(gameModel);
+        }
+        return games;
+    }
+
+    private static boolean contains(int[] gameNumbers, int gameNumber)
+    {
+        for (int i = 0; i < gameNumbers.length; i++) {
+            if (gameNumbers[i] == gameNumber) return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testKey() throws Exception
+    {
+        GameModel gameModel = readGames().get(0);
+        GameHeaderModel headerModel = new GameHeaderModel(gameModel.getHeaderModel());
+        headerModel.setTag(PGN.TAG_WHITE, "Peter " + GameHeaderModel.getLastName(headerModel.getWhite()).toUpperCase());
+        GameModel renamed = new GameModel(headerModel, gameModel.getMoveModel());
+        assertEquals("key of renamed game", DuplicateGameIndex.getKey(gameModel), DuplicateGameIndex.getKey(renamed));
+
+        headerModel = new GameHeaderModel(gameModel.getHeaderModel());
+        headerModel.setTag(PGN.TAG_RESULT, "*");
+        GameModel unfinished = new GameModel(headerModel, gameModel.getMoveModel());
+        assertFalse("key of game with other result", DuplicateGameIndex.getKey(gameModel) == DuplicateGameIndex.getKey(unfinished));
+    }
+
+    @Test
+    public void testSpill() throws Exception
+    {
+        List<GameModel> games = readGames();
+        DuplicateGameIndex index = new DuplicateGameIndex(10, null);
+        for (int rep = 0; rep < 2; rep++) {
+            for (int i = 0; i < games.size(); i++) {
+                index.add(DuplicateGameIndex.getKey(games.get(i)), rep * games.size() + i);
+            }
+        }
+        assertEquals("size", 2 * games.size(), index.size());
+        assertTrue("runs written", index.getNumOfRuns() > 0);
+
+        for (int i = 0; i < games.size(); i++) {
+            long key = DuplicateGameIndex.getKey(games.get(i));
+            int[] gameNumbers = index.get(key);
+            assertTrue("first copy of game " + i, contains(gameNumbers, i));
+            assertTrue("second copy of game " + i, contains(gameNumbers, games.size() + i));
+            for (int j = 0; j < gameNumbers.length; j++) {
+                GameModel candidate = games.get(gameNumbers[j] % games.size());
+                assertEquals("key of candidate " + gameNumbers[j], key, DuplicateGameIndex.getKey(candidate));
+            }
+        }
+        index.close();
+    }
+
+    /**
+     * Adds keys to a table growing from its initial capacity, without runs.
+     */
+    @Test
+    public void testGrow() throws Exception
+    {
+        DuplicateGameIndex index = new DuplicateGameIndex();
+        assertEquals("empty", 0, index.get(1L).length);
+        for (int i = 0; i < 10000; i++) index.add(1L + (i % 5000), i);
+        assertEquals("size", 10000, index.size());
+        assertEquals("runs written", 0, index.getNumOfRuns());
+        for (int i = 0; i < 5000; i++) {
+            int[] gameNumbers = index.get(1L + i);
+            assertEquals("entries of key " + (1 + i), 2, gameNumbers.length);
+            assertTrue("first entry of key " + (1 + i), contains(gameNumbers, i));
+            assertTrue("second entry of key " + (1 + i), contains(gameNumbers, 5000 + i));
+        }
+        assertEquals("missing key", 0, index.get(5001L).length);
+        index.close();
+    }
+
+    /**
+     * Puts the games twice into a position map, which reads the candidates
+     * from its game file to find the duplicates.
+     */
+    @Test
+    public void testPositionMap() throws Exception
+    {
+        List<GameModel> games = readGames();
+        PositionMap map = new PositionMap();
+        for (int rep = 0; rep < 2; rep++) {
+            for (int i = 0; i < games.size(); i++) map.putData(games.get(i), 10);
+        }
+        assertTrue("games stored", map.getNumOfGames() > 0);
+        assertTrue("duplicates not stored", map.getNumOfGames() <= games.size());
+        for (int i = 0; i < games.size(); i++) {
+            GameModel gameModel = map.getGameModel(games.get(i));
+            assertTrue("game " + i, gameModel != null);
+            assertEquals("moves of game " + i, games.get(i).getMoveModel(), gameModel.getMoveModel());
+            assertEquals("index of game " + i, gameModel, map.getGameModel(map.getGameModelIndex(games.get(i))));
+        }
+        map.close();
+    }
+
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: MateSolver.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.engines;
+
+import chesspresso.*;
+import chesspresso.position.*;
+import chesspresso.move.*;
+
+
+/**
+ * Proof-number search for forced mates.
+ *
+ * The player to move in the root position is the attacker. A mate in n
+ * is proven if the attacker can force mate with at most n of his moves.
+ * The search is bounded by a node budget and can be cancelled from another
+ * thread. Proven and disproven positions are kept in a transposition table
+ * across calls to <code>solve</code>, keyed on the position and the color of
+ * the attacker.
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class MateSolver
+{
+    private final static boolean DEBUG = false;
+
+    public final static int
+        MATE    = 0,
+        NO_MATE = 1,
+        UNKNOWN = 2;   // node budget exhausted or cancelled
+
+    private final static int INFINITY = Integer.MAX_VALUE / 2;
+
+    //======================================================================
+    // transposition table
+    // per position and attacker: the smallest number of moves a mate was
+    // proven with and the largest number of moves a mate was disproven with
+
+    private final static byte
+        NO_PROOF    = Byte.MAX_VALUE,
+        NO_DISPROOF = -1;
+
+    // mixed into the keys of positions where black is the attacker, a position
+    // is a different node if the other player attacks
+    private final static long BLACK_ATTACKER_KEY = 0x5DEECE66D2C9A3B1L;
+
+    private long[] m_ttKeys;
+    private byte[] m_ttProven;
+    private byte[] m_ttDisproven;
+    private int m_ttMask;
+    private long m_attackerKey;
+
+    private int getTTIndex(long key)
+    {
+        return (int)(key ^ (key >>> 32)) & m_ttMask;
+    }
+
+    private boolean isProven(long hashCode, int movesLeft)
+    {
+        long key = hashCode ^ m_attackerKey;
+        int index = getTTIndex(key);
+        return m_ttKeys[index] == key && m_ttProven[index] <= movesLeft;
+    }
+
+    private boolean isDisproven(long hashCode, int movesLeft)
+    {
+        long key = hashCode ^ m_attackerKey;
+        int index = getTTIndex(key);
+        return m_ttKeys[index] == key && m_ttDisproven[index] >= movesLeft;
+    }
+
+    /**
+     * Returns the smallest number of moves a mate was proven with, or
+     * <code>NO_PROOF</code> if the position is not in the table.
+     */
+    private int getProven(long hashCode)
+    {
+        long key = hashCode ^ m_attackerKey;
+        int index = getTTIndex(key);
+        return (m_ttKeys[index] == key ? m_ttProven[index] : NO_PROOF);
+    }
+
+    private void store(long hashCode, int movesLeft, boolean proven)
+    {
+        long key = hashCode ^ m_attackerKey;
+        int index = getTTIndex(key);
+        if (m_ttKeys[index] != key) {
+            m_ttKeys[index] = key;
+            m_ttProven[index] = NO_PROOF;
+            m_ttDisproven[index] = NO_DISPROOF;
+        }
+        if (proven) {
+            if (movesLeft < m_ttProven[index]) m_ttProven[index] = (byte)movesLeft;
+        } else {
+            if (movesLeft > m_ttDisproven[index]) m_ttDisproven[index] = (byte)movesLeft;
+        }
+    }
+
+    public void clearTranspositionTable()
+    {
+        java.util.Arrays.fill(m_ttKeys, 0L);
+    }
+
+    //======================================================================
+    // search tree, one entry per node in parallel arrays
+    // the node type (attacker or defender to move) and the number of attacker
+    // moves left follow from the depth of the node
+
+    private short[] m_move;
+    private int[] m_parent;
+    private int[] m_firstChild;
+    private short[] m_numOfChildren;
+    private int[] m_proof;
+    private int[] m_disproof;
+    private int m_numOfNodes;
+
+    private void ensureCapacity(int size)
+    {
+        if (size <= m_move.length) return;  // =====>
+        int capacity = Math.max(size, 2 * m_move.length);
+        short[] move = new short[capacity];         System.arraycopy(m_move, 0, move, 0, m_numOfNodes);                  m_move = move;
+        int[] parent = new int[capacity];           System.arraycopy(m_parent, 0, parent, 0, m_numOfNodes);              m_parent = parent;
+        int[] firstChild = new int[capacity];       System.arraycopy(m_firstChild, 0, firstChild, 0, m_numOfNodes);      m_firstChild = firstChild;
+        short[] numOfChildren = new short[capacity];System.arraycopy(m_numOfChildren, 0, numOfChildren, 0, m_numOfNodes); m_numOfChildren = numOfChildren;
+        int[] proof = new int[capacity];            System.arraycopy(m_proof, 0, proof, 0, m_numOfNodes);                m_proof = proof;
+        int[] disproof = new int[capacity];         System.arraycopy(m_disproof, 0, disproof, 0, m_numOfNodes);          m_disproof = disproof;
+    }
+
+    private int addNode(int parent, short move, int proof, int disproof)
+    {
+        int node = m_numOfNodes++;
+        m_move[node] = move;
+        m_parent[node] = parent;
+        m_firstChild[node] = -1;
+        m_numOfChildren[node] = 0;
+        m_proof[node] = proof;
+        m_disproof[node] = disproof;
+        return node;
+    }
+
+    //======================================================================
+
+    private int m_maxNodes;
+    private boolean m_checksOnly;
+    private volatile boolean m_cancelled;
+    private Position m_position;
+    private short[] m_solution;
+
+    //======================================================================
+
+    public MateSolver()
+    {
+        this(20);
+    }
+
+    /**
+     * Create a new mate solver.
+     *
+     *@param hashBits the transposition table has 2^hashBits entries
+     */
+    public MateSolver(int hashBits)
+    {
+        if (hashBits < 1 || hashBits > 30) throw new IllegalArgumentException("Illegal number of hash bits " + hashBits);
+        m_ttKeys = new long[1 << hashBits];
+        m_ttProven = new byte[1 << hashBits];
+        m_ttDisproven = new byte[1 << hashBits];
+        m_ttMask = (1 << hashBits) - 1;
+
+        m_move = new short[1024];
+        m_parent = new int[1024];
+        m_firstChild = new int[1024];
+        m_numOfChildren = new short[1024];
+        m_proof = new int[1024];
+        m_disproof = new int[1024];
+
+        m_maxNodes = 1000000;
+        m_checksOnly = false;
+    }
+
+    //======================================================================
+
+    public int getMaxNodes() {return m_maxNodes;}
+    public void setMaxNodes(int maxNodes)
+    {
+        if (maxNodes < 1) throw new IllegalArgumentException("Illegal node budget " + maxNodes);
+        m_maxNodes = maxNodes;
+    }
+
+    public boolean isChecksOnly() {return m_checksOnly;}
+
+    /**
+     * Restrict the attacker to checking moves. This finds forcing mates much
+     * faster but misses mates with quiet moves.
+     */
+    public void setChecksOnly(boolean checksOnly)
+    {
+        // disproofs depend on the move set
+        if (checksOnly != m_checksOnly) clearTranspositionTable();
+        m_checksOnly = checksOnly;
+    }
+
+    /**
+     * Stop the current search. <code>solve</code> returns <code>UNKNOWN</code>.
+     */
+    public void cancel() {m_cancelled = true;}
+
+    public int getNumOfNodes() {return m_numOfNodes;}
+
+    /**
+     * Returns the mating line found by the last successful call to <code>solve</code>.
+     * The line starts with the attacker's move and follows the tree as far
+     * as it has been expanded, then the positions proven in the transposition
+     * table. It is shorter than the mate if table entries have been
+     * overwritten since they were proven.
+     */
+    public short[] getSolution() {return m_solution;}
+
+    //======================================================================
+
+    /**
+     * Search for a mate with at most the given number of moves of the player to move.
+     *
+     *@param position the position to start from, is not changed
+     *@param maxMoves the maximal number of moves of the attacker
+     *@return <code>MATE</code>, <code>NO_MATE</code> or <code>UNKNOWN</code>
+     */
+    public int solve(ImmutablePosition position, int maxMoves)
+    {
+        if (maxMoves < 1 || maxMoves >= NO_PROOF) throw new IllegalArgumentException("Illegal number of moves " + maxMoves);
+
+        m_cancelled = false;
+        m_solution = null;
+        m_position = new Position(position);
+        m_attackerKey = (position.getToPlay() == Chess.BLACK ? BLACK_ATTACKER_KEY : 0L);
+        m_numOfNodes = 0;
+
+        int root = addNode(-1, Move.NO_MOVE, 1, 1);
+        if (isProven(m_position.getHashCode(), maxMoves)) m_proof[root] = 0;
+        else if (isDisproven(m_position.getHashCode(), maxMoves)) m_disproof[root] = 0;
+
+        while (m_proof[root] != 0 && m_disproof[root] != 0) {
+            if (m_cancelled || m_numOfNodes >= m_maxNodes) return UNKNOWN;  // =====>
+
+            /*---------- select most proving node ----------*/
+            int node = root;
+            int depth = 0;
+            while (m_numOfChildren[node] > 0) {
+                node = selectChild(node, depth % 2 == 0);
+                try {
+                    m_position.doMove(m_move[node]);
+                } catch (IllegalMoveException ex) {
+                    throw new RuntimeException("Illegal move in search tree " + Move.getString(m_move[node]));
+                }
+                depth++;
+            }
+
+            /*---------- expand and update ancestors ----------*/
+            boolean attacker = (depth % 2 == 0);
+            int movesLeft = maxMoves - (depth + 1) / 2;
+            if (!expand(node, attacker, movesLeft)) return UNKNOWN;  // =====>
+
+            for (;;) {
+                if (m_proof[node] == 0) store(m_position.getHashCode(), movesLeft, true);
+                else if (m_disproof[node] == 0) store(m_position.getHashCode(), movesLeft, false);
+                if (node == root) break;
+                m_position.undoMove();
+                node = m_parent[node];
+                depth--;
+                attacker = (depth % 2 == 0);
+                movesLeft = maxMoves - (depth + 1) / 2;
+                updateNode(node, attacker);
+            }
+        }
+
+        if (DEBUG) System.out.println("Nodes: " + m_numOfNodes + " proof: " + m_proof[root]);
+
+        if (m_proof[root] == 0) {
+            m_solution = getLine(root, maxMoves);
+            return MATE;
+        } else {
+            return NO_MATE;
+        }
+    }
+
+    private int selectChild(int node, boolean attacker)
+    {
+        int child = m_firstChild[node];
+        int last = child + m_numOfChildren[node];
+        for (; child < last; child++) {
+            if (attacker ? m_proof[child] == m_proof[node] : m_disproof[child] == m_disproof[node]) return child;  // =====>
+        }
+        throw new RuntimeException("No child matches proof numbers of node " + node);
+    }
+
+    private void updateNode(int node, boolean attacker)
+    {
+        int child = m_firstChild[node];
+        int last = child + m_numOfChildren[node];
+        int proof, disproof;
+        if (attacker) {
+            proof = INFINITY; disproof = 0;
+            for (; child < last; child++) {
+                if (m_proof[child] < proof) proof = m_proof[child];
+                disproof = Math.min(INFINITY, disproof + m_disproof[child]);
+            }
+        } else {
+            proof = 0; disproof = INFINITY;
+            for (; child < last; child++) {
+                proof = Math.min(INFINITY, proof + m_proof[child]);
+                if (m_disproof[child] < disproof) disproof = m_disproof[child];
+            }
+        }
+        m_proof[node] = proof;
+        m_disproof[node] = disproof;
+    }
+
+    /**
+     * Generate the children of the node in the current position and initialize
+     * their proof and disproof numbers.
+     *
+     *@return false if the node budget does not allow to expand the node
+     */
+    private boolean expand(int node, boolean attacker, int movesLeft)
+    {
+        short[] moves = m_position.getAllMoves();
+        if (m_numOfNodes + moves.length > m_maxNodes) return false;  // =====>
+        ensureCapacity(m_numOfNodes + moves.length);
+
+        m_firstChild[node] = m_numOfNodes;
+        int numOfChildren = 0;
+        for (int i = 0; i < moves.length; i++) {
+            short move = moves[i];
+            if (attacker && m_checksOnly && !m_position.givesCheck(move)) continue;
+
+            long hashCode = m_position.getHashCodeAfter(move);
+            int proof = 1, disproof = 1;
+            if (attacker) {
+                // child: defender to move, mated or with movesLeft - 1 attacker moves to go
+                if (isProven(hashCode, movesLeft - 1)) {
+                    proof = 0; disproof = INFINITY;
+                } else if (isDisproven(hashCode, movesLeft - 1)) {
+                    proof = INFINITY; disproof = 0;
+                } else if (m_checksOnly || m_position.givesCheck(move)) {
+                    try {
+                        m_position.doMove(move);
+                        if (m_position.isMate()) {
+                            proof = 0; disproof = INFINITY;
+                        } else if (movesLeft == 1) {
+                            proof = INFINITY; disproof = 0;
+                        }
+                        m_position.undoMove();
+                    } catch (IllegalMoveException ex) {
+                        throw new RuntimeException("Illegal move generated " + Move.getString(move));
+                    }
+                } else if (movesLeft == 1) {
+                    // no check, no mate (stalemate is no mate either)
+                    proof = INFINITY; disproof = 0;
+                }
+            } else {
+                // child: attacker to move with movesLeft moves to go
+                if (isProven(hashCode, movesLeft)) {
+                    proof = 0; disproof = INFINITY;
+                } else if (isDisproven(hashCode, movesLeft)) {
+                    proof = INFINITY; disproof = 0;
+                }
+            }
+            addNode(node, move, proof, disproof);
+            numOfChildren++;
+
+            // cutoffs: one proven attacker move or one disproven defender move decides
+            if (attacker && proof == 0) break;
+            if (!attacker && disproof == 0) break;
+        }
+        m_numOfChildren[node] = (short)numOfChildren;
+
+        if (numOfChildren == 0) {
+            // attacker without (checking) moves fails; defender without moves is
+            // stalemated, since mate is detected when the node is created
+            m_proof[node] = INFINITY;
+            m_disproof[node] = 0;
+        } else {
+            updateNode(node, attacker);
+        }
+        return true;
+    }
+
+    /**
+     * Follow the proven moves from the root, in the tree and then in the
+     * transposition table. The defender plays the move resisting longest.
+     */
+    private short[] getLine(int root, int maxMoves)
+    {
+        short[] line = new short[2 * NO_PROOF];
+        int length = 0;
+        int node = root;
+        boolean attacker = true;
+        try {
+            /*---------- follow the tree ----------*/
+            while (m_numOfChildren[node] > 0 && length < line.length) {
+                int child = m_firstChild[node];
+                int last = child + m_numOfChildren[node];
+                int best = -1;
+                for (; child < last; child++) {
+                    if (attacker && m_proof[child] == 0) {best = child; break;}
+                    if (!attacker && (best == -1 || m_numOfChildren[child] > m_numOfChildren[best])) best = child;
+                }
+                if (best == -1) break;
+                m_position.doMove(m_move[best]);
+                line[length++] = m_move[best];
+                node = best;
+                attacker = !attacker;
+            }
+
+            /*---------- continue with the transposition table ----------*/
+            while (length < line.length) {
+                int movesLeft = maxMoves - (length + 1) / 2;
+                short[] moves = m_position.getAllMoves();
+                short best = Move.NO_MOVE;
+                if (attacker) {
+                    for (int i = 0; i < moves.length && best == Move.NO_MOVE; i++) {
+                        m_position.doMove(moves[i]);
+                        if (m_position.isMate() || isProven(m_position.getHashCode(), movesLeft - 1)) best = moves[i];
+                        m_position.undoMove();
+                    }
+                } else {
+                    int bestProven = -1;
+                    for (int i = 0; i < moves.length; i++) {
+                        int proven = getProven(m_position.getHashCodeAfter(moves[i]));
+                        if (proven > movesLeft) {best = Move.NO_MOVE; break;}  // not proven any more
+                        if (proven > bestProven) {best = moves[i]; bestProven = proven;}
+                    }
+                }
+                if (best == Move.NO_MOVE) break;
+                m_position.doMove(best);
+                line[length++] = best;
+                attacker = !attacker;
+            }
+        } catch (IllegalMoveException ex) {
+            throw new RuntimeException("Illegal move in solution " + ex.getMessage());
+        }
+        for (int i = 0; i < length; i++) m_position.undoMove();
+
+        short[] res = new short[length];
+        System.arraycopy(line, 0, res, 0, length);
+        return res;
+    }
+}
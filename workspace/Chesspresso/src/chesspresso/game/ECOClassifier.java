@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: ECOClassifier.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.game;
+
+import chesspresso.pgn.*;
+import java.io.*;
+
+/**
+ * Classifies games by their ECO code.
+ *
+ * The classifier is a table of the positions defining the ECO codes, keyed
+ * by the hash code of the position. A game is classified by the deepest
+ * position of its main line found in the table. Since positions are looked
+ * up rather than move sequences, transpositions into a defining position are
+ * classified as well.
+ *
+ * The table is built from a PGN file with one game per ECO line, the
+ * ECO tag holding the code and the moves leading to the defining position
+ * (like the eco.pgn files distributed with many PGN tools).
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class ECOClassifier
+{
+
+    private static final boolean DEBUG = false;
+
+    //======================================================================
+
+    private long[] m_keys;       // open addressing, hash codes of the defining positions
+    private int[] m_values;      // symbol of the ECO code + 1, 0 is empty
+    private int m_size;
+    private SymbolTable m_codes;
+    private int m_maxPly;        // deepest defining position, no need to probe further
+
+    //======================================================================
+
+    /**
+     * Creates an empty classifier.
+     */
+    public ECOClassifier()
+    {
+        m_keys = new long[1024];
+        m_values = new int[1024];
+        m_size = 0;
+        m_codes = new SymbolTable();
+        m_maxPly = 0;
+    }
+
+    /**
+     * Creates a classifier from a PGN file of ECO lines.
+     *
+     *@param reader the reader of the ECO lines
+     */
+    public ECOClassifier(PGNReader reader) throws PGNSyntaxError, IOException
+    {
+        this();
+        addLines(reader);
+    }
+
+    /**
+     * Loads a classifier saved with {@link #save(DataOutput)}.
+     */
+    public ECOClassifier(DataInput in) throws IOException
+    {
+        this();
+        int numOfCodes = in.readInt();
+        String[] codes = new String[numOfCodes];
+        for (int i=0; i<numOfCodes; i++) codes[i] = in.readUTF();
+        int maxPly = in.readInt();
+        int size = in.readInt();
+        for (int i=0; i<size; i++) {
+            long hashCode = in.readLong();
+            int code = in.readInt();
+            if (code < 0 || code >= numOfCodes) throw new IOException("Illegal ECO code index " + code);
+            add(hashCode, codes[code], maxPly);
+        }
+    }
+
+    public void save(DataOutput out) throws IOException
+    {
+        int numOfCodes = m_codes.size();
+        out.writeInt(numOfCodes);
+        for (int i=0; i<numOfCodes; i++) out.writeUTF(m_codes.getString(i));
+        out.writeInt(m_maxPly);
+        out.writeInt(m_size);
+        for (int slot=0; slot<m_keys.length; slot++) {
+            if (m_values[slot] != 0) {
+                out.writeLong(m_keys[slot]);
+                out.writeInt(m_values[slot] - 1);
+            }
+        }
+    }
+
+    //======================================================================
+
+    private int getSlot(long hashCode)
+    {
+        int mask = m_keys.length - 1;
+        int slot = (int)(hashCode ^ (hashCode >>> 32)) * 0x9E3779B9 >>> 1 & mask;
+        while (m_values[slot] != 0 && m_keys[slot] != hashCode) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow()
+    {
+        long[] keys = m_keys;
+        int[] values = m_values;
+        m_keys = new long[2 * keys.length];
+        m_values = new int[2 * values.length];
+        for (int i=0; i<keys.length; i++) {
+            if (values[i] != 0) {
+                int slot = getSlot(keys[i]);
+                m_keys[slot] = keys[i];
+                m_values[slot] = values[i];
+            }
+        }
+    }
+
+    /**
+     * Adds a defining position. If the position is already in the table,
+     * the code added first is kept.
+     *
+     *@param hashCode the hash code of the position
+     *@param eco the ECO code
+     *@param ply the ply of the position in its line
+     */
+    public void add(long hashCode, String eco, int ply)
+    {
+        if (eco == null) throw new IllegalArgumentException("ECO code is null");
+        if (ply > m_maxPly) m_maxPly = ply;
+
+        int slot = getSlot(hashCode);
+        if (m_values[slot] != 0) {
+            if (DEBUG && !eco.equals(m_codes.getString(m_values[slot] - 1))) System.out.println("Position of " + eco + " already defined by " + m_codes.getString(m_values[slot] - 1));
+            return;  // =====>
+        }
+        m_keys[slot] = hashCode;
+        m_values[slot] = m_codes.getSymbol(eco) + 1;
+        m_size++;
+        if (2 * m_size > m_keys.length) grow();
+    }
+
+    /**
+     * Adds the final position of the main line of each game read as defining
+     * position of the code in the ECO tag. Games without ECO tag are skipped.
+     *
+     *@param reader the reader of the ECO lines
+     *@return the number of lines added
+     */
+    public int addLines(PGNReader reader) throws PGNSyntaxError, IOException
+    {
+        int numOfLines = 0;
+        for (GameModel gameModel = reader.parseGame(); gameModel != null; gameModel = reader.parseGame()) {
+            String eco = gameModel.getHeaderModel().getECO();
+            if (eco == null || gameModel.getHeaderModel().getTag(PGN.TAG_FEN) != null) continue;
+            long[] hashCodes = gameModel.getMainLineHashCodes();
+            add(hashCodes[hashCodes.length - 1], eco, hashCodes.length - 1);
+            numOfLines++;
+        }
+        return numOfLines;
+    }
+
+    /**
+     *@return the number of defining positions
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    //======================================================================
+
+    /**
+     * Returns the ECO code of a position.
+     *
+     *@param hashCode the hash code of the position
+     *@return the ECO code, null if the position does not define a code
+     */
+    public String getECO(long hashCode)
+    {
+        int slot = getSlot(hashCode);
+        return m_codes.getString(m_values[slot] - 1);  // NO_SYMBOL if empty
+    }
+
+    /**
+     * Returns the ECO code of a line, the code of the deepest defining
+     * position of the line.
+     *
+     *@param hashCodes the hash codes of the positions of the line, starting with the initial position
+     *@return the ECO code, null if no position of the line defines a code
+     */
+    public String getECO(long[] hashCodes)
+    {
+        for (int ply = Math.min(hashCodes.length - 1, m_maxPly); ply >= 0; ply--) {
+            int slot = getSlot(hashCodes[ply]);
+            if (m_values[slot] != 0) return m_codes.getString(m_values[slot] - 1);  // =====>
+        }
+        return null;
+    }
+
+    /**
+     * Returns the ECO code of a game. The main line positions cached by the
+     * game model are used (see {@link GameModel#getMainLineHashCodes()}), so
+     * classifying a game that has been indexed does not replay it again.
+     *
+     *@param gameModel the game
+     *@return the ECO code, null if the game cannot be classified or does not start from the initial position
+     */
+    public String getECO(GameModel gameModel)
+    {
+        if (gameModel.getHeaderModel().getTag(PGN.TAG_FEN) != null) return null;  // =====>
+        return getECO(gameModel.getMainLineHashCodes());
+    }
+
+    /**
+     * Sets the ECO tag of a game to its classification. The header of the
+     * game must not be frozen, use {@link #getECO(GameModel)} for frozen games.
+     *
+     *@param gameModel the game
+     *@param overwrite whether to replace an ECO tag already set
+     *@return whether the tag has been set
+     */
+    public boolean classify(GameModel gameModel, boolean overwrite)
+    {
+        GameHeaderModel headerModel = gameModel.getHeaderModel();
+        if (!overwrite && headerModel.getECO() != null) return false;  // =====>
+        String eco = getECO(gameModel);
+        if (eco == null) return false;  // =====>
+        headerModel.setTag(PGN.TAG_ECO, eco);
+        return true;
+    }
+
+}
@@ -64,6 +64,9 @@ public class Game implements PositionChangeListener
     private boolean m_ignoreNotifications;
     private boolean m_alwaysAddLine;        // during pgn parsing, always add new lines
     private List m_changeListeners;
+    private int m_checkpointInterval;       // 0 = no checkpoints
+    private PositionSnapshot[] m_checkpoints;  // indexed by node, every m_checkpointInterval plies
+    private int m_rootPly;
     
     //======================================================================
     
@@ -89,6 +92,7 @@ public class Game implements PositionChangeListener
     public void pack()
     {
         m_cur = m_moves.pack(m_cur); // TODO pack headers?
+        m_checkpoints = null;  // node indices have changed
     }
     
     private void setModel(GameModel gameModel)
@@ -110,6 +114,8 @@ public class Game implements PositionChangeListener
         m_position = position;
         m_position.addPositionChangeListener(this);
         m_cur = 0;
+        m_rootPly = position.getPlyNumber();
+        m_checkpoints = null;
     }
     
     public void setAlwaysAddLine(boolean alwaysAddLine) {m_alwaysAddLine = alwaysAddLine;}
@@ -130,6 +136,7 @@ public class Game implements PositionChangeListener
     
     protected void fireMoveModelChanged()
     {
+        m_checkpoints = null;  // node indices may have changed
         if (m_changeListeners != null) {
             for (Iterator it=m_changeListeners.iterator(); it.hasNext(); ) {
                 ((GameModelChangeListener)it.next()).moveModelChanged(this);
@@ -137,6 +144,57 @@ public class Game implements PositionChangeListener
         }
     }
     
+    //======================================================================
+    // checkpoints
+    
+    public int getCheckpointInterval() {return m_checkpointInterval;}
+    
+    /**
+     * Enables a cache of position snapshots taken every <code>interval</code>
+     * plies along each line visited. Navigating to a node then restores the
+     * nearest checkpoint and replays at most <code>interval</code> moves
+     * instead of the whole game. The cache is dropped whenever the move
+     * model changes.
+     *
+     *@param interval the number of plies between checkpoints, 0 to disable
+     */
+    public void setCheckpointInterval(int interval)
+    {
+        if (interval < 0) throw new IllegalArgumentException("Illegal checkpoint interval " + interval);
+        m_checkpointInterval = interval;
+        m_checkpoints = null;
+    }
+    
+    private void storeCheckpoint()
+    {
+        if (m_checkpointInterval == 0) return;  // =====>
+        if ((m_position.getPlyNumber() - m_rootPly) % m_checkpointInterval != 0) return;  // =====>
+        
+        if (m_checkpoints == null) {
+            m_checkpoints = new PositionSnapshot[Math.max(64, m_cur + 1)];
+        } else if (m_cur >= m_checkpoints.length) {
+            PositionSnapshot[] checkpoints = new PositionSnapshot[Math.max(2 * m_checkpoints.length, m_cur + 1)];
+            System.arraycopy(m_checkpoints, 0, checkpoints, 0, m_checkpoints.length);
+            m_checkpoints = checkpoints;
+        }
+        if (m_checkpoints[m_cur] == null) m_checkpoints[m_cur] = m_position.createSnapshot();
+    }
+    
+    private boolean hasCheckpoint(int node)
+    {
+        return m_checkpoints != null && node < m_checkpoints.length && m_checkpoints[node] != null;
+    }
+    
+    private void restoreCheckpoint(int node, boolean silent)
+    {
+        m_cur = node;
+        m_ignoreNotifications = true;
+        if (silent) m_position.setNotifyListeners(false);
+        m_position.restoreSnapshot(m_checkpoints[node]);
+        if (silent) m_position.setNotifyListeners(true);
+        m_ignoreNotifications = false;
+    }
+    
     //======================================================================
     // methods of PositionChangeListener
     
@@ -213,16 +271,7 @@ public class Game implements PositionChangeListener
      */
     public boolean containsPosition(ImmutablePosition position)
     {
-        boolean res = false;
-        int index = getCurNode();
-        gotoStart(true);
-        for (;;) {
-            if (m_position.getHashCode() == position.getHashCode()) {res = true; break;}
-            if (!hasNextMove()) break;
-            goForward(true);
-        }
-        gotoNode(index, true);
-        return res;
+        return m_model.containsPosition(position.getHashCode());
     }
     
     //======================================================================
@@ -499,6 +548,7 @@ public class Game implements PositionChangeListener
                 m_position.doMove(shortMove);
                 if (silent) m_position.setNotifyListeners(true);
                 m_ignoreNotifications = false;
+                storeCheckpoint();
                 return true;
             } catch (IllegalMoveException ex) {
                 ex.printStackTrace();
@@ -525,6 +575,7 @@ public class Game implements PositionChangeListener
                 Move move = m_position.getLastMove();
                 if (silent) m_position.setNotifyListeners(true);
                 m_ignoreNotifications = false;
+                storeCheckpoint();
                 return move;
             } catch (IllegalMoveException ex) {
                 ex.printStackTrace();
@@ -537,7 +588,12 @@ public class Game implements PositionChangeListener
     
     private void gotoStart(boolean silent)
     {
-        while (goBack(silent)) ;
+        if (m_cur != 0 && hasCheckpoint(0)) {
+            restoreCheckpoint(0, silent);
+        } else {
+            while (goBack(silent)) ;
+            storeCheckpoint();
+        }
     }
     
     private void gotoEndOfLine(boolean silent)
@@ -594,8 +650,20 @@ public class Game implements PositionChangeListener
     {
         int[] nodeNodes = getNodesToRoot(node);
         
-        gotoStart(silent);
-        for (int i = nodeNodes.length - 2; i >= 0; i--) {
+        /*---------- start from the nearest checkpoint on the way to the root ----------*/
+        int start = nodeNodes.length - 1;
+        if (m_checkpointInterval > 0) {
+            for (int i = 0; i < nodeNodes.length - 1; i++) {
+                if (hasCheckpoint(nodeNodes[i])) {start = i; break;}
+            }
+        }
+        if (start < nodeNodes.length - 1) {
+            restoreCheckpoint(nodeNodes[start], silent);
+        } else {
+            gotoStart(silent);
+        }
+        
+        for (int i = start - 1; i >= 0; i--) {
             int nextMoveIndex = 0;
             for (int j = 1; j < getNumOfNextMoves(); j++) {
                 if (m_moves.goForward(m_cur, j) == nodeNodes[i]) {
@@ -644,39 +712,92 @@ public class Game implements PositionChangeListener
      *@param listener the listener to receive event when arriving at nodes
      *@param withLines whether or not to include lines of the current main line.
      */
-    public void traverse(GameListener listener, boolean withLines)
+    public void traverse(final GameListener listener, boolean withLines)
+    {
+        traverse(new GameNodeListener() {
+            public void notifyNode(Game game, int node, short move, int plyNumber, int level)
+            {
+                listener.notifyMove(getLastMove(), getNags(), getComment(), plyNumber, level);
+            }
+            
+            public void notifyLineStart(int level) {listener.notifyLineStart(level);}
+            public void notifyLineEnd(int level)   {listener.notifyLineEnd(level);}
+        }, withLines);
+    }
+    
+    /**
+     * Method to traverse the game in postfix order without creating objects
+     * per node. The game stands on the node while the listener is notified;
+     * the listener must not change the game or the position.
+     *
+     *@param listener the listener to receive event when arriving at nodes
+     *@param withLines whether or not to include lines of the current main line.
+     */
+    public void traverse(GameNodeListener listener, boolean withLines)
     {
         int index = getCurNode();
         gotoStart(true);
-        traverse(listener, withLines, m_position.getPlyNumber(), 0);
+        
+        m_ignoreNotifications = true;
+        m_position.setNotifyListeners(false);
+        try {
+            traverse(listener, withLines, 0, m_position.getPlyNumber(), 0);
+        } finally {
+            m_position.setNotifyListeners(true);
+            m_ignoreNotifications = false;
+        }
+        
+        m_cur = 0;
         gotoNode(index, true);
     }
     
-    private void traverse(GameListener listener, boolean withLines, int plyNumber, int level)
+    /**
+     * Walks the lines starting at node directly on the move model. The position
+     * is the same when the method returns.
+     */
+    private void traverse(GameNodeListener listener, boolean withLines, int node, int plyNumber, int level)
     {
-        while(hasNextMove()) {
-            int numOfNextMoves = getNumOfNextMoves();
+        int numOfMovesDone = 0;
+        while (m_moves.hasNextMove(node)) {
+            int numOfNextMoves = (withLines ? m_moves.getNumOfNextMoves(node) : 1);
             
-            Move move = goForwardAndGetMove(true);
-            listener.notifyMove(move, getNags(), getComment(), plyNumber, level);
+            int next = m_moves.goForward(node);
+            short move = m_moves.getMove(next);
+            doTraversalMove(next, move);
+            listener.notifyNode(this, next, move, plyNumber, level);
             
-            if (withLines && numOfNextMoves > 1) {
-                for (int i=1; i<numOfNextMoves; i++) {
-                    goBack(true);
-                    listener.notifyLineStart(level);
-                    
-                    move = goForwardAndGetMove(i, true);
-                    listener.notifyMove(move, getNags(), getComment(), plyNumber, level + 1);
+            for (int i=1; i<numOfNextMoves; i++) {
+                m_position.undoMove();
+                m_cur = node;
+                listener.notifyLineStart(level);
                 
-                    traverse(listener, withLines, plyNumber + 1, level + 1);
-                    
-                    goBackToMainLine(true);
-                    if (i > 0) listener.notifyLineEnd(level);
-                }
+                int lineNode = m_moves.goForward(node, i);
+                short lineMove = m_moves.getMove(lineNode);
+                doTraversalMove(lineNode, lineMove);
+                listener.notifyNode(this, lineNode, lineMove, plyNumber, level + 1);
+                
+                traverse(listener, withLines, lineNode, plyNumber + 1, level + 1);
+                
+                m_position.undoMove();
+                doTraversalMove(next, move);
+                listener.notifyLineEnd(level);
             }
             
+            node = next;
+            numOfMovesDone++;
             plyNumber++;
         }
+        for (int i=0; i<numOfMovesDone; i++) m_position.undoMove();
+    }
+    
+    private void doTraversalMove(int node, short move)
+    {
+        try {
+            m_cur = node;
+            m_position.doMove(move);
+        } catch (IllegalMoveException ex) {
+            throw new RuntimeException("Illegal move " + Move.getString(move) + " at node " + node);
+        }
     }
     
 	//======================================================================
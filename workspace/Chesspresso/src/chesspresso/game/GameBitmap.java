@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: GameBitmap.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.game;
+
+/**
+ * Compressed set of game indices, used to select games.
+ *
+ * The indices are split into chunks of 65536. A chunk with few indices is
+ * stored as a sorted array of the lower 16 bits, a chunk with many indices as
+ * a bitmap of 65536 bits. Intersection and union work chunk by chunk, so
+ * selecting the games matching several criteria takes time in the order of
+ * the number of selected games, not of all games.
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class GameBitmap
+{
+
+    private static final int
+        CHUNK_BITS = 16,
+        CHUNK_SIZE = 1 << CHUNK_BITS,
+        MAX_ARRAY_SIZE = 4096,             // larger chunks are bitmaps, same size at 4096
+        BITMAP_WORDS = CHUNK_SIZE / 64;
+
+    //======================================================================
+
+    private int[] m_keys;                   // upper bits of the indices, ascending
+    private Object[] m_chunks;              // char[] (sorted) or long[BITMAP_WORDS]
+    private int[] m_cardinalities;
+    private int m_numOfChunks;
+
+    //======================================================================
+
+    public GameBitmap()
+    {
+        m_keys = new int[4];
+        m_chunks = new Object[4];
+        m_cardinalities = new int[4];
+        m_numOfChunks = 0;
+    }
+
+    /**
+     * Creates a bitmap with all indices from 0 to size - 1.
+     */
+    public static GameBitmap createRange(int size)
+    {
+        GameBitmap bitmap = new GameBitmap();
+        for (int start = 0; start < size; start += CHUNK_SIZE) {
+            int num = Math.min(CHUNK_SIZE, size - start);
+            long[] words = new long[BITMAP_WORDS];
+            for (int i=0; i<num / 64; i++) words[i] = -1L;
+            if (num % 64 != 0) words[num / 64] = (1L << (num % 64)) - 1;
+            bitmap.appendChunk(start >>> CHUNK_BITS, num > MAX_ARRAY_SIZE ? (Object)words : toArray(words, num), num);
+        }
+        return bitmap;
+    }
+
+    //======================================================================
+
+    private void insertChunk(int chunkIndex, int key, Object chunk, int cardinality)
+    {
+        if (m_numOfChunks == m_keys.length) {
+            int[] keys = new int[2 * m_numOfChunks];
+            Object[] chunks = new Object[2 * m_numOfChunks];
+            int[] cardinalities = new int[2 * m_numOfChunks];
+            System.arraycopy(m_keys, 0, keys, 0, m_numOfChunks);
+            System.arraycopy(m_chunks, 0, chunks, 0, m_numOfChunks);
+            System.arraycopy(m_cardinalities, 0, cardinalities, 0, m_numOfChunks);
+            m_keys = keys; m_chunks = chunks; m_cardinalities = cardinalities;
+        }
+        int num = m_numOfChunks - chunkIndex;
+        System.arraycopy(m_keys, chunkIndex, m_keys, chunkIndex + 1, num);
+        System.arraycopy(m_chunks, chunkIndex, m_chunks, chunkIndex + 1, num);
+        System.arraycopy(m_cardinalities, chunkIndex, m_cardinalities, chunkIndex + 1, num);
+        m_keys[chunkIndex] = key;
+        m_chunks[chunkIndex] = chunk;
+        m_cardinalities[chunkIndex] = cardinality;
+        m_numOfChunks++;
+    }
+
+    private void appendChunk(int key, Object chunk, int cardinality)
+    {
+        if (cardinality > 0) insertChunk(m_numOfChunks, key, chunk, cardinality);
+    }
+
+    private int getChunkIndex(int key)
+    {
+        int low = 0, high = m_numOfChunks - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (m_keys[mid] < key) low = mid + 1;
+            else if (m_keys[mid] > key) high = mid - 1;
+            else return mid;  // =====>
+        }
+        return -(low + 1);
+    }
+
+    private static char[] toArray(long[] words, int cardinality)
+    {
+        char[] values = new char[cardinality];
+        int num = 0;
+        for (int i=0; i<BITMAP_WORDS; i++) {
+            long word = words[i];
+            while (word != 0L) {
+                values[num++] = (char)(64 * i + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+
+    private static long[] toBitmap(char[] values, int cardinality)
+    {
+        long[] words = new long[BITMAP_WORDS];
+        for (int i=0; i<cardinality; i++) words[values[i] >>> 6] |= 1L << values[i];
+        return words;
+    }
+
+    //======================================================================
+
+    /**
+     * Adds a game index. Adding in ascending order is fastest.
+     *
+     *@param index the index, must not be negative
+     */
+    public void add(int index)
+    {
+        if (index < 0) throw new IllegalArgumentException("Illegal game index " + index);
+
+        int key = index >>> CHUNK_BITS;
+        char low = (char)index;
+        int chunkIndex = (m_numOfChunks > 0 && m_keys[m_numOfChunks - 1] == key ? m_numOfChunks - 1 : getChunkIndex(key));
+        if (chunkIndex < 0) {
+            char[] values = new char[4];
+            values[0] = low;
+            insertChunk(-chunkIndex - 1, key, values, 1);
+            return;  // =====>
+        }
+
+        int cardinality = m_cardinalities[chunkIndex];
+        if (m_chunks[chunkIndex] instanceof long[]) {
+            long[] words = (long[])m_chunks[chunkIndex];
+            if ((words[low >>> 6] & (1L << low)) == 0L) {
+                words[low >>> 6] |= 1L << low;
+                m_cardinalities[chunkIndex]++;
+            }
+        } else {
+            char[] values = (char[])m_chunks[chunkIndex];
+            int pos;
+            if (values[cardinality - 1] < low) {
+                pos = cardinality;  // append
+            } else {
+                pos = java.util.Arrays.binarySearch(values, 0, cardinality, low);
+                if (pos >= 0) return;  // =====> already contained
+                pos = -pos - 1;
+            }
+            if (cardinality == MAX_ARRAY_SIZE) {
+                long[] words = toBitmap(values, cardinality);
+                words[low >>> 6] |= 1L << low;
+                m_chunks[chunkIndex] = words;
+            } else {
+                if (cardinality == values.length) {
+                    char[] newValues = new char[Math.min(MAX_ARRAY_SIZE, 2 * cardinality)];
+                    System.arraycopy(values, 0, newValues, 0, cardinality);
+                    values = newValues;
+                    m_chunks[chunkIndex] = values;
+                }
+                System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+                values[pos] = low;
+            }
+            m_cardinalities[chunkIndex]++;
+        }
+    }
+
+    public boolean contains(int index)
+    {
+        if (index < 0) return false;  // =====>
+        int chunkIndex = getChunkIndex(index >>> CHUNK_BITS);
+        if (chunkIndex < 0) return false;  // =====>
+        char low = (char)index;
+        if (m_chunks[chunkIndex] instanceof long[]) {
+            return (((long[])m_chunks[chunkIndex])[low >>> 6] & (1L << low)) != 0L;
+        } else {
+            return java.util.Arrays.binarySearch((char[])m_chunks[chunkIndex], 0, m_cardinalities[chunkIndex], low) >= 0;
+        }
+    }
+
+    /**
+     *@return the number of game indices in the bitmap
+     */
+    public int getCardinality()
+    {
+        int cardinality = 0;
+        for (int i=0; i<m_numOfChunks; i++) cardinality += m_cardinalities[i];
+        return cardinality;
+    }
+
+    public boolean isEmpty()
+    {
+        return m_numOfChunks == 0;
+    }
+
+    /**
+     *@return the game indices in ascending order
+     */
+    public int[] toArray()
+    {
+        int[] indices = new int[getCardinality()];
+        int num = 0;
+        for (int i=0; i<m_numOfChunks; i++) {
+            int base = m_keys[i] << CHUNK_BITS;
+            if (m_chunks[i] instanceof long[]) {
+                long[] words = (long[])m_chunks[i];
+                for (int j=0; j<BITMAP_WORDS; j++) {
+                    long word = words[j];
+                    while (word != 0L) {
+                        indices[num++] = base + 64 * j + Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[])m_chunks[i];
+                for (int j=0; j<m_cardinalities[i]; j++) indices[num++] = base + values[j];
+            }
+        }
+        return indices;
+    }
+
+    //======================================================================
+
+    /**
+     * Returns the games contained in this bitmap and in the other one.
+     */
+    public GameBitmap and(GameBitmap bitmap)
+    {
+        GameBitmap result = new GameBitmap();
+        int i = 0, j = 0;
+        while (i < m_numOfChunks && j < bitmap.m_numOfChunks) {
+            if (m_keys[i] < bitmap.m_keys[j]) {
+                i++;
+            } else if (m_keys[i] > bitmap.m_keys[j]) {
+                j++;
+            } else {
+                andChunks(result, m_keys[i], m_chunks[i], m_cardinalities[i], bitmap.m_chunks[j], bitmap.m_cardinalities[j]);
+                i++; j++;
+            }
+        }
+        return result;
+    }
+
+    private static void andChunks(GameBitmap result, int key, Object chunk1, int card1, Object chunk2, int card2)
+    {
+        if (chunk1 instanceof long[] && chunk2 instanceof long[]) {
+            long[] words1 = (long[])chunk1, words2 = (long[])chunk2;
+            long[] words = new long[BITMAP_WORDS];
+            int cardinality = 0;
+            for (int k=0; k<BITMAP_WORDS; k++) {
+                words[k] = words1[k] & words2[k];
+                cardinality += Long.bitCount(words[k]);
+            }
+            result.appendChunk(key, cardinality > MAX_ARRAY_SIZE ? (Object)words : toArray(words, cardinality), cardinality);
+        } else if (chunk1 instanceof long[] || chunk2 instanceof long[]) {
+            long[] words = (long[])(chunk1 instanceof long[] ? chunk1 : chunk2);
+            char[] values = (char[])(chunk1 instanceof long[] ? chunk2 : chunk1);
+            int card = (chunk1 instanceof long[] ? card2 : card1);
+            char[] common = new char[card];
+            int cardinality = 0;
+            for (int k=0; k<card; k++) {
+                if ((words[values[k] >>> 6] & (1L << values[k])) != 0L) common[cardinality++] = values[k];
+            }
+            result.appendChunk(key, common, cardinality);
+        } else {
+            char[] values1 = (char[])chunk1, values2 = (char[])chunk2;
+            char[] common = new char[Math.min(card1, card2)];
+            int cardinality = 0, k1 = 0, k2 = 0;
+            while (k1 < card1 && k2 < card2) {
+                if (values1[k1] < values2[k2]) k1++;
+                else if (values1[k1] > values2[k2]) k2++;
+                else {common[cardinality++] = values1[k1]; k1++; k2++;}
+            }
+            result.appendChunk(key, common, cardinality);
+        }
+    }
+
+    /**
+     * Returns the games contained in this bitmap or in the other one.
+     */
+    public GameBitmap or(GameBitmap bitmap)
+    {
+        GameBitmap result = new GameBitmap();
+        int i = 0, j = 0;
+        while (i < m_numOfChunks || j < bitmap.m_numOfChunks) {
+            if (j >= bitmap.m_numOfChunks || (i < m_numOfChunks && m_keys[i] < bitmap.m_keys[j])) {
+                result.appendChunk(m_keys[i], copyChunk(m_chunks[i]), m_cardinalities[i]);
+                i++;
+            } else if (i >= m_numOfChunks || m_keys[i] > bitmap.m_keys[j]) {
+                result.appendChunk(bitmap.m_keys[j], copyChunk(bitmap.m_chunks[j]), bitmap.m_cardinalities[j]);
+                j++;
+            } else {
+                orChunks(result, m_keys[i], m_chunks[i], m_cardinalities[i], bitmap.m_chunks[j], bitmap.m_cardinalities[j]);
+                i++; j++;
+            }
+        }
+        return result;
+    }
+
+    private static Object copyChunk(Object chunk)
+    {
+        return (chunk instanceof long[] ? ((long[])chunk).clone() : ((char[])chunk).clone());
+    }
+
+    private static void orChunks(GameBitmap result, int key, Object chunk1, int card1, Object chunk2, int card2)
+    {
+        if (chunk1 instanceof long[] || chunk2 instanceof long[] || card1 + card2 > MAX_ARRAY_SIZE) {
+            long[] words = (chunk1 instanceof long[] ? ((long[])chunk1).clone() : toBitmap((char[])chunk1, card1));
+            if (chunk2 instanceof long[]) {
+                long[] words2 = (long[])chunk2;
+                for (int k=0; k<BITMAP_WORDS; k++) words[k] |= words2[k];
+            } else {
+                char[] values2 = (char[])chunk2;
+                for (int k=0; k<card2; k++) words[values2[k] >>> 6] |= 1L << values2[k];
+            }
+            int cardinality = 0;
+            for (int k=0; k<BITMAP_WORDS; k++) cardinality += Long.bitCount(words[k]);
+            result.appendChunk(key, cardinality > MAX_ARRAY_SIZE ? (Object)words : toArray(words, cardinality), cardinality);
+        } else {
+            char[] values1 = (char[])chunk1, values2 = (char[])chunk2;
+            char[] union = new char[card1 + card2];
+            int cardinality = 0, k1 = 0, k2 = 0;
+            while (k1 < card1 || k2 < card2) {
+                if (k2 >= card2 || (k1 < card1 && values1[k1] < values2[k2])) union[cardinality++] = values1[k1++];
+                else if (k1 >= card1 || values1[k1] > values2[k2]) union[cardinality++] = values2[k2++];
+                else {union[cardinality++] = values1[k1]; k1++; k2++;}
+            }
+            result.appendChunk(key, union, cardinality);
+        }
+    }
+
+    //======================================================================
+
+    public String toString()
+    {
+        return "GameBitmap[" + getCardinality() + " games in " + m_numOfChunks + " chunks]";
+    }
+
+}
@@ -14,8 +14,8 @@
 
 package chesspresso.game;
 
+import chesspresso.Chess;
 import chesspresso.pgn.*;
-import java.util.*;
 import java.io.*;
 
 
@@ -27,8 +27,7 @@ import java.io.*;
 public class GameHeaderModel
 {
     
-    //TODO store standard tags in variables, not array of string (eg elo as short)
-    //     check tagValue for consistency, throw IllegalTagValue if wrong
+    //TODO check tagValue for consistency, throw IllegalTagValue if wrong
     //     in pgnreader, issue warning if value is incorrect
     //TODO fen as standard tag, most probably not
     
@@ -56,43 +55,231 @@ public class GameHeaderModel
         MODE_STANDARD_TAGS     = 1,
         MODE_ALL_TAGS          = 2;
     
+    /**
+     * Values of the coded standard tags (date, elo, result) which are not set
+     * or which cannot be coded. The latter are kept as string among the other
+     * tags, such that all getters return exactly the value set.
+     */
+    private static final int
+        VALUE_NONE = -1,
+        VALUE_RAW  = -2;
+    
+    /**
+     * Size of the fixed part of a header saved with a tag dictionary: dates,
+     * elos, result, the symbols of the standard tags and the number of other
+     * tags. Each other tag follows with the symbols of its name and value.
+     */
+    private static final int BINARY_SIZE = 4 + 4 + 2 + 2 + 1 + 6 * 4 + 2;
+    
+    /**
+     * The table of header models created without one. Headers keep the table
+     * they have been created with, a table replaced by
+     * {@link #releaseDefaultSymbolTable()} is garbage once its headers are.
+     */
+    private static volatile SymbolTable s_defaultSymbols = new SymbolTable();
+    
+    public static SymbolTable getDefaultSymbolTable() {return s_defaultSymbols;}
+    
+    /**
+     * Replaces the default symbol table by an empty one, releasing the
+     * strings of the headers created so far once these are no longer used.
+     */
+    public static void releaseDefaultSymbolTable()
+    {
+        s_defaultSymbols = new SymbolTable();
+    }
+    
     //======================================================================
     
-    private String[] m_standardTags;
-    private LinkedList m_otherTags;
-    private LinkedList m_otherTagValues;
-    private long m_long;
+    private SymbolTable m_symbols;   // names, events, sites, rounds, ECO codes and names of other tags
+    private int m_event, m_site, m_round, m_white, m_black, m_eco;  // symbols
+    private int m_date, m_eventDate;                                  // packed dates
+    private short m_whiteElo, m_blackElo;
+    private byte m_result;
+    private int[] m_otherTags;                                        // symbols of the names
+    private String[] m_otherTagValues;
+    private boolean m_frozen;
     
     //======================================================================
     
     public GameHeaderModel()
     {
-        m_standardTags = new String[NUM_OF_STANDARD_TAGS];
+        this(s_defaultSymbols);
+    }
+    
+    /**
+     * Creates an empty header storing its strings in the given table.
+     *
+     *@param symbols the symbol table, may be shared with other headers
+     */
+    public GameHeaderModel(SymbolTable symbols)
+    {
+        m_symbols = symbols;
+        m_event = m_site = m_round = m_white = m_black = m_eco = SymbolTable.NO_SYMBOL;
+        m_date = m_eventDate = VALUE_NONE;
+        m_whiteElo = m_blackElo = VALUE_NONE;
+        m_result = VALUE_NONE;
         m_otherTags = null;
-        m_long = -1;
+        m_otherTagValues = null;
     }
     
     public GameHeaderModel(DataInput in, int mode) throws IOException
     {
-        m_standardTags = new String[NUM_OF_STANDARD_TAGS];
-        m_otherTags = null;
-        m_long = -1;
+        this();
         load(in, mode);
     }
     
-    public GameHeaderModel(GameHeaderModel model)
+    public GameHeaderModel(DataInput in, int mode, TagDictionary dictionary) throws IOException
     {
         this();
-        for (int i=0; i<model.m_standardTags.length; i++) {
-            m_standardTags[i] = model.m_standardTags[i];
+        load(in, mode, dictionary);
+    }
+    
+    public SymbolTable getSymbolTable() {return m_symbols;}
+    
+    public GameHeaderModel(GameHeaderModel model)
+    {
+        m_symbols = model.m_symbols;
+        m_event = model.m_event; m_site = model.m_site; m_round = model.m_round;
+        m_white = model.m_white; m_black = model.m_black; m_eco = model.m_eco;
+        m_date = model.m_date; m_eventDate = model.m_eventDate;
+        m_whiteElo = model.m_whiteElo; m_blackElo = model.m_blackElo;
+        m_result = model.m_result;
+        if (model.m_otherTags != null) {
+            m_otherTags = model.m_otherTags.clone();
+            m_otherTagValues = model.m_otherTagValues.clone();
         }
-        if (m_otherTags != null) {
-            m_otherTags = new LinkedList(m_otherTags);
-            m_otherTagValues = new LinkedList(m_otherTagValues);
+    }
+    
+    //======================================================================
+    // coding of dates: year << 9 | month << 5 | day, unknown parts are 0
+    
+    /**
+     * Parses a part of a date, either all digits or all question marks.
+     *
+     *@return the value, 0 if unknown, -1 if it cannot be coded
+     */
+    private static int parseDatePart(String date, int from, int to)
+    {
+        int value = 0, numOfUnknown = 0;
+        for (int i=from; i<to; i++) {
+            char ch = date.charAt(i);
+            if (ch == '?') {
+                numOfUnknown++;
+            } else if (ch >= '0' && ch <= '9') {
+                value = 10 * value + (ch - '0');
+            } else {
+                return -1;  // =====>
+            }
+        }
+        if (numOfUnknown == to - from) return 0;  // =====>
+        if (numOfUnknown > 0 || value == 0) return -1;  // =====> eg "0000" would be written as "????"
+        return value;
+    }
+    
+    private static int packDate(String date)
+    {
+        if (date == null) return VALUE_NONE;  // =====>
+        if (date.length() != 10 || date.charAt(4) != '.' || date.charAt(7) != '.') return VALUE_RAW;  // =====>
+        int year = parseDatePart(date, 0, 4);
+        int month = parseDatePart(date, 5, 7);
+        int day = parseDatePart(date, 8, 10);
+        if (year < 0 || month < 0 || month > 12 || day < 0 || day > 31) return VALUE_RAW;  // =====>
+        return (year << 9) | (month << 5) | day;
+    }
+    
+    private static void appendDatePart(StringBuffer sb, int value, int length)
+    {
+        String s = (value == 0 ? "????".substring(0, length) : Integer.toString(value));
+        for (int i=s.length(); i<length; i++) sb.append('0');
+        sb.append(s);
+    }
+    
+    private static String unpackDate(int packed)
+    {
+        StringBuffer sb = new StringBuffer(10);
+        appendDatePart(sb, packed >> 9, 4);
+        sb.append('.');
+        appendDatePart(sb, (packed >> 5) & 0x0F, 2);
+        sb.append('.');
+        appendDatePart(sb, packed & 0x1F, 2);
+        return sb.toString();
+    }
+    
+    private static short packElo(String elo)
+    {
+        if (elo == null) return VALUE_NONE;  // =====>
+        int value = PGN.getElo(elo);
+        if (value < 0 || value > Short.MAX_VALUE || !Integer.toString(value).equals(elo)) return VALUE_RAW;  // =====>
+        return (short)value;
+    }
+    
+    private static byte packResult(String result)
+    {
+        if (result == null) return VALUE_NONE;  // =====>
+        int value = PGN.getResultForPGNResult(result);
+        return (value == Chess.NO_RES ? VALUE_RAW : (byte)value);
+    }
+    
+    //======================================================================
+    // other tags, kept in parallel arrays
+    
+    private int getOtherTagIndex(String tagName)
+    {
+        if (m_otherTags == null) return -1;  // =====>
+        int symbol = m_symbols.lookup(tagName);
+        if (symbol == SymbolTable.NO_SYMBOL) return -1;  // =====>
+        for (int i=0; i<m_otherTags.length; i++) {
+            if (m_otherTags[i] == symbol) return i;
+        }
+        return -1;
+    }
+    
+    private String getOtherTag(String tagName)
+    {
+        int index = getOtherTagIndex(tagName);
+        return (index == -1 ? null : m_otherTagValues[index]);
+    }
+    
+    private void setOtherTag(String tagName, String tagValue)
+    {
+        int index = getOtherTagIndex(tagName);
+        if (index != -1) {
+            m_otherTagValues[index] = tagValue;  // replace
+        } else {
+            int num = (m_otherTags == null ? 0 : m_otherTags.length);
+            int[] tags = new int[num + 1];
+            String[] values = new String[num + 1];
+            if (num > 0) {
+                System.arraycopy(m_otherTags, 0, tags, 0, num);
+                System.arraycopy(m_otherTagValues, 0, values, 0, num);
+            }
+            tags[num] = m_symbols.getSymbol(tagName); values[num] = tagValue;  // append
+            m_otherTags = tags; m_otherTagValues = values;
+        }
+    }
+    
+    private void removeOtherTag(String tagName)
+    {
+        int index = getOtherTagIndex(tagName);
+        if (index == -1) return;  // =====>
+        
+        int num = m_otherTags.length - 1;
+        if (num == 0) {
+            m_otherTags = null; m_otherTagValues = null;
+        } else {
+            int[] tags = new int[num];
+            String[] values = new String[num];
+            System.arraycopy(m_otherTags, 0, tags, 0, index);
+            System.arraycopy(m_otherTags, index + 1, tags, index, num - index);
+            System.arraycopy(m_otherTagValues, 0, values, 0, index);
+            System.arraycopy(m_otherTagValues, index + 1, values, index, num - index);
+            m_otherTags = tags; m_otherTagValues = values;
         }
     }
     
     //======================================================================
+    // standard tags
     
     private int getStandardTagIndex(String tagName)
     {
@@ -102,66 +289,144 @@ public class GameHeaderModel
         return -1;
     }
     
+    private String getStandardTag(int index)
+    {
+        switch (index) {
+            case INDEX_EVENT:      return m_symbols.getString(m_event);
+            case INDEX_SITE:       return m_symbols.getString(m_site);
+            case INDEX_ROUND:      return m_symbols.getString(m_round);
+            case INDEX_WHITE:      return m_symbols.getString(m_white);
+            case INDEX_BLACK:      return m_symbols.getString(m_black);
+            case INDEX_ECO:        return m_symbols.getString(m_eco);
+            case INDEX_DATE:       return getCoded(index, m_date, m_date >= 0 ? unpackDate(m_date) : null);
+            case INDEX_EVENT_DATE: return getCoded(index, m_eventDate, m_eventDate >= 0 ? unpackDate(m_eventDate) : null);
+            case INDEX_WHITE_ELO:  return getCoded(index, m_whiteElo, m_whiteElo >= 0 ? Integer.toString(m_whiteElo) : null);
+            case INDEX_BLACK_ELO:  return getCoded(index, m_blackElo, m_blackElo >= 0 ? Integer.toString(m_blackElo) : null);
+            case INDEX_RESULT:     return getCoded(index, m_result, m_result >= 0 ? PGN.getResultAsPGNResult(m_result) : null);
+            default: throw new RuntimeException("Unknown standard tag index " + index);
+        }
+    }
+    
+    private String getCoded(int index, int value, String decoded)
+    {
+        return (value == VALUE_RAW ? getOtherTag(TAG_NAMES[index]) : decoded);
+    }
+    
+    private void setStandardTag(int index, String tagValue)
+    {
+        removeOtherTag(TAG_NAMES[index]);  // previous raw value, if any
+        int value;
+        switch (index) {
+            case INDEX_EVENT:      m_event = m_symbols.getSymbol(tagValue); return;  // =====>
+            case INDEX_SITE:       m_site  = m_symbols.getSymbol(tagValue); return;  // =====>
+            case INDEX_ROUND:      m_round = m_symbols.getSymbol(tagValue); return;  // =====>
+            case INDEX_WHITE:      m_white = m_symbols.getSymbol(tagValue); return;  // =====>
+            case INDEX_BLACK:      m_black = m_symbols.getSymbol(tagValue); return;  // =====>
+            case INDEX_ECO:        m_eco   = m_symbols.getSymbol(tagValue); return;  // =====>
+            case INDEX_DATE:       value = m_date = packDate(tagValue); break;
+            case INDEX_EVENT_DATE: value = m_eventDate = packDate(tagValue); break;
+            case INDEX_WHITE_ELO:  value = m_whiteElo = packElo(tagValue); break;
+            case INDEX_BLACK_ELO:  value = m_blackElo = packElo(tagValue); break;
+            case INDEX_RESULT:     value = m_result = packResult(tagValue); break;
+            default: throw new RuntimeException("Unknown standard tag index " + index);
+        }
+        if (value == VALUE_RAW) setOtherTag(TAG_NAMES[index], tagValue);
+    }
+    
+    private boolean isStandardTagSet(int index)
+    {
+        switch (index) {
+            case INDEX_EVENT:      return m_event != SymbolTable.NO_SYMBOL;
+            case INDEX_SITE:       return m_site  != SymbolTable.NO_SYMBOL;
+            case INDEX_ROUND:      return m_round != SymbolTable.NO_SYMBOL;
+            case INDEX_WHITE:      return m_white != SymbolTable.NO_SYMBOL;
+            case INDEX_BLACK:      return m_black != SymbolTable.NO_SYMBOL;
+            case INDEX_ECO:        return m_eco   != SymbolTable.NO_SYMBOL;
+            case INDEX_DATE:       return m_date != VALUE_NONE;
+            case INDEX_EVENT_DATE: return m_eventDate != VALUE_NONE;
+            case INDEX_WHITE_ELO:  return m_whiteElo != VALUE_NONE;
+            case INDEX_BLACK_ELO:  return m_blackElo != VALUE_NONE;
+            case INDEX_RESULT:     return m_result != VALUE_NONE;
+            default: throw new RuntimeException("Unknown standard tag index " + index);
+        }
+    }
+    
+    //======================================================================
+    
+    /**
+     * Makes the header immutable, setting or removing tags and loading
+     * throw an UnsupportedOperationException afterwards. The getters do not
+     * write any state, so a frozen header can be read by several threads
+     * once published safely. Copies of a frozen header are not frozen.
+     */
+    public void freeze()
+    {
+        m_frozen = true;
+    }
+    
+    public boolean isFrozen()
+    {
+        return m_frozen;
+    }
+    
+    private void checkMutable()
+    {
+        if (m_frozen) throw new UnsupportedOperationException("Header is frozen");
+    }
+    
     public String getTag(String tagName)
     {
         int index = getStandardTagIndex(tagName);
         if (index != -1) {
-            return m_standardTags[index];
-        } else if (m_otherTags != null) {
-            index = m_otherTags.indexOf(tagName);
-            return (index == -1 ? null : (String)m_otherTagValues.get(index));
+            return getStandardTag(index);
         } else {
-            return null;
+            return getOtherTag(tagName);
         }
     }
     
     public void setTag(String tagName, String tagValue)
     {
+        checkMutable();
         int index = getStandardTagIndex(tagName);
         if (index != -1) {
-            m_standardTags[index] = tagValue;
+            setStandardTag(index, tagValue);
         } else if (!PGN.TAG_PLY_COUNT.equals(tagName)) {
             // ignore ply count since it can be derived from game
-            if (m_otherTags == null) {
-                m_otherTags = new LinkedList(); m_otherTagValues = new LinkedList();
-            }
-            index = m_otherTags.indexOf(tagName);
-            if (index == -1) {
-                m_otherTags.addLast(tagName); m_otherTagValues.addLast(tagValue);  // append
-            } else {
-                m_otherTagValues.set(index, tagValue);  // replace
-            }
+            setOtherTag(tagName, tagValue);
         }
     }
     
     public void removeTag(String tagName)
     {
+        checkMutable();
         int index = getStandardTagIndex(tagName);
         if (index != -1) {
-            m_standardTags[index] = null;
-        } else if (m_otherTags != null) {
-            index = m_otherTags.indexOf(tagName);
-            if (index != -1) {
-                m_otherTags.remove(index);
-                m_otherTagValues.remove(index);
-            }
+            setStandardTag(index, null);
+        } else {
+            removeOtherTag(tagName);
         }
     }
     
     public String[] getTags()
     {
-        int numOfTags = (m_otherTags == null ? 0 : m_otherTags.size());
-        for (int i = 0; i < NUM_OF_STANDARD_TAGS; i++) if (m_standardTags[i] != null) numOfTags++;
+        int numOfTags = 0;
+        for (int i = 0; i < NUM_OF_STANDARD_TAGS; i++) if (isStandardTagSet(i)) numOfTags++;
+        if (m_otherTags != null) {
+            for (int i = 0; i < m_otherTags.length; i++) {
+                if (getStandardTagIndex(m_symbols.getString(m_otherTags[i])) == -1) numOfTags++;
+            }
+        }
         
         String[] tags = new String[numOfTags];
         int index = 0;
         for (int i = 0; i < NUM_OF_STANDARD_TAGS; i++) {
-            if (m_standardTags[i] != null)
+            if (isStandardTagSet(i))
                 tags[index++] = TAG_NAMES[i];
         }
         if (m_otherTags != null) {
-            for (Iterator it = m_otherTags.iterator(); it.hasNext(); ) {
-                tags[index++] = (String)it.next();
+            for (int i = 0; i < m_otherTags.length; i++) {
+                String tagName = m_symbols.getString(m_otherTags[i]);
+                if (getStandardTagIndex(tagName) == -1) tags[index++] = tagName;  // raw values of standard tags are listed above
             }
         }
         return tags;
@@ -170,31 +435,62 @@ public class GameHeaderModel
     //======================================================================
     // convenience methods for tags
     
-    public String getEvent()        {return m_standardTags[INDEX_EVENT];}
-    public String getSite()         {return m_standardTags[INDEX_SITE];}
-    public String getDate()         {return m_standardTags[INDEX_DATE];}
-    public String getRound()        {return m_standardTags[INDEX_ROUND];}
-    public String getWhite()        {return m_standardTags[INDEX_WHITE];}
-    public String getBlack()        {return m_standardTags[INDEX_BLACK];}
-    public String getResultStr()    {return m_standardTags[INDEX_RESULT];}
-    public String getWhiteEloStr()  {return m_standardTags[INDEX_WHITE_ELO];}
-    public String getBlackEloStr()  {return m_standardTags[INDEX_BLACK_ELO];}
-    public String getEventDate()    {return m_standardTags[INDEX_EVENT_DATE];}
-    public String getECO()          {return m_standardTags[INDEX_ECO];}
+    public String getEvent()        {return m_symbols.getString(m_event);}
+    public String getSite()         {return m_symbols.getString(m_site);}
+    public String getDate()         {return getStandardTag(INDEX_DATE);}
+    public String getRound()        {return m_symbols.getString(m_round);}
+    public String getWhite()        {return m_symbols.getString(m_white);}
+    public String getBlack()        {return m_symbols.getString(m_black);}
+    public String getResultStr()    {return getStandardTag(INDEX_RESULT);}
+    public String getWhiteEloStr()  {return getStandardTag(INDEX_WHITE_ELO);}
+    public String getBlackEloStr()  {return getStandardTag(INDEX_BLACK_ELO);}
+    public String getEventDate()    {return getStandardTag(INDEX_EVENT_DATE);}
+    public String getECO()          {return m_symbols.getString(m_eco);}
     
     public int getResult()
     {
-        return PGN.getResultForPGNResult(getResultStr());
+        return (m_result >= 0 ? m_result : Chess.NO_RES);  // raw values are no valid result
     }
     
     public int getWhiteElo()
     {
-        return PGN.getElo(getWhiteEloStr());
+        return (m_whiteElo >= 0 ? m_whiteElo : PGN.getElo(getWhiteEloStr()));
     }
     
     public int getBlackElo()
     {
-        return PGN.getElo(getBlackEloStr());
+        return (m_blackElo >= 0 ? m_blackElo : PGN.getElo(getBlackEloStr()));
+    }
+    
+    /**
+     * Returns the date as number, eg 19990731 for "1999.07.31".
+     *
+     *@return the date, unknown parts are 0, 0 if the date is missing or not in the form "yyyy.mm.dd"
+     */
+    int getDateValue()
+    {
+        if (m_date < 0) return 0;  // =====>
+        return 10000 * (m_date >> 9) + 100 * ((m_date >> 5) & 0x0F) + (m_date & 0x1F);
+    }
+    
+    /**
+     * Returns the year the game was played, taken from the first four
+     * characters of the date tag.
+     *
+     *@return the year, 0 if the date is missing or the year is unknown
+     */
+    public int getYear()
+    {
+        if (m_date >= 0) return m_date >> 9;  // =====>
+        String date = getDate();
+        if (date == null || date.length() < 4) return 0;  // =====>
+        int year = 0;
+        for (int i=0; i<4; i++) {
+            char ch = date.charAt(i);
+            if (ch < '0' || ch > '9') return 0;  // =====>
+            year = 10 * year + (ch - '0');
+        }
+        return year;
     }
         
     //======================================================================
@@ -224,7 +520,11 @@ public class GameHeaderModel
         
         if (mode <= MODE_STANDARD_TAGS) return;  // =====>
         
-        // NOT YET SUPPORTED
+        int numOfOtherTags = in.readUnsignedShort();
+        for (int i=0; i<numOfOtherTags; i++) {
+            String tagName = in.readUTF();
+            setTag(tagName, readUTFNonNull(in));
+        }
     }
     
     private void writeUTFNonNull(DataOutput out, String s) throws IOException
@@ -251,13 +551,127 @@ public class GameHeaderModel
         
         if (mode <= MODE_STANDARD_TAGS) return;  // =====>
         
-        // NOT YET SUPPORTED
+        int numOfOtherTags = getNumOfOtherTags();
+        out.writeShort(numOfOtherTags);
+        for (int i=0; m_otherTags != null && i<m_otherTags.length; i++) {
+            String tagName = m_symbols.getString(m_otherTags[i]);
+            if (getStandardTagIndex(tagName) == -1) {  // raw values of standard tags are written above
+                out.writeUTF(tagName);
+                writeUTFNonNull(out, m_otherTagValues[i]);
+            }
+        }
+    }
+    
+    private int getNumOfOtherTags()
+    {
+        int num = 0;
+        for (int i=0; m_otherTags != null && i<m_otherTags.length; i++) {
+            if (getStandardTagIndex(m_symbols.getString(m_otherTags[i])) == -1) num++;
+        }
+        return num;
+    }
+    
+    //======================================================================
+    // binary format, coded against a tag dictionary
+    
+    private static int getInt(byte[] data, int index)
+    {
+        return (data[index] << 24) | ((data[index + 1] & 0xFF) << 16) | ((data[index + 2] & 0xFF) << 8) | (data[index + 3] & 0xFF);
+    }
+    
+    private static short getShort(byte[] data, int index)
+    {
+        return (short)((data[index] << 8) | (data[index + 1] & 0xFF));
+    }
+    
+    /**
+     * Loads a header saved with {@link #save(DataOutput, int, TagDictionary)}.
+     *
+     *@param in the input
+     *@param mode the mode, MODE_ALL_TAGS if dictionary is not null
+     *@param dictionary the dictionary the header has been saved with, null for the format without dictionary
+     */
+    public void load(DataInput in, int mode, TagDictionary dictionary) throws IOException
+    {
+        checkMutable();
+        if (dictionary == null) {load(in, mode); return;}  // =====>
+        if (mode != MODE_ALL_TAGS) throw new IllegalArgumentException("Tag dictionary requires MODE_ALL_TAGS, mode is " + mode);
+        
+        byte[] data = new byte[BINARY_SIZE];
+        in.readFully(data);
+        m_date      = getInt(data, 0);
+        m_eventDate = getInt(data, 4);
+        m_whiteElo  = getShort(data, 8);
+        m_blackElo  = getShort(data, 10);
+        m_result    = data[12];
+        m_event     = dictionary.getGlobalSymbol(getInt(data, 13), m_symbols);
+        m_site      = dictionary.getGlobalSymbol(getInt(data, 17), m_symbols);
+        m_round     = dictionary.getGlobalSymbol(getInt(data, 21), m_symbols);
+        m_white     = dictionary.getGlobalSymbol(getInt(data, 25), m_symbols);
+        m_black     = dictionary.getGlobalSymbol(getInt(data, 29), m_symbols);
+        m_eco       = dictionary.getGlobalSymbol(getInt(data, 33), m_symbols);
+        int numOfOtherTags = getShort(data, 37) & 0xFFFF;
+        
+        if (numOfOtherTags == 0) {
+            m_otherTags = null; m_otherTagValues = null;
+        } else {
+            data = new byte[8 * numOfOtherTags];
+            in.readFully(data);
+            m_otherTags = new int[numOfOtherTags];
+            m_otherTagValues = new String[numOfOtherTags];
+            for (int i=0; i<numOfOtherTags; i++) {
+                m_otherTags[i] = dictionary.getGlobalSymbol(getInt(data, 8 * i), m_symbols);
+                m_otherTagValues[i] = dictionary.getString(getInt(data, 8 * i + 4));
+            }
+        }
+    }
+    
+    /**
+     * Saves the header. With a dictionary, all tags are saved in a binary
+     * format: names and values are saved as symbols of the dictionary, dates,
+     * elos and result as numbers.
+     *
+     *@param out the output
+     *@param mode the mode, MODE_ALL_TAGS if dictionary is not null
+     *@param dictionary the dictionary to add the names and values to, null for the format without dictionary
+     */
+    public void save(DataOutput out, int mode, TagDictionary dictionary) throws IOException
+    {
+        if (dictionary == null) {save(out, mode); return;}  // =====>
+        if (mode != MODE_ALL_TAGS) throw new IllegalArgumentException("Tag dictionary requires MODE_ALL_TAGS, mode is " + mode);
+        
+        int numOfOtherTags = (m_otherTags == null ? 0 : m_otherTags.length);
+        out.writeInt(m_date);
+        out.writeInt(m_eventDate);
+        out.writeShort(m_whiteElo);
+        out.writeShort(m_blackElo);
+        out.writeByte(m_result);
+        out.writeInt(dictionary.getFileSymbol(m_event, m_symbols));
+        out.writeInt(dictionary.getFileSymbol(m_site, m_symbols));
+        out.writeInt(dictionary.getFileSymbol(m_round, m_symbols));
+        out.writeInt(dictionary.getFileSymbol(m_white, m_symbols));
+        out.writeInt(dictionary.getFileSymbol(m_black, m_symbols));
+        out.writeInt(dictionary.getFileSymbol(m_eco, m_symbols));
+        out.writeShort(numOfOtherTags);
+        for (int i=0; i<numOfOtherTags; i++) {
+            out.writeInt(dictionary.getFileSymbol(m_otherTags[i], m_symbols));
+            out.writeInt(dictionary.getFileSymbol(m_otherTagValues[i]));
+        }
     }
     
     //======================================================================
     
-    private static String getLastName(String name)
+    /**
+     * Returns the last name of a player, which is the part before the first
+     * comma ("Last, First") or else the part after the first blank
+     * ("First Last").
+     *
+     *@param name the name of the player, may be null
+     *@return the last name, null if name is null
+     */
+    public static String getLastName(String name)
     {
+        if (name == null) return null;  // =====>
         int index = name.indexOf(',');
         if (index != -1) {
             return name.substring(0, index).trim();
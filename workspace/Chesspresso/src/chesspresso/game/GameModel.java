@@ -14,6 +14,9 @@
 
 package chesspresso.game;
 
+import chesspresso.move.IllegalMoveException;
+import chesspresso.pgn.PGN;
+import chesspresso.position.Position;
 import java.io.*;
 
 /**
@@ -24,7 +27,19 @@ import java.io.*;
 public class GameModel
 {
     private GameHeaderModel m_headerModel;
-    private GameMoveModel m_moveModel;
+    private volatile GameMoveModel m_moveModel;   // null until loaded by loadMoveModel
+    
+    // main line position index, computed on demand
+    private long[] m_mainLineHashCodes;
+    private long[] m_mainLineFilter;     // bloom filter over m_mainLineHashCodes
+    private int m_mainLineModCount;
+    private String m_mainLineFEN;
+    private long[] m_storedMainLineFilter;  // given with moves read on demand, valid until they are loaded
+    
+    // fingerprint, computed on demand or loaded
+    private long m_fingerprint;
+    private int m_fingerprintModCount;
+    private String m_fingerprintFEN;
     
     /*================================================================================*/
 
@@ -40,35 +55,303 @@ public class GameModel
         m_moveModel = moveModel;
     }
     
+    /**
+     * Creates a game whose moves are loaded when first accessed, see
+     * {@link #loadMoveModel()}.
+     *
+     *@param headerModel the header
+     *@param fingerprint the fingerprint of the moves, 0 if not known
+     */
+    protected GameModel(GameHeaderModel headerModel, long fingerprint)
+    {
+        m_headerModel = headerModel;
+        m_moveModel = null;
+        m_fingerprint = fingerprint;
+        m_fingerprintFEN = headerModel.getTag(PGN.TAG_FEN);
+    }
+    
+    /**
+     * Creates a game whose moves are loaded when first accessed, with the
+     * stored bloom filter of its main line, see {@link #getMainLineFilter()}.
+     * Positions rejected by the filter are not looked up in the moves, so
+     * they are not loaded.
+     *
+     *@param headerModel the header
+     *@param fingerprint the fingerprint of the moves, 0 if not known
+     *@param mainLineFilter the bloom filter of the main line, null if not known
+     */
+    protected GameModel(GameHeaderModel headerModel, long fingerprint, long[] mainLineFilter)
+    {
+        this(headerModel, fingerprint);
+        m_storedMainLineFilter = mainLineFilter;
+    }
+    
+    /**
+     * Creates a copy of a game, eg to edit a frozen game. The copy is not frozen.
+     */
+    public GameModel(GameModel gameModel)
+    {
+        m_headerModel = new GameHeaderModel(gameModel.getHeaderModel());
+        m_moveModel = new GameMoveModel(gameModel.getMoveModel());
+    }
+    
     public GameModel(DataInput in, int headerMode, int movesMode) throws IOException
     {
-        load(in, headerMode, movesMode);
+        load(in, headerMode, movesMode, null);
+    }
+    
+    public GameModel(DataInput in, int headerMode, int movesMode, TagDictionary dictionary) throws IOException
+    {
+        load(in, headerMode, movesMode, dictionary);
     }
     
     /*================================================================================*/
 
     public GameHeaderModel getHeaderModel() {return m_headerModel;}
-    public GameMoveModel getMoveModel() {return m_moveModel;}
+    
+    /**
+     * Returns the moves, loading them if the game was created without moves.
+     * Threads sharing the game get the same moves, which are loaded once.
+     */
+    public GameMoveModel getMoveModel()
+    {
+        GameMoveModel moveModel = m_moveModel;
+        if (moveModel == null) {
+            synchronized (this) {
+                moveModel = m_moveModel;
+                if (moveModel == null) {
+                    moveModel = loadMoveModel();
+                    m_fingerprintModCount = moveModel.getModCount();  // a given fingerprint belongs to the loaded moves
+                    m_moveModel = moveModel;  // publish after the fingerprint state
+                }
+            }
+        }
+        return moveModel;
+    }
+    
+    /**
+     * Loads the moves of a game created without moves. Subclasses reading the
+     * moves on demand override this method. It is called once, holding the
+     * lock of the game.
+     *
+     *@return the moves
+     */
+    protected GameMoveModel loadMoveModel()
+    {
+        throw new RuntimeException("Moves cannot be loaded");
+    }
     
     /*================================================================================*/
 
     public void load(DataInput in, int headerMode, int movesMode) throws IOException
     {
-        m_headerModel = new GameHeaderModel(in, headerMode);
+        load(in, headerMode, movesMode, null);
+    }
+    
+    /**
+     * Loads the game.
+     *
+     *@param dictionary the dictionary of the header, see {@link GameHeaderModel#load(DataInput, int, TagDictionary)}
+     */
+    public void load(DataInput in, int headerMode, int movesMode, TagDictionary dictionary) throws IOException
+    {
+        if (isFrozen()) throw new UnsupportedOperationException("Game is frozen");
+        m_headerModel = new GameHeaderModel(in, headerMode, dictionary);
         m_moveModel = new GameMoveModel(in, movesMode);
+        if (movesMode == GameMoveModel.MODE_COMPACT) {
+            // MODE_EVERYTHING keeps the layout of older files
+            m_fingerprint = in.readLong();
+            m_fingerprintModCount = m_moveModel.getModCount();
+            m_fingerprintFEN = m_headerModel.getTag(PGN.TAG_FEN);
+        } else {
+            m_fingerprint = 0L;
+        }
     }
     
     public void save(DataOutput out, int headerMode, int movesMode) throws IOException
     {
-        m_headerModel.save(out, headerMode);
-        m_moveModel.save(out, movesMode);
+        save(out, headerMode, movesMode, null);
+    }
+    
+    /**
+     * Saves the game.
+     *
+     *@param dictionary the dictionary of the header, see {@link GameHeaderModel#save(DataOutput, int, TagDictionary)}
+     */
+    public void save(DataOutput out, int headerMode, int movesMode, TagDictionary dictionary) throws IOException
+    {
+        m_headerModel.save(out, headerMode, dictionary);
+        getMoveModel().save(out, movesMode, m_headerModel.getTag(PGN.TAG_FEN));
+        if (movesMode == GameMoveModel.MODE_COMPACT) out.writeLong(getFingerprint());
+    }
+    
+    /*================================================================================*/
+    
+    /**
+     * Makes the game immutable, see {@link GameHeaderModel#freeze()} and
+     * {@link GameMoveModel#freeze()}. Moves read on demand are loaded and the
+     * fingerprint and the main line positions are computed now, so reading a
+     * frozen game does not write any state. A frozen game can be shared by
+     * several threads without locking once it has been published safely, eg
+     * through a final field or a concurrent map. To edit the game, work on a
+     * copy, see {@link #GameModel(GameModel)}.
+     */
+    public void freeze()
+    {
+        if (isFrozen()) return;  // =====>
+        getMoveModel();
+        getFingerprint();
+        getMainLineHashCodes();
+        m_headerModel.freeze();
+        m_moveModel.freeze();
+    }
+    
+    public boolean isFrozen()
+    {
+        return m_moveModel != null && m_moveModel.isFrozen() && m_headerModel.isFrozen();
+    }
+    
+    /*================================================================================*/
+    
+    /**
+     * Returns a 64 bit fingerprint of the game, made of the hash code of the
+     * main line moves and the hash code of the final position. Games with the
+     * same fingerprint are duplicates with overwhelming probability, so
+     * duplicates can be found by a hash lookup. The fingerprint is cached until
+     * the moves or the start position change, and stored in MODE_COMPACT.
+     *
+     *@return the fingerprint of the game
+     */
+    public long getFingerprint()
+    {
+        String fen = m_headerModel.getTag(PGN.TAG_FEN);
+        // moves not loaded yet cannot have changed
+        if (m_fingerprint == 0L || (m_moveModel != null && m_fingerprintModCount != m_moveModel.getModCount())
+            || (fen == null ? m_fingerprintFEN != null : !fen.equals(m_fingerprintFEN))) {
+            long[] hashCodes = getMainLineHashCodes();
+            long fingerprint = GameMoveModel.mix(m_moveModel.getHashCode() ^ Long.rotateLeft(hashCodes[hashCodes.length - 1], 29));
+            m_fingerprint = (fingerprint == 0L ? 1L : fingerprint);  // 0 is reserved
+            m_fingerprintModCount = m_moveModel.getModCount();
+            m_fingerprintFEN = fen;
+        }
+        return m_fingerprint;
+    }
+    
+    /*================================================================================*/
+    // main line position index
+    
+    /**
+     * Returns the hash codes of all positions of the main line, starting with
+     * the start position. The array is computed once and cached until the
+     * moves or the start position change.
+     *
+     *@return the hash codes of the main line positions, must not be modified
+     */
+    public long[] getMainLineHashCodes()
+    {
+        String fen = m_headerModel.getTag(PGN.TAG_FEN);
+        if (m_mainLineHashCodes == null || m_mainLineModCount != getMoveModel().getModCount()
+            || (fen == null ? m_mainLineFEN != null : !fen.equals(m_mainLineFEN))) {
+            initMainLineIndex(fen);
+        }
+        return m_mainLineHashCodes;
+    }
+    
+    /**
+     * Returns whether a position with the given hash code occurs in the main
+     * line. Most positions not in the game are rejected by a bloom filter
+     * without scanning the main line.
+     *
+     *@param hashCode the hash code of the position to look for
+     *@return whether the position occurs in the main line
+     */
+    public boolean containsPosition(long hashCode)
+    {
+        if (m_moveModel == null && m_storedMainLineFilter != null) {
+            // moves not loaded yet cannot have changed, but the start position can
+            String fen = m_headerModel.getTag(PGN.TAG_FEN);
+            if ((fen == null ? m_fingerprintFEN == null : fen.equals(m_fingerprintFEN))
+                && !mayContain(m_storedMainLineFilter, hashCode)) return false;  // =====>
+        }
+        long[] hashCodes = getMainLineHashCodes();
+        if (!mayContain(m_mainLineFilter, hashCode)) return false;  // =====>
+        for (int i = 0; i < hashCodes.length; i++) {
+            if (hashCodes[i] == hashCode) return true;  // =====>
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the bloom filter over the hash codes of the main line positions,
+     * to be stored with the game and passed to
+     * {@link #GameModel(GameHeaderModel, long, long[])} when reading it.
+     *
+     *@return the bloom filter, must not be modified
+     */
+    public long[] getMainLineFilter()
+    {
+        getMainLineHashCodes();
+        return m_mainLineFilter;
+    }
+    
+    private void initMainLineIndex(String fen)
+    {
+        getMoveModel();  // load moves read on demand
+        Position position = (fen != null ? new Position(fen, false) : Position.createInitialPosition());
+        
+        int numOfPlies = 0;
+        for (int index = 0; m_moveModel.hasNextMove(index); index = m_moveModel.goForward(index)) numOfPlies++;
+        
+        long[] hashCodes = new long[numOfPlies + 1];
+        hashCodes[0] = position.getHashCode();
+        int num = 1;
+        try {
+            for (int index = 0; m_moveModel.hasNextMove(index); num++) {
+                index = m_moveModel.goForward(index);
+                position.doMove(m_moveModel.getMove(index));
+                hashCodes[num] = position.getHashCode();
+            }
+        } catch (IllegalMoveException ex) {
+            // index the main line up to the illegal move, as far as a game can be replayed
+            long[] legalHashCodes = new long[num];
+            System.arraycopy(hashCodes, 0, legalHashCodes, 0, num);
+            hashCodes = legalHashCodes;
+        }
+        
+        /*---------- bloom filter, 8 bits per position, 3 probes ----------*/
+        int numOfBits = 64;
+        while (numOfBits < 8 * hashCodes.length) numOfBits <<= 1;
+        long[] filter = new long[numOfBits / 64];
+        for (int i = 0; i < hashCodes.length; i++) {
+            long hashCode = hashCodes[i];
+            for (int probe = 0; probe < 3; probe++) {
+                int bit = (int)(hashCode >>> (21 * probe)) & (numOfBits - 1);
+                filter[bit >>> 6] |= 1L << bit;
+            }
+        }
+        
+        m_mainLineHashCodes = hashCodes;
+        m_mainLineFilter = filter;
+        m_mainLineModCount = m_moveModel.getModCount();
+        m_mainLineFEN = fen;
+    }
+    
+    private static boolean mayContain(long[] filter, long hashCode)
+    {
+        int mask = 64 * filter.length - 1;
+        for (int probe = 0; probe < 3; probe++) {
+            int bit = (int)(hashCode >>> (21 * probe)) & mask;
+            if ((filter[bit >>> 6] & (1L << bit)) == 0L) return false;  // =====>
+        }
+        return true;
     }
     
     /*================================================================================*/
 
     public int hashCode()
     {
-        return getMoveModel().hashCode();
+        long fingerprint = getFingerprint();
+        return (int)(fingerprint ^ (fingerprint >>> 32));
     }
     
     public boolean equals(Object obj)
@@ -76,6 +359,7 @@ public class GameModel
         if (obj == this) return true;  // =====>
         if (!(obj instanceof GameModel)) return false;  //=====>
         GameModel gameModel = (GameModel)obj;
+        if (gameModel.getFingerprint() != getFingerprint()) return false;  // =====>
         return gameModel.getMoveModel().equals(getMoveModel());
     }    
     
@@ -15,6 +15,7 @@
 package chesspresso.game;
 
 import chesspresso.position.NAG;
+import chesspresso.position.Position;
 import chesspresso.move.*;
 import java.io.*;
 
@@ -33,7 +34,8 @@ public class GameMoveModel
     //======================================================================
     
     public final static int
-        MODE_EVERYTHING = 0;
+        MODE_EVERYTHING = 0,
+        MODE_COMPACT    = 1;   // moves as index into the legal moves, see saveCompact
     
     final static short
         NO_MOVE            = (short)Move.NO_MOVE,
@@ -42,7 +44,11 @@ public class GameMoveModel
         COMMENT_START      = (short)Move.OTHER_SPECIALS +  2,
         COMMENT_END        = (short)Move.OTHER_SPECIALS +  3,
         NAG_BASE           = (short)Move.OTHER_SPECIALS + 16,
-        LAST_SPECIAL       = (short)(NAG_BASE + NAG.NUM_OF_NAGS);
+        LAST_SPECIAL       = (short)(NAG_BASE + NAG.NUM_OF_NAGS),
+        COMMENT_BASE       = (short)0x8000;   // specials with the capture bit set, see Move
+    
+    private final static int
+        NUM_OF_COMMENT_TOKENS = Move.NUM_OF_SPECIAL_MOVES;
     
     static {
         if (LAST_SPECIAL > Move.SPECIAL_MOVE + Move.NUM_OF_SPECIAL_MOVES) {
@@ -52,25 +58,53 @@ public class GameMoveModel
     
     //======================================================================
     
-    private short[] m_moves;
+    private short[] m_moves;    // gap buffer, logical index i >= m_gapStart is stored at i + m_gapLength
     private int m_size;
-    private int m_hashCode;
+    private int m_gapStart;
+    private int m_gapLength;
+    private long m_hashCode;    // 0 if not yet computed
+    private int m_modCount;     // incremented on each change, to validate caches of derived data
+    private boolean m_packed;   // no edits since pack or load, the skip index may be built
+    private int[] m_skipIndex;  // navigation index, see buildSkipIndex
+    private String[] m_comments;    // comment pool, referenced by comment tokens
+    private int m_numOfComments;
+    private boolean m_commentPoolFull;  // compacting does not pay off until the next pack
+    private boolean m_frozen;   // no more edits, derived data is computed
 
     //======================================================================
     
     public GameMoveModel()
     {
         m_moves = new short[32];
-        m_moves[0] = LINE_START;
-        m_moves[1] = LINE_END;
         m_size = 2;
+        m_gapStart = m_size;
+        m_gapLength = m_moves.length - m_size;
+        set(0, LINE_START);
+        set(1, LINE_END);
         m_hashCode = 0;
     }
 
     public GameMoveModel(DataInput in, int mode) throws IOException
     {
         load(in, mode);
-        m_hashCode = 0;  // TODO: store in file?
+        m_hashCode = 0;  // not persisted, recomputed on demand; only the GameModel fingerprint is stored, in MODE_COMPACT
+    }
+    
+    /**
+     * Creates a copy of the moves, the copy is not frozen.
+     */
+    public GameMoveModel(GameMoveModel model)
+    {
+        m_moves = model.m_moves.clone();
+        m_size = model.m_size;
+        m_gapStart = model.m_gapStart;
+        m_gapLength = model.m_gapLength;
+        m_hashCode = model.m_hashCode;
+        m_packed = model.m_packed;
+        m_skipIndex = model.m_skipIndex;   // never modified, dropped on the first edit
+        m_comments = (model.m_comments == null ? null : model.m_comments.clone());
+        m_numOfComments = model.m_numOfComments;
+        m_commentPoolFull = model.m_commentPoolFull;
     }
     
     //======================================================================
@@ -80,8 +114,37 @@ public class GameMoveModel
     {
         if (index < 0) throw new RuntimeException("Illegal index " + index);
         if (index >= m_size) throw new RuntimeException("Illegal index " + index + " m_size=" + m_size);
-        if (m_moves[index] != LINE_START && !isMoveValue(m_moves[index]))
-            throw new RuntimeException("No move at index " + index + " move=" + valueToString(m_moves[index]));
+        if (get(index) != LINE_START && !isMoveValue(get(index)))
+            throw new RuntimeException("No move at index " + index + " move=" + valueToString(get(index)));
+    }
+    
+    //======================================================================
+    // gap buffer access
+    
+    private short get(int index)
+    {
+        return index < m_gapStart ? m_moves[index] : m_moves[index + m_gapLength];
+    }
+    
+    private void set(int index, short value)
+    {
+        if (index < m_gapStart) m_moves[index] = value;
+        else                    m_moves[index + m_gapLength] = value;
+    }
+    
+    /**
+     * Moves the gap to the given logical index. Only the values between the
+     * old and the new gap position are copied, therefore consecutive edits
+     * at the same place are cheap.
+     */
+    private void moveGap(int index)
+    {
+        if (index < m_gapStart) {
+            System.arraycopy(m_moves, index, m_moves, index + m_gapLength, m_gapStart - index);
+        } else if (index > m_gapStart) {
+            System.arraycopy(m_moves, m_gapStart + m_gapLength, m_moves, m_gapStart, index - m_gapStart);
+        }
+        m_gapStart = index;
     }
     
     //======================================================================
@@ -93,11 +156,44 @@ public class GameMoveModel
     private static short getNagForValue(short value) {return (short)(value - NAG_BASE);}
     private static short getValueForNag(short nag)   {return (short)(nag + NAG_BASE);}
     
+    private static boolean isCommentValue(short value) {return (value & 0xF000) == (COMMENT_BASE & 0xF000);}
+    private static int getCommentIndex(short value)    {return value - COMMENT_BASE;}
+    
     //======================================================================
     
     private void changed()
     {
         m_hashCode = 0;
+        m_modCount++;
+        m_packed = false;
+        m_skipIndex = null;
+    }
+    
+    int getModCount() {return m_modCount;}
+    
+    /**
+     * Makes the moves immutable, all editing methods throw an
+     * UnsupportedOperationException afterwards. The hash code and the
+     * navigation index are computed now, such that no method writes any
+     * state later on and a frozen model can be read by several threads once
+     * published safely.
+     */
+    public void freeze()
+    {
+        if (m_frozen) return;  // =====>
+        getHashCode();
+        hasSkipIndex(0);
+        m_frozen = true;
+    }
+    
+    public boolean isFrozen()
+    {
+        return m_frozen;
+    }
+    
+    private void checkMutable()
+    {
+        if (m_frozen) throw new UnsupportedOperationException("Moves are frozen");
     }
     
     //======================================================================
@@ -113,7 +209,7 @@ public class GameMoveModel
         short value;
         do {
             index++;
-            value = m_moves[index];
+            value = get(index);
             if (value == nagValue) return true;
         } while (isNagValue(value));
         
@@ -123,34 +219,35 @@ public class GameMoveModel
     public short[] getNags(int index)
     {
         if (EXTRA_CHECKS)
-            if (!isMoveValue(m_moves[index]))
-                throw new RuntimeException("No move at index " + index + " move=" + valueToString(m_moves[index]));
+            if (!isMoveValue(get(index)))
+                throw new RuntimeException("No move at index " + index + " move=" + valueToString(get(index)));
         
         int num = 0;
-        while (isNagValue(m_moves[index + 1])) {index++; num++;}
+        while (isNagValue(get(index + 1))) {index++; num++;}
         if (num == 0) {
             return null;
         } else {
             short[] nags = new short[num];
             // collect nags from back to front (most recently added last)
-            for (int i = 0; i < num; i++) nags[i] = getNagForValue(m_moves[index - i]);
+            for (int i = 0; i < num; i++) nags[i] = getNagForValue(get(index - i));
             return nags;
         }
     }
     
     public void addNag(int index, short nag)
     {
+        checkMutable();
         if (DEBUG) {
             System.out.println("addNag " + index + " nag " + nag);
             write(System.out);
         }
         
         if (EXTRA_CHECKS)
-            if (!isMoveValue(m_moves[index]))
-                throw new RuntimeException("No move at index " + index + " val=" + valueToString(m_moves[index]));
+            if (!isMoveValue(get(index)))
+                throw new RuntimeException("No move at index " + index + " val=" + valueToString(get(index)));
         
-        makeSpace(index + 1, 1, false);  // most recent nag first
-        m_moves[index + 1] = getValueForNag(nag);
+        makeSpace(index + 1, 1);  // most recent nag first
+        set(index + 1, getValueForNag(nag));
         changed();
         
         if (DEBUG) write(System.out);
@@ -158,27 +255,28 @@ public class GameMoveModel
     
     public boolean removeNag(int index, short nag)
     {
+        checkMutable();
         if (DEBUG) {
             System.out.println("removeNag " + index + " nag " + nag);
             write(System.out);
         }
         
         if (EXTRA_CHECKS)
-            if (!isMoveValue(m_moves[index]))
-                throw new RuntimeException("No move at index " + index + " val=" + valueToString(m_moves[index]));
+            if (!isMoveValue(get(index)))
+                throw new RuntimeException("No move at index " + index + " val=" + valueToString(get(index)));
         
         short nagValue = getValueForNag(nag);
         short value;
         boolean changed = false;
         do {
             index++;
-            value = m_moves[index];
+            value = get(index);
             if (value == nagValue) {
-                while (isNagValue(m_moves[index + 1])) {
-                    m_moves[index] = m_moves[index + 1];
+                while (isNagValue(get(index + 1))) {
+                    set(index, get(index + 1));
                     index++;
                 }
-                m_moves[index] = NO_MOVE;
+                set(index, NO_MOVE);
                 changed = true;
                 break;
             }
@@ -190,15 +288,99 @@ public class GameMoveModel
     }
     
     //======================================================================
+    // comments
+    //
+    // Comments are kept in a pool and referenced by a single comment token
+    // following the move (and its nags), so navigation does not depend on the
+    // length of comments. Only if the pool is exhausted are comments stored
+    // inline, one value per character between COMMENT_START and COMMENT_END.
+    
+    /**
+     * Adds the comment to the pool.
+     *
+     *@return the token referencing the comment, NO_MOVE if the pool is full
+     */
+    private short addToCommentPool(String comment)
+    {
+        if (m_comments == null) m_comments = new String[8];
+        if (m_numOfComments == m_comments.length) {
+            if (m_numOfComments == NUM_OF_COMMENT_TOKENS) {
+                if (m_commentPoolFull) return NO_MOVE;  // =====>
+                compactCommentPool();
+                // avoid scanning the moves on each new comment if only few entries were freed
+                m_commentPoolFull = (m_numOfComments > NUM_OF_COMMENT_TOKENS * 3 / 4);
+                if (m_numOfComments == NUM_OF_COMMENT_TOKENS) return NO_MOVE;  // =====>
+            } else {
+                String[] comments = new String[Math.min(2 * m_comments.length, NUM_OF_COMMENT_TOKENS)];
+                System.arraycopy(m_comments, 0, comments, 0, m_numOfComments);
+                m_comments = comments;
+            }
+        }
+        m_comments[m_numOfComments] = comment;
+        return (short)(COMMENT_BASE + m_numOfComments++);
+    }
+    
+    /**
+     * Removes comments no longer referenced from the pool and renumbers the
+     * tokens in order of appearance.
+     */
+    private void compactCommentPool()
+    {
+        if (m_comments == null) return;  // =====>
+        
+        String[] comments = new String[Math.max(m_comments.length, 8)];
+        int num = 0;
+        for (int index = 0; index < m_size; index++) {
+            short value = get(index);
+            if (value == COMMENT_START) {
+                index = skipComment(index);
+            } else if (isCommentValue(value)) {
+                comments[num] = m_comments[getCommentIndex(value)];
+                set(index, (short)(COMMENT_BASE + num));
+                num++;
+            }
+        }
+        m_comments = comments;
+        m_numOfComments = num;
+    }
+    
+    /**
+     * Replaces inline comments by pool tokens and removes the slots no longer
+     * needed.
+     */
+    private void poolInlineComments()
+    {
+        int j = 0;
+        for (int i = 0; i < m_size; i++) {
+            short value = get(i);
+            if (value == COMMENT_START) {
+                int end = skipComment(i);
+                StringBuffer sb = new StringBuffer(end - i - 1);
+                for (int k = i + 1; k < end; k++) sb.append((char)get(k));
+                short token = addToCommentPool(sb.toString());
+                if (token != NO_MOVE) {
+                    set(j++, token);
+                } else {
+                    for (int k = i; k <= end; k++) set(j++, get(k));
+                }
+                i = end;
+            } else {
+                set(j++, value);
+            }
+        }
+        m_gapStart = j;
+        m_gapLength += m_size - j;
+        m_size = j;
+    }
     
     private int skipComment(int index)
     {
-        if (m_moves[index] == COMMENT_START) {
-            while (m_moves[index] != COMMENT_END) index++;
-        } else if (m_moves[index] == COMMENT_END) {
-            while (m_moves[index] != COMMENT_START) index--;
+        if (get(index) == COMMENT_START) {
+            while (get(index) != COMMENT_END) index++;
+        } else if (get(index) == COMMENT_END) {
+            while (get(index) != COMMENT_START) index--;
         } else {
-            throw new RuntimeException("No comment start or end at index " + index + " move " + valueToString(m_moves[index]));
+            throw new RuntimeException("No comment start or end at index " + index + " move " + valueToString(get(index)));
         }
         return index;
     }
@@ -206,17 +388,19 @@ public class GameMoveModel
     public String getComment(int index)
     {
         if (EXTRA_CHECKS)
-            if (!isMoveValue(m_moves[index]) && index != 0)  // comment at index 0 allowed
-                throw new RuntimeException("No move at index " + index + " move=" + valueToString(m_moves[index]));
+            if (!isMoveValue(get(index)) && index != 0)  // comment at index 0 allowed
+                throw new RuntimeException("No move at index " + index + " move=" + valueToString(get(index)));
         
         // skip all nags
-        while(isNagValue(m_moves[index + 1])) index++;
+        while(isNagValue(get(index + 1))) index++;
         
-        if (m_moves[index + 1] == COMMENT_START) {
+        if (isCommentValue(get(index + 1))) {
+            return m_comments[getCommentIndex(get(index + 1))];
+        } else if (get(index + 1) == COMMENT_START) {
             index += 2;
             StringBuffer sb = new StringBuffer();
-            while (m_moves[index] != COMMENT_END) {
-                sb.append((char)m_moves[index]);
+            while (get(index) != COMMENT_END) {
+                sb.append((char)get(index));
                 index++;
             }
             return sb.toString();
@@ -227,27 +411,34 @@ public class GameMoveModel
     
     public boolean addComment(int index, String comment)
     {
+        checkMutable();
         if (DEBUG) {
             System.out.println("addComment " + index+ " comment " + comment);
             write(System.out);
         }
         
         if (EXTRA_CHECKS)
-            if (index != 0 && !isMoveValue(m_moves[index]))
-                throw new RuntimeException("No move at index " + index + " val=" + valueToString(m_moves[index]));
+            if (index != 0 && !isMoveValue(get(index)))
+                throw new RuntimeException("No move at index " + index + " val=" + valueToString(get(index)));
         
         if (comment == null || comment.length() == 0) return false;  // =====>
         
         // allow comments before first move (index == 0)
         if (index != 0) {
-            while(isNagValue(m_moves[index + 1])) index++;
+            while(isNagValue(get(index + 1))) index++;
         }
-        makeSpace(index + 1, comment.length() + 2, false);
-        m_moves[index + 1] = COMMENT_START;
-        for (int i = 0; i < comment.length(); i++) {
-            m_moves[index + 2 + i] = (short)comment.charAt(i);
+        short token = addToCommentPool(comment);
+        if (token != NO_MOVE) {
+            makeSpace(index + 1, 1);
+            set(index + 1, token);
+        } else {
+            makeSpace(index + 1, comment.length() + 2);
+            set(index + 1, COMMENT_START);
+            for (int i = 0; i < comment.length(); i++) {
+                set(index + 2 + i, (short)comment.charAt(i));
+            }
+            set(index + comment.length() + 2, COMMENT_END);
         }
-        m_moves[index + comment.length() + 2] = COMMENT_END;
         changed();
         
         if (DEBUG) write(System.out);
@@ -256,23 +447,27 @@ public class GameMoveModel
     
     public boolean removeComment(int index)
     {
+        checkMutable();
         if (DEBUG) {
             System.out.println("removeComment " + index);
             write(System.out);
         }
         
         if (EXTRA_CHECKS)
-            if (index != 0 && !isMoveValue(m_moves[index]))
-                throw new RuntimeException("No move at index " + index + " val=" + valueToString(m_moves[index]));
+            if (index != 0 && !isMoveValue(get(index)))
+                throw new RuntimeException("No move at index " + index + " val=" + valueToString(get(index)));
         
         // allow comments before first move (index == 0)
         if (index != 0) {
-            while(isNagValue(m_moves[index + 1])) index++;
+            while(isNagValue(get(index + 1))) index++;
         }
         boolean isChanged = false;
-        if (m_moves[index + 1] == COMMENT_START) {
+        if (isCommentValue(get(index + 1))) {
+            set(index + 1, NO_MOVE);  // the pool entry is dropped on the next pack
+            isChanged = true;
+        } else if (get(index + 1) == COMMENT_START) {
             for (int i = skipComment(index + 1); i > index; i--) {
-                m_moves[i] = NO_MOVE;
+                set(i, NO_MOVE);
             }
             isChanged = true;
         }
@@ -293,7 +488,7 @@ public class GameMoveModel
     public boolean hasLines()
     {
         for (int i=1; i<m_size; i++) {
-            if (m_moves[i] == LINE_START) return true;
+            if (get(i) == LINE_START) return true;
         }
         return false;
     }
@@ -302,7 +497,7 @@ public class GameMoveModel
     {
         int num = 0;
         for (int index = 0; index < m_size; index++) {
-            if (isMoveValue(m_moves[index])) num++;
+            if (isMoveValue(get(index))) num++;
         }
         return num;
     }
@@ -312,10 +507,11 @@ public class GameMoveModel
         boolean inComment = false;
         int num = 0;
         for (int i=0; i<m_size; i++) {
-            short move = m_moves[i];
+            short move = get(i);
             if (move == COMMENT_END)   inComment = false;
             if (inComment) num++;
             if (move == COMMENT_START) inComment = true;
+            if (!inComment && isCommentValue(move)) num += m_comments[getCommentIndex(move)].length();
         }
         return num;
     }
@@ -323,7 +519,7 @@ public class GameMoveModel
     public short getMove(int index)
     {
         if (index >= 0 && index < m_size) {
-            short move = m_moves[index];
+            short move = get(index);
             return (isMoveValue(move) ? move : NO_MOVE);
         } else {
             return NO_MOVE;
@@ -369,10 +565,17 @@ public class GameMoveModel
         
         if (index <= 0) return -1;  // =====>
         
+        if (hasSkipIndex(index)) {
+            int back = m_skipIndex[SKIP_ENTRY * index + SKIP_BACK];
+            if (!gotoMainLine && (m_skipIndex[SKIP_ENTRY * index + SKIP_INFO] & SKIP_LINE_FIRST) != 0) back = -1;
+            if (DEBUG) System.out.println("  --> " + back);
+            return back;  // =====>
+        }
+        
         index--;
         int level = 0;
         while (index > 0) {
-            short move = m_moves[index];
+            short move = get(index);
             if      (move == LINE_START)   {
                 level--;
                 if (level == -1) {
@@ -387,6 +590,7 @@ public class GameMoveModel
             }
             else if (move == LINE_END)      level++;
             else if (isNagValue(move))      ;
+            else if (isCommentValue(move))  ;
             else if (move == COMMENT_START) ;  // error
             else if (move == COMMENT_END)   index = skipComment(index);
             else if (move == NO_MOVE)       ;
@@ -425,13 +629,16 @@ public class GameMoveModel
 //        if (index >= 0 && m_moves[index] == LINE_END) return index;  // =====>
 //        if (index >= m_size - 1) return index;  // =====>
         
+        if (hasSkipIndex(index)) return m_skipIndex[SKIP_ENTRY * index + SKIP_NEXT];  // =====>
+        
         index++;
         int level = 0;
         while (index < m_size - 1) {
-            short move = m_moves[index];
+            short move = get(index);
             if      (move == LINE_START)     level++;
             else if (move == LINE_END)      {level--; if (level < 0) break;}
             else if (isNagValue(move))       ;
+            else if (isCommentValue(move))   ;
             else if (move == COMMENT_START)  index = skipComment(index);
             else if (move == COMMENT_END)    ;  // error
             else if (move == NO_MOVE)        ;
@@ -452,15 +659,30 @@ public class GameMoveModel
         if (EXTRA_CHECKS)
             checkLegalCursor(index);
         
+        if (hasSkipIndex(index)) {
+            index = m_skipIndex[SKIP_ENTRY * index + SKIP_NEXT];
+            if (get(index) == LINE_END || whichLine <= 0) return index;  // =====>
+            int line = index;
+            for (; whichLine > 0 && line != -1; whichLine--) line = m_skipIndex[SKIP_ENTRY * line + SKIP_SIBLING];
+            if (line == -1) {
+                // not enough lines: -1 if the line continues, else its end
+                int next = m_skipIndex[SKIP_ENTRY * index + SKIP_NEXT];
+                line = (isMoveValue(get(next)) ? -1 : next);
+            }
+            if (DEBUG) System.out.println("  --> " + line);
+            return line;  // =====>
+        }
+        
         index = goForward(index);
-        if (m_moves[index] != LINE_END && whichLine > 0) {
+        if (get(index) != LINE_END && whichLine > 0) {
             index++;
             int level = 0;
             while (index < m_size - 1) {
-                short move = m_moves[index];
+                short move = get(index);
                 if      (move == LINE_START)          {level++; if (level == 1) whichLine--;}
                 else if (move == LINE_END)            {level--; if (level < 0) break;}
                 else if (isNagValue(move))             ;
+                else if (isCommentValue(move))         ;
                 else if (move == COMMENT_START)        index = skipComment(index);
                 else if (move == COMMENT_END)          ;  // error
                 else if (move == NO_MOVE)              ;
@@ -483,17 +705,23 @@ public class GameMoveModel
         if (EXTRA_CHECKS)
             checkLegalCursor(index);
         
+        if (hasSkipIndex(index)) {
+            if (get(m_skipIndex[SKIP_ENTRY * index + SKIP_NEXT]) == LINE_END) return 0;  // =====>
+            return m_skipIndex[SKIP_ENTRY * index + SKIP_INFO] & SKIP_NUM_OF_NEXT_MOVES;  // =====>
+        }
+        
         index = goForward(index);
-        if (m_moves[index] == LINE_END) return 0;   // =====>
+        if (get(index) == LINE_END) return 0;   // =====>
 
         index++;
         int numOfMoves = 1;
         int level = 0;
         while (index < m_size && level >= 0) {
-            short move = m_moves[index];
+            short move = get(index);
             if      (move == LINE_START)    level++;
             else if (move == LINE_END)     {level--; if (level == 0) numOfMoves++;}
             else if (isNagValue(move))      ;
+            else if (isCommentValue(move))  ;
             else if (move == COMMENT_START) index = skipComment(index);
             else if (move == COMMENT_END)   ;  // error
             else if (move == NO_MOVE)       ;
@@ -514,16 +742,125 @@ public class GameMoveModel
         if (EXTRA_CHECKS)
             checkLegalCursor(index);
         
-        boolean nextMove = isMoveValue(m_moves[goForward(index)]);
+        boolean nextMove = isMoveValue(get(goForward(index)));
         if (DEBUG) System.out.println("  --> " + nextMove);
         return (nextMove);
     }
     
+    //======================================================================
+    // skip index
+    //
+    // Navigating the flat move array means skipping comments, nags and nested
+    // lines, which gets expensive for heavily annotated games. For packed models
+    // of some size, an index with one entry per node (index 0 and all moves) is
+    // built on first use. An entry holds the result of goForward(index) and
+    // goBack(index, true), the next alternative of the move, and the number of
+    // next moves. Any edit drops the index until the model is packed again.
+    
+    private final static int
+        SKIP_INDEX_MIN_SIZE    = 256,
+        SKIP_ENTRY             = 4,
+        SKIP_NEXT              = 0,
+        SKIP_BACK              = 1,
+        SKIP_SIBLING           = 2,
+        SKIP_INFO              = 3,
+        SKIP_NUM_OF_NEXT_MOVES = 0x3FFFFFFF,
+        SKIP_LINE_FIRST        = 0x40000000;   // first move of a line
+    
+    private boolean hasSkipIndex(int index)
+    {
+        if (m_skipIndex == null) {
+            if (!m_packed || m_size < SKIP_INDEX_MIN_SIZE) return false;  // =====>
+            m_skipIndex = buildSkipIndex();
+            if (m_skipIndex == null) {m_packed = false; return false;}  // =====>  unexpected structure, use linear scans
+        }
+        return m_skipIndex[SKIP_ENTRY * index + SKIP_NEXT] != -1;
+    }
+    
+    private int[] buildSkipIndex()
+    {
+        int[] skip = new int[SKIP_ENTRY * m_size];
+        java.util.Arrays.fill(skip, -1);
+        
+        int maxLevel = 16;
+        int[] last = new int[maxLevel];           // last node of the line on each level
+        int[] lastParent = new int[maxLevel];     // its parent
+        int[] lastSibling = new int[maxLevel];    // last alternative of the last node
+        int[] lineMain = new int[maxLevel];       // the move the line is an alternative to
+        boolean[] lineEmpty = new boolean[maxLevel];
+        
+        int level = 0;
+        last[0] = 0; lastParent[0] = -1; lastSibling[0] = -1;
+        skip[SKIP_BACK] = -1; skip[SKIP_INFO] = 0;
+        
+        for (int index = 1; index < m_size; index++) {
+            short value = get(index);
+            if (value == COMMENT_START) {
+                index = skipComment(index);
+            } else if (value == LINE_START) {
+                if (lineEmpty[level] || last[level] == 0) return null;  // =====>  no move to be an alternative to
+                if (level + 1 == maxLevel) {
+                    maxLevel *= 2;
+                    last = grow(last, maxLevel); lastParent = grow(lastParent, maxLevel);
+                    lastSibling = grow(lastSibling, maxLevel); lineMain = grow(lineMain, maxLevel);
+                    boolean[] empty = new boolean[maxLevel];
+                    System.arraycopy(lineEmpty, 0, empty, 0, level + 1);
+                    lineEmpty = empty;
+                }
+                lineMain[level + 1] = last[level];
+                last[level + 1] = lastParent[level];
+                lineEmpty[level + 1] = true;
+                level++;
+            } else if (value == LINE_END) {
+                if (lineEmpty[level]) return null;  // =====>
+                skip[SKIP_ENTRY * last[level] + SKIP_NEXT] = index;
+                if (level == 0) {
+                    if (index != m_size - 1) return null;  // =====>
+                    break;
+                }
+                level--;
+            } else if (isMoveValue(value)) {
+                int parent = last[level];
+                int entry = SKIP_ENTRY * index;
+                skip[entry + SKIP_SIBLING] = -1;
+                skip[entry + SKIP_INFO] = 0;
+                if (level > 0 && lineEmpty[level]) {
+                    int main = lineMain[level];
+                    skip[SKIP_ENTRY * lastSibling[level - 1] + SKIP_SIBLING] = index;
+                    lastSibling[level - 1] = index;
+                    skip[SKIP_ENTRY * parent + SKIP_INFO]++;
+                    skip[entry + SKIP_INFO] = SKIP_LINE_FIRST;
+                    // going back from a line start goes back from the main move, see goBack
+                    boolean mainIsLineFirst = (skip[SKIP_ENTRY * main + SKIP_INFO] & SKIP_LINE_FIRST) != 0;
+                    skip[entry + SKIP_BACK] = (mainIsLineFirst ? -1 : parent);
+                    lineEmpty[level] = false;
+                } else {
+                    skip[SKIP_ENTRY * parent + SKIP_NEXT] = index;
+                    skip[SKIP_ENTRY * parent + SKIP_INFO]++;
+                    skip[entry + SKIP_BACK] = parent;
+                }
+                lastParent[level] = parent;
+                last[level] = index;
+                lastSibling[level] = index;
+            }
+            // nags and empty slots are skipped
+        }
+        if (level != 0) return null;  // =====>
+        return skip;
+    }
+    
+    private static int[] grow(int[] arr, int length)
+    {
+        int[] newArr = new int[length];
+        System.arraycopy(arr, 0, newArr, 0, arr.length);
+        return newArr;
+    }
+    
     //======================================================================
     
     private int findEarliestNoMove(int index)
     {
-        while (index > 1 && m_moves[index - 1] == NO_MOVE) index--;
+        while (index > 1 && get(index - 1) == NO_MOVE) index--;
         return index;
     }
 
@@ -532,30 +869,45 @@ public class GameMoveModel
         if (EXTRA_CHECKS)
             if (index < 1 || index > m_size)
                 throw new RuntimeException("Index out of bounds " + index);
-            else if (m_moves[index] != NO_MOVE)
+            else if (get(index) != NO_MOVE)
                 throw new RuntimeException("Expected no move  " + index);
         
-        while (index > 0 && m_moves[index - 1] == NO_MOVE) index--;
+        while (index > 0 && get(index - 1) == NO_MOVE) index--;
         return index;
     }
 
-    private void enlarge(int index, int size)
+    /**
+     * Inserts size empty slots before the given index. The gap is moved to
+     * the index first and the array is only reallocated (doubling its
+     * length) if the gap is too small.
+     */
+    private void insertSpace(int index, int size)
     {
         if (DEBUG) {
-            System.out.println("enlarge " + index + " " + size);
+            System.out.println("insertSpace " + index + " " + size);
             write(System.out);
         }
         
-        short[] newMoves = new short[m_moves.length + size];
-        System.arraycopy(m_moves, 0, newMoves, 0, index);
-        System.arraycopy(m_moves, index, newMoves, index + size, m_size - index);
-        java.util.Arrays.fill(newMoves, index, index + size, NO_MOVE);
-        m_moves = newMoves;
+        if (m_gapLength < size) {
+            int length = Math.max(2 * m_moves.length, m_size + size + 1);
+            short[] newMoves = new short[length];
+            int tail = m_size - index;
+            for (int i = 0; i < index; i++) newMoves[i] = get(i);
+            for (int i = 0; i < tail; i++) newMoves[length - tail + i] = get(index + i);
+            m_moves = newMoves;
+            m_gapStart = index;
+            m_gapLength = length - m_size;
+        } else {
+            moveGap(index);
+        }
+        java.util.Arrays.fill(m_moves, index, index + size, NO_MOVE);
+        m_gapStart += size;
+        m_gapLength -= size;
         m_size += size;
         if (DEBUG) write(System.out);
     }
     
-    private void makeSpace(int index, int spaceNeeded, boolean possiblyMakeMore)
+    private void makeSpace(int index, int spaceNeeded)
     {
         if (DEBUG) {
             System.out.println("makeSpace " + index + " " + spaceNeeded);
@@ -567,16 +919,9 @@ public class GameMoveModel
                 throw new RuntimeException("Index out of bounds " + index + " size=" + m_size);
         
         for (int i = 0; i < spaceNeeded; i++) {
-            if (m_moves[index + i] != NO_MOVE) {
+            if (get(index + i) != NO_MOVE) {
                 // not enough space, make it
-                if (m_size + spaceNeeded - i >= m_moves.length) {
-                    int size = (spaceNeeded - i  < 8 && possiblyMakeMore ? 8 : spaceNeeded - i);
-                    enlarge(index, size);
-                } else {
-                    System.arraycopy(m_moves, index + i, m_moves, index + spaceNeeded, m_size - (index + i));
-                    java.util.Arrays.fill(m_moves, index + i, index + spaceNeeded, NO_MOVE);
-                    m_size += spaceNeeded - i;
-                }
+                insertSpace(index + i, spaceNeeded - i);
                 break;
             }
         }
@@ -585,6 +930,7 @@ public class GameMoveModel
     
     public int appendAsRightMostLine(int index, short move)
     {
+        checkMutable();
         if (DEBUG) {
             System.out.println("appendAsRightMostLine " + index + " " + Move.getString(move));
             write(System.out);
@@ -597,10 +943,10 @@ public class GameMoveModel
             index = goForward(index);  // go to the move for which an alternative is entered
             index = goForward(index);  // go to the end of all existing lines
             index = findEarliestNoMove(index);
-            makeSpace(index, 3, true);
-            m_moves[index]     = LINE_START;
-            m_moves[index + 1] = move;
-            m_moves[findLatestNoMove(index + 2)] = LINE_END;
+            makeSpace(index, 3);
+            set(index, LINE_START);
+            set(index + 1, move);
+            set(findLatestNoMove(index + 2), LINE_END);
             if (DEBUG) write(System.out);
             if (DEBUG) System.out.println("  --> " + index);
             changed();
@@ -608,8 +954,8 @@ public class GameMoveModel
         } else {
             index = goForward(index);
             index = findEarliestNoMove(index);
-            makeSpace(index, 1, true);
-            m_moves[index] = move;
+            makeSpace(index, 1);
+            set(index, move);
             if (DEBUG) write(System.out);
             if (DEBUG) System.out.println("  --> " + index);
             changed();
@@ -619,6 +965,7 @@ public class GameMoveModel
     
     public void deleteCurrentLine(int index)
     {
+        checkMutable();
         if (DEBUG) {
             System.out.println("deleteCurrentLine " + index);
             write(System.out);
@@ -632,23 +979,23 @@ public class GameMoveModel
         
         // check if we stand at a line start
         for (int i=1; i<index; i++) {
-            short move = m_moves[index - i];
+            short move = get(index - i);
             if      (move == LINE_START) {index -= i; deleteLineEnd = true; level = -1; break;}
             else if (move != NO_MOVE)     break;
         }
         
         boolean inComment = false;
         while (index < m_size) {
-            short move = m_moves[index];
+            short move = get(index);
             if      (!inComment && move == LINE_START) level++;
             else if (!inComment && move == LINE_END)   level--;
             else if (move == COMMENT_START)            inComment = true;
             else if (move == COMMENT_END)              inComment = false;
             if (level == -1) {
-                if (deleteLineEnd) m_moves[index] = NO_MOVE;
+                if (deleteLineEnd) set(index, NO_MOVE);
                 break;
             }
-            m_moves[index] = NO_MOVE;
+            set(index, NO_MOVE);
             index++;
         }
         changed();
@@ -659,6 +1006,7 @@ public class GameMoveModel
     
     public int pack(int index)
     {
+        checkMutable();
         if (DEBUG) {
             System.out.println("pack");
             write(System.out);
@@ -666,14 +1014,14 @@ public class GameMoveModel
         
         int newSize = 0;
         for (int i=0; i<m_size; i++) {
-            if (m_moves[i] != NO_MOVE) newSize++;
+            if (get(i) != NO_MOVE) newSize++;
         }
         
         short[] newMoves = new short[newSize + 1];
         int j = 0;
         boolean inComment = false;
         for (int i=0; i<m_size; i++) {
-            short move = m_moves[i];
+            short move = get(i);
             if      (move == COMMENT_START) inComment = true;
             else if (move == COMMENT_END)   inComment = false;
             if (inComment || (move != NO_MOVE)) {
@@ -682,9 +1030,15 @@ public class GameMoveModel
             if (i == index) index = j - 1;
         }
         
+        newMoves[newSize] = LINE_END;
         m_moves = newMoves;
-        m_moves[newSize] = LINE_END;
         m_size = newSize;
+        m_gapStart = m_size;
+        m_gapLength = m_moves.length - m_size;
+        m_packed = true;
+        m_skipIndex = null;
+        compactCommentPool();
+        m_commentPoolFull = false;
         
         if (DEBUG) write(System.out);
         if (DEBUG) System.out.println("  --> " + index);
@@ -696,35 +1050,385 @@ public class GameMoveModel
     
     public void load(DataInput in, int mode) throws IOException
     {
+        checkMutable();
+        if (mode == MODE_COMPACT) {loadCompact(in); return;}  // =====>
+        
         m_size = in.readInt() + 2;
         m_moves = new short[m_size];
+        m_gapStart = m_size;
+        m_gapLength = 0;
+        m_comments = null;
+        m_numOfComments = 0;
+        m_commentPoolFull = false;
         byte[] data = new byte[2 * (m_size - 2)];
         in.readFully(data);
         for (int i = 1; i < m_size - 1; i++) {
             // copied from RandomAccesFile.readShort
-            m_moves[i] = (short)((data[2*i - 2] << 8) | (data[2*i - 1] & 0xFF));
+            set(i, (short)((data[2*i - 2] << 8) | (data[2*i - 1] & 0xFF)));
 //            m_moves[i] = in.readShort();
         }
-        m_moves[0]          = LINE_START;
-        m_moves[m_size - 1] = LINE_END;
+        set(0, LINE_START);
+        set(m_size - 1, LINE_END);
+        poolInlineComments();
         changed();
+        m_packed = true;
         if (DEBUG) write(System.out);
     }
     
+    /**
+     * Skips moves saved in the given mode without decoding them.
+     *
+     *@param in the input positioned at the moves
+     *@param mode the moves mode, MODE_EVERYTHING or MODE_COMPACT
+     */
+    public static void skip(DataInput in, int mode) throws IOException
+    {
+        if (mode == MODE_COMPACT) {
+            int type = in.readUnsignedByte();
+            if (type == COMPACT_RAW) {skip(in, MODE_EVERYTHING); return;}  // =====>
+            if (type == COMPACT_FEN) skipFully(in, in.readUnsignedShort());   // the FEN, as written by writeUTF
+            else if (type != COMPACT_INITIAL) throw new IOException("Illegal compact game type " + type);
+            skipFully(in, in.readInt());
+        } else {
+            skipFully(in, 2 * in.readInt());
+        }
+    }
+    
+    private static void skipFully(DataInput in, int num) throws IOException
+    {
+        while (num > 0) {
+            int skipped = in.skipBytes(num);
+            if (skipped <= 0) {in.readByte(); skipped = 1;}  // throws EOFException at the end
+            num -= skipped;
+        }
+    }
+    
     public void save(DataOutput out, int mode) throws IOException
     {
-        // do not save the guards at index 0 and m_size-1
-        out.writeInt(m_size - 2);
-        byte[] data = new byte[2 * (m_size - 2)];
+        save(out, mode, null);
+    }
+    
+    /**
+     * Saves the moves in the given mode. MODE_COMPACT stores the moves relative
+     * to the positions of the game and therefore needs the start position.
+     *
+     *@param out the output to write to
+     *@param mode the moves mode, MODE_EVERYTHING or MODE_COMPACT
+     *@param fen the start position of the game, null for the initial position
+     */
+    public void save(DataOutput out, int mode, String fen) throws IOException
+    {
+        if (mode == MODE_COMPACT) {saveCompact(out, fen); return;}  // =====>
+        
+        // do not save the guards at index 0 and m_size-1, pooled comments are saved inline
+        int size = m_size - 2;
         for (int i = 1; i < m_size - 1; i++) {
-            short m = m_moves[i];
-            // copied from RandomAccesFile.writeShort
-            data[2*i - 2] = (byte)((m >>> 8) & 0xFF);
-            data[2*i - 1] = (byte)((m >>> 0) & 0xFF);
+            short m = get(i);
+            if      (m == COMMENT_START)   i = skipComment(i);
+            else if (isCommentValue(m))   size += m_comments[getCommentIndex(m)].length() + 1;
+        }
+        out.writeInt(size);
+        byte[] data = new byte[2 * size];
+        int j = 0;
+        for (int i = 1; i < m_size - 1; i++) {
+            short m = get(i);
+            if (isCommentValue(m)) {
+                String comment = m_comments[getCommentIndex(m)];
+                j = writeShort(data, j, COMMENT_START);
+                for (int k = 0; k < comment.length(); k++) j = writeShort(data, j, (short)comment.charAt(k));
+                j = writeShort(data, j, COMMENT_END);
+            } else if (m == COMMENT_START) {
+                int end = skipComment(i);
+                for (; i <= end; i++) j = writeShort(data, j, get(i));
+                i--;
+            } else {
+                j = writeShort(data, j, m);
+            }
 //            out.writeShort(m_moves[i]);
         }
         out.write(data);
     }
+    
+    private static int writeShort(byte[] data, int offset, short m)
+    {
+        // copied from RandomAccesFile.writeShort
+        data[offset]     = (byte)((m >>> 8) & 0xFF);
+        data[offset + 1] = (byte)((m >>> 0) & 0xFF);
+        return offset + 2;
+    }
+
+    //======================================================================
+    // compact mode
+    
+    private final static int
+        COMPACT_RAW      = 0,   // moves could not be replayed, MODE_EVERYTHING follows
+        COMPACT_INITIAL  = 1,   // game starts from the initial position
+        COMPACT_FEN      = 2;   // game starts from the position given by a FEN
+    
+    private final static int
+        TOKEN_ESCAPE     = 0xFD,   // followed by the two bytes of a move not found in the legal moves
+        TOKEN_LINE_END   = 0xFE,
+        TOKEN_LINE_START = 0xFF;
+    
+    private static void writeVarInt(DataOutput out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    
+    private static int readVarInt(DataInput in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;  // =====>
+        }
+    }
+    
+    /**
+     * Writes the moves in compact form. Every move is replayed and stored as a
+     * single byte, its index in the legal moves of the position. Lines are
+     * delimited by the reserved tokens above. Nags and comments are written to
+     * separate streams, each entry keyed by the number of tokens preceding it.
+     * Since the encoding depends on the order of the move generator, files
+     * written in this mode are only valid as long as the order is unchanged.
+     */
+    private void saveCompact(DataOutput out, String fen) throws IOException
+    {
+        ByteArrayOutputStream moveBytes = new ByteArrayOutputStream(m_size);
+        ByteArrayOutputStream nagBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream commentBytes = new ByteArrayOutputStream();
+        DataOutputStream nags = new DataOutputStream(nagBytes);
+        DataOutputStream comments = new DataOutputStream(commentBytes);
+        int numOfTokens = 0, numOfNags = 0, numOfComments = 0;
+        int lastNag = 0, lastComment = 0;
+        
+        try {
+            Position position = (fen != null ? new Position(fen, false) : Position.createInitialPosition());
+            short[] lastMove = new short[16];
+            int[] numOfMoves = new int[16];
+            int level = 0;
+            for (int index = 1; index < m_size - 1; index++) {
+                short value = get(index);
+                if (value == NO_MOVE) {
+                    continue;
+                } else if (value == COMMENT_START) {
+                    int end = index + 1;
+                    while (get(end) != COMMENT_END) end++;
+                    writeVarInt(comments, numOfTokens - lastComment);
+                    writeVarInt(comments, end - index - 1);
+                    for (int i = index + 1; i < end; i++) writeVarInt(comments, get(i) & 0xFFFF);
+                    lastComment = numOfTokens;
+                    numOfComments++;
+                    index = end;
+                } else if (isCommentValue(value)) {
+                    String comment = m_comments[getCommentIndex(value)];
+                    writeVarInt(comments, numOfTokens - lastComment);
+                    writeVarInt(comments, comment.length());
+                    for (int i = 0; i < comment.length(); i++) writeVarInt(comments, comment.charAt(i));
+                    lastComment = numOfTokens;
+                    numOfComments++;
+                } else if (isNagValue(value)) {
+                    writeVarInt(nags, numOfTokens - lastNag);
+                    nags.writeByte(getNagForValue(value));
+                    lastNag = numOfTokens;
+                    numOfNags++;
+                } else if (value == LINE_START) {
+                    // the line is an alternative to the last move of the enclosing line
+                    position.undoMove();
+                    level++;
+                    if (level == lastMove.length) {
+                        short[] newLastMove = new short[2 * level];
+                        System.arraycopy(lastMove, 0, newLastMove, 0, level);
+                        lastMove = newLastMove;
+                        int[] newNumOfMoves = new int[2 * level];
+                        System.arraycopy(numOfMoves, 0, newNumOfMoves, 0, level);
+                        numOfMoves = newNumOfMoves;
+                    }
+                    numOfMoves[level] = 0;
+                    moveBytes.write(TOKEN_LINE_START);
+                    numOfTokens++;
+                } else if (value == LINE_END) {
+                    for (int i = 0; i < numOfMoves[level]; i++) position.undoMove();
+                    level--;
+                    position.doMove(lastMove[level]);
+                    moveBytes.write(TOKEN_LINE_END);
+                    numOfTokens++;
+                } else {
+                    short[] moves = position.getAllMoves();
+                    int token = TOKEN_ESCAPE;
+                    for (int i = 0; i < moves.length; i++) {
+                        if (moves[i] == value) {token = i; break;}
+                    }
+                    moveBytes.write(token);
+                    if (token == TOKEN_ESCAPE) {
+                        moveBytes.write((value >>> 8) & 0xFF);
+                        moveBytes.write(value & 0xFF);
+                    }
+                    position.doMove(value);
+                    lastMove[level] = value;
+                    numOfMoves[level]++;
+                    numOfTokens++;
+                }
+            }
+        } catch (IllegalMoveException ex) {
+            // cannot replay the moves, store them as they are
+            out.writeByte(COMPACT_RAW);
+            save(out, MODE_EVERYTHING, null);
+            return;  // =====>
+        }
+        
+        ByteArrayOutputStream data = new ByteArrayOutputStream(moveBytes.size() + nagBytes.size() + commentBytes.size() + 8);
+        DataOutputStream dataOut = new DataOutputStream(data);
+        writeVarInt(dataOut, moveBytes.size());
+        moveBytes.writeTo(dataOut);
+        writeVarInt(dataOut, numOfNags);
+        nagBytes.writeTo(dataOut);
+        writeVarInt(dataOut, numOfComments);
+        commentBytes.writeTo(dataOut);
+        
+        if (fen != null) {
+            out.writeByte(COMPACT_FEN);
+            out.writeUTF(fen);
+        } else {
+            out.writeByte(COMPACT_INITIAL);
+        }
+        // read back in one block, see loadCompact
+        out.writeInt(data.size());
+        out.write(data.toByteArray());
+    }
+    
+    private void loadCompact(DataInput in) throws IOException
+    {
+        int type = in.readUnsignedByte();
+        if (type == COMPACT_RAW) {load(in, MODE_EVERYTHING); return;}  // =====>
+        
+        Position position;
+        if (type == COMPACT_FEN) {
+            position = new Position(in.readUTF(), false);
+        } else if (type == COMPACT_INITIAL) {
+            position = Position.createInitialPosition();
+        } else {
+            throw new IOException("Illegal compact game type " + type);
+        }
+        
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        in = new DataInputStream(new ByteArrayInputStream(data));
+        
+        byte[] tokens = new byte[readVarInt(in)];
+        in.readFully(tokens);
+        int size = 2;
+        for (int i = 0; i < tokens.length; i++) {
+            if ((tokens[i] & 0xFF) == TOKEN_ESCAPE) i += 2;
+            size++;
+        }
+        
+        int numOfNags = readVarInt(in);
+        int[] nagTokens = new int[numOfNags];
+        short[] nagValues = new short[numOfNags];
+        for (int i = 0, last = 0; i < numOfNags; i++) {
+            last += readVarInt(in);
+            nagTokens[i] = last;
+            nagValues[i] = getValueForNag((short)in.readUnsignedByte());
+        }
+        size += numOfNags;
+        
+        int numOfComments = readVarInt(in);
+        int[] commentTokens = new int[numOfComments];
+        String[] commentValues = new String[numOfComments];
+        for (int i = 0, last = 0; i < numOfComments; i++) {
+            last += readVarInt(in);
+            commentTokens[i] = last;
+            char[] chars = new char[readVarInt(in)];
+            for (int j = 0; j < chars.length; j++) chars[j] = (char)readVarInt(in);
+            commentValues[i] = new String(chars);
+            size += chars.length + 2;   // in case the comment has to be stored inline
+        }
+        
+        // the size is an upper bound, the remainder is left as gap
+        m_moves = new short[size];
+        m_size = size;
+        m_gapStart = m_size;
+        m_gapLength = 0;
+        m_comments = null;
+        m_numOfComments = 0;
+        m_commentPoolFull = false;
+        set(0, LINE_START);
+        
+        short[] lastMove = new short[16];
+        int[] numOfMoves = new int[16];
+        int level = 0;
+        int index = 1, nag = 0, comment = 0;
+        try {
+            for (int t = 0, numOfTokens = 0; ; numOfTokens++) {
+                while (nag < numOfNags && nagTokens[nag] == numOfTokens) {
+                    set(index++, nagValues[nag++]);
+                }
+                while (comment < numOfComments && commentTokens[comment] == numOfTokens) {
+                    String value = commentValues[comment++];
+                    short commentToken = addToCommentPool(value);
+                    if (commentToken != NO_MOVE) {
+                        set(index++, commentToken);
+                    } else {
+                        set(index++, COMMENT_START);
+                        for (int i = 0; i < value.length(); i++) set(index++, (short)value.charAt(i));
+                        set(index++, COMMENT_END);
+                    }
+                }
+                if (t == tokens.length) break;
+                
+                int token = tokens[t++] & 0xFF;
+                if (token == TOKEN_LINE_START) {
+                    position.undoMove();
+                    level++;
+                    if (level == lastMove.length) {
+                        short[] newLastMove = new short[2 * level];
+                        System.arraycopy(lastMove, 0, newLastMove, 0, level);
+                        lastMove = newLastMove;
+                        int[] newNumOfMoves = new int[2 * level];
+                        System.arraycopy(numOfMoves, 0, newNumOfMoves, 0, level);
+                        numOfMoves = newNumOfMoves;
+                    }
+                    numOfMoves[level] = 0;
+                    set(index++, LINE_START);
+                } else if (token == TOKEN_LINE_END) {
+                    for (int i = 0; i < numOfMoves[level]; i++) position.undoMove();
+                    level--;
+                    position.doMove(lastMove[level]);
+                    set(index++, LINE_END);
+                } else {
+                    short move;
+                    if (token == TOKEN_ESCAPE) {
+                        move = (short)(((tokens[t] & 0xFF) << 8) | (tokens[t + 1] & 0xFF));
+                        t += 2;
+                    } else {
+                        move = position.getAllMoves()[token];
+                    }
+                    position.doMove(move);
+                    lastMove[level] = move;
+                    numOfMoves[level]++;
+                    set(index++, move);
+                }
+            }
+        } catch (IllegalMoveException ex) {
+            throw new IOException("Illegal move in compact game data: " + ex.getMessage());
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("Corrupt compact game data at index " + index);
+        }
+        set(index, LINE_END);
+        m_size = index + 1;
+        m_gapStart = m_size;
+        m_gapLength = m_moves.length - m_size;
+        
+        changed();
+        m_packed = true;
+        if (DEBUG) write(System.out);
+    }
 
     //======================================================================
     
@@ -736,6 +1440,7 @@ public class GameMoveModel
         else if (value == COMMENT_START)  return "{";
         else if (value == COMMENT_END)    return "}";
         else if (isNagValue(value))       return "$" + getNagForValue(value);
+        else if (isCommentValue(value))   return "{#" + getCommentIndex(value) + "}";
         else                              return Move.getString(value);
     }
     
@@ -743,12 +1448,14 @@ public class GameMoveModel
     {
         boolean inComment = false;
         for (int i=0; i<m_size; i++) {
-            short move = m_moves[i];
+            short move = get(i);
             if (move == COMMENT_END)   inComment = false;
             if (inComment) {
                 out.print((char)move);
+            } else if (isCommentValue(move)) {
+                out.print("{" + m_comments[getCommentIndex(move)] + "} ");
             } else {
-                out.print(valueToString(m_moves[i]));
+                out.print(valueToString(get(i)));
                 out.print(" ");
             }
             if ((i % 20) == 19) out.println();
@@ -770,20 +1477,38 @@ public class GameMoveModel
     
 //    private static int s_equals = 0, s_fullCompare = 0, s_true = 0, s_false = 0;
     
+    /**
+     * Finalizer of MurmurHash3, a bijection on longs with good avalanche.
+     */
+    static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    /**
+     * Returns a 64 bit hash code of the main line. Each move is mixed into the
+     * hash of the preceding moves, so the hash depends on the order of moves.
+     * The hash is cached until the moves change.
+     */
     public long getHashCode()
     {
         if (m_hashCode == 0) {
-            int shift = 0;
+            long hashCode = 0L;
             for (int index = 0; ; index = goForward(index)) {
-                if (m_moves[index] == LINE_END) break;
+                if (get(index) == LINE_END) break;
                 short move = getMove(index);
 //                m_hashCode ^= move;
 //                m_hashCode += move;
 //                m_hashCode += s_rand[(int)move - Short.MIN_VALUE];
 //                m_hashCode ^= s_rand[(int)move - Short.MIN_VALUE];
-                m_hashCode ^= (long)move << shift;
-                if (shift == 12) shift = 0; else shift++;
+                hashCode = mix(hashCode + (move & 0xFFFF) + 1);
             }
+            m_hashCode = (hashCode == 0L ? 1L : hashCode);  // 0 is reserved
         }
         return m_hashCode;
     }
@@ -805,8 +1530,8 @@ public class GameMoveModel
         
         int index1 = 0, index2 = 0;
         for (;;) {
-            short move1 = m_moves[index1];
-            short move2 = gameMoveModel.m_moves[index2];
+            short move1 = get(index1);
+            short move2 = gameMoveModel.get(index2);
             if (move1 == LINE_END && move2 == LINE_END) return true;  // =====>
             if (move1 != move2) return false;  // =====>
 //            if (move1 == LINE_END && move2 == LINE_END) {s_true++; System.out.println(s_fullCompare + " / " + s_equals + " " + s_true + " " + s_false);return true;}  // =====>
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: GameNodeListener.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.game;
+
+/**
+ * Low-level listener for {@link Game#traverse(GameNodeListener, boolean)}.
+ *
+ * Unlike {@link GameListener}, no objects are created per node. When
+ * <code>notifyNode</code> is called, the game stands on the node, so the
+ * listener can ask the game for anything it needs: the position after the
+ * move via {@link Game#getPosition()}, nags and comment via
+ * {@link Game#getNags()} and {@link Game#getComment()}, and the move
+ * in SAN via {@link Game#getLastMove()}.
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public interface GameNodeListener
+{
+    public void notifyNode(Game game, int node, short move, int plyNumber, int level);
+    public void notifyLineStart(int level);
+    public void notifyLineEnd(int level);
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: HeaderColumnStore.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.game;
+
+import chesspresso.Chess;
+import java.io.*;
+
+/**
+ * Column store of the standard tags of many games, used to select games
+ * without loading them.
+ *
+ * Each standard tag is kept in a primitive array indexed by the game index,
+ * names, events, sites and ECO codes as symbols of a symbol table of the
+ * store. For players, events and ECO codes, a {@link GameBitmap} of their
+ * games is kept. A query starts with a bitmap and narrows it down with the
+ * filter methods, eg the games of X with a white elo above 2500 since 2010:
+ *
+ * <pre>
+ *   GameBitmap games = store.getGamesOfPlayer("X");
+ *   games = store.filterWhiteElo(games, 2501, Integer.MAX_VALUE);
+ *   games = store.filterYear(games, 2010, Integer.MAX_VALUE);
+ * </pre>
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class HeaderColumnStore
+{
+
+    private static final int
+        WHITE_ELO = 0,
+        BLACK_ELO = 1,
+        DATE = 2,
+        YEAR = 3,
+        RESULT = 4;
+
+    //======================================================================
+
+    private SymbolTable m_symbols;
+    private int m_size;
+
+    private int[] m_event, m_site, m_round, m_white, m_black, m_eco;  // symbols
+    private int[] m_date;                                             // yyyymmdd
+    private short[] m_whiteElo, m_blackElo;
+    private byte[] m_result;
+
+    private GameBitmap[] m_playerGames;   // indexed by symbol
+    private GameBitmap[] m_eventGames;
+    private GameBitmap[] m_ecoGames;
+
+    //======================================================================
+
+    public HeaderColumnStore()
+    {
+        m_symbols = new SymbolTable();
+        m_size = 0;
+        allocate(1024);
+        m_playerGames = new GameBitmap[256];
+        m_eventGames = new GameBitmap[256];
+        m_ecoGames = new GameBitmap[256];
+    }
+
+    /**
+     * Loads a store saved with {@link #save(DataOutput)}. The bitmaps are
+     * rebuilt from the columns.
+     */
+    public HeaderColumnStore(DataInput in) throws IOException
+    {
+        this();
+        int numOfSymbols = in.readInt();
+        for (int i=0; i<numOfSymbols; i++) m_symbols.getSymbol(in.readUTF());
+        if (m_symbols.size() != numOfSymbols) throw new IOException("Corrupt header columns");
+
+        int size = in.readInt();
+        if (size < 0) throw new IOException("Corrupt header columns");
+        allocate(Math.max(size, 16));
+        byte[] data = new byte[size * (6 * 4 + 4 + 2 + 2 + 1)];
+        in.readFully(data);
+        int index = 0;
+        for (int i=0; i<size; i++) {
+            m_event[i]    = getInt(data, index);      index += 4;
+            m_site[i]     = getInt(data, index);      index += 4;
+            m_round[i]    = getInt(data, index);      index += 4;
+            m_white[i]    = getInt(data, index);      index += 4;
+            m_black[i]    = getInt(data, index);      index += 4;
+            m_eco[i]      = getInt(data, index);      index += 4;
+            m_date[i]     = getInt(data, index);      index += 4;
+            m_whiteElo[i] = (short)((data[index] << 8) | (data[index + 1] & 0xFF)); index += 2;
+            m_blackElo[i] = (short)((data[index] << 8) | (data[index + 1] & 0xFF)); index += 2;
+            m_result[i]   = data[index];              index += 1;
+            checkSymbols(i);
+            m_size = i + 1;
+            addToBitmaps(i);
+        }
+    }
+
+    public void save(DataOutput out) throws IOException
+    {
+        int numOfSymbols = m_symbols.size();
+        out.writeInt(numOfSymbols);
+        for (int i=0; i<numOfSymbols; i++) out.writeUTF(m_symbols.getString(i));
+
+        out.writeInt(m_size);
+        for (int i=0; i<m_size; i++) {
+            out.writeInt(m_event[i]);
+            out.writeInt(m_site[i]);
+            out.writeInt(m_round[i]);
+            out.writeInt(m_white[i]);
+            out.writeInt(m_black[i]);
+            out.writeInt(m_eco[i]);
+            out.writeInt(m_date[i]);
+            out.writeShort(m_whiteElo[i]);
+            out.writeShort(m_blackElo[i]);
+            out.writeByte(m_result[i]);
+        }
+    }
+
+    private static int getInt(byte[] data, int index)
+    {
+        return (data[index] << 24) | ((data[index + 1] & 0xFF) << 16) | ((data[index + 2] & 0xFF) << 8) | (data[index + 3] & 0xFF);
+    }
+
+    private void checkSymbols(int index) throws IOException
+    {
+        int[][] columns = {m_event, m_site, m_round, m_white, m_black, m_eco};
+        for (int i=0; i<columns.length; i++) {
+            int symbol = columns[i][index];
+            if (symbol < SymbolTable.NO_SYMBOL || symbol >= m_symbols.size()) throw new IOException("Illegal symbol " + symbol + " in header columns");
+        }
+    }
+
+    //======================================================================
+
+    private void allocate(int capacity)
+    {
+        m_event    = grow(m_event, capacity);
+        m_site     = grow(m_site, capacity);
+        m_round    = grow(m_round, capacity);
+        m_white    = grow(m_white, capacity);
+        m_black    = grow(m_black, capacity);
+        m_eco      = grow(m_eco, capacity);
+        m_date     = grow(m_date, capacity);
+        short[] whiteElo = new short[capacity], blackElo = new short[capacity];
+        byte[] result = new byte[capacity];
+        if (m_whiteElo != null) {
+            System.arraycopy(m_whiteElo, 0, whiteElo, 0, m_size);
+            System.arraycopy(m_blackElo, 0, blackElo, 0, m_size);
+            System.arraycopy(m_result, 0, result, 0, m_size);
+        }
+        m_whiteElo = whiteElo; m_blackElo = blackElo; m_result = result;
+    }
+
+    private int[] grow(int[] arr, int capacity)
+    {
+        int[] newArr = new int[capacity];
+        if (arr != null) System.arraycopy(arr, 0, newArr, 0, m_size);
+        return newArr;
+    }
+
+    private static GameBitmap[] addToBitmap(GameBitmap[] bitmaps, int symbol, int index)
+    {
+        if (symbol == SymbolTable.NO_SYMBOL) return bitmaps;  // =====>
+        if (symbol >= bitmaps.length) {
+            GameBitmap[] newBitmaps = new GameBitmap[Math.max(symbol + 1, 2 * bitmaps.length)];
+            System.arraycopy(bitmaps, 0, newBitmaps, 0, bitmaps.length);
+            bitmaps = newBitmaps;
+        }
+        if (bitmaps[symbol] == null) bitmaps[symbol] = new GameBitmap();
+        bitmaps[symbol].add(index);
+        return bitmaps;
+    }
+
+    private void addToBitmaps(int index)
+    {
+        m_playerGames = addToBitmap(m_playerGames, m_white[index], index);
+        m_playerGames = addToBitmap(m_playerGames, m_black[index], index);
+        m_eventGames  = addToBitmap(m_eventGames,  m_event[index], index);
+        m_ecoGames    = addToBitmap(m_ecoGames,    m_eco[index],   index);
+    }
+
+    /**
+     * Adds the standard tags of a game.
+     *
+     *@param headerModel the header of the game
+     *@return the index of the game in the store
+     */
+    public int add(GameHeaderModel headerModel)
+    {
+        if (m_size == m_date.length) allocate(2 * m_size);
+
+        int index = m_size;
+        m_event[index]    = m_symbols.getSymbol(headerModel.getEvent());
+        m_site[index]     = m_symbols.getSymbol(headerModel.getSite());
+        m_round[index]    = m_symbols.getSymbol(headerModel.getRound());
+        m_white[index]    = m_symbols.getSymbol(headerModel.getWhite());
+        m_black[index]    = m_symbols.getSymbol(headerModel.getBlack());
+        m_eco[index]      = m_symbols.getSymbol(headerModel.getECO());
+        m_date[index]     = headerModel.getDateValue();
+        m_whiteElo[index] = (short)Math.min(headerModel.getWhiteElo(), Short.MAX_VALUE);
+        m_blackElo[index] = (short)Math.min(headerModel.getBlackElo(), Short.MAX_VALUE);
+        m_result[index]   = (byte)headerModel.getResult();
+        m_size++;
+
+        addToBitmaps(index);
+        return index;
+    }
+
+    /**
+     *@return the number of games in the store
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    //======================================================================
+    // columns
+
+    public String getEvent(int index)    {return m_symbols.getString(m_event[index]);}
+    public String getSite(int index)     {return m_symbols.getString(m_site[index]);}
+    public String getRound(int index)    {return m_symbols.getString(m_round[index]);}
+    public String getWhite(int index)    {return m_symbols.getString(m_white[index]);}
+    public String getBlack(int index)    {return m_symbols.getString(m_black[index]);}
+    public String getECO(int index)      {return m_symbols.getString(m_eco[index]);}
+    public int getDate(int index)        {return m_date[index];}
+    public int getWhiteElo(int index)    {return m_whiteElo[index];}
+    public int getBlackElo(int index)    {return m_blackElo[index];}
+    public int getResult(int index)      {return m_result[index];}
+
+    //======================================================================
+    // queries
+
+    /**
+     *@return a bitmap of all games
+     */
+    public GameBitmap getAllGames()
+    {
+        return GameBitmap.createRange(m_size);
+    }
+
+    private GameBitmap getGames(GameBitmap[] bitmaps, String value)
+    {
+        int symbol = m_symbols.lookup(value);
+        if (symbol == SymbolTable.NO_SYMBOL || symbol >= bitmaps.length || bitmaps[symbol] == null) return new GameBitmap();  // =====>
+        return bitmaps[symbol].or(new GameBitmap());  // copy, the result may be modified
+    }
+
+    /**
+     * Returns the games of a player, with white or black.
+     *
+     *@param player the name of the player, as in the header
+     */
+    public GameBitmap getGamesOfPlayer(String player)
+    {
+        return getGames(m_playerGames, player);
+    }
+
+    public GameBitmap getGamesOfEvent(String event)
+    {
+        return getGames(m_eventGames, event);
+    }
+
+    /**
+     * Returns the games with an ECO code starting with a prefix, eg "B9" for
+     * B90 to B99.
+     *
+     *@param ecoPrefix the start of the ECO code
+     */
+    public GameBitmap getGamesOfECO(String ecoPrefix)
+    {
+        GameBitmap games = new GameBitmap();
+        for (int symbol=0; symbol<m_ecoGames.length; symbol++) {
+            if (m_ecoGames[symbol] != null && m_symbols.getString(symbol).startsWith(ecoPrefix)) {
+                games = games.or(m_ecoGames[symbol]);
+            }
+        }
+        return games;
+    }
+
+    private int getValue(int column, int index)
+    {
+        switch (column) {
+            case WHITE_ELO: return m_whiteElo[index];
+            case BLACK_ELO: return m_blackElo[index];
+            case DATE:      return m_date[index];
+            case YEAR:      return m_date[index] / 10000;
+            case RESULT:    return m_result[index];
+            default: throw new RuntimeException("Unknown column " + column);
+        }
+    }
+
+    private GameBitmap filter(GameBitmap games, int column, int min, int max)
+    {
+        GameBitmap result = new GameBitmap();
+        if (games == null) {
+            for (int i=0; i<m_size; i++) {
+                int value = getValue(column, i);
+                if (value >= min && value <= max) result.add(i);
+            }
+        } else {
+            int[] indices = games.toArray();
+            for (int i=0; i<indices.length; i++) {
+                int value = getValue(column, indices[i]);
+                if (value >= min && value <= max) result.add(indices[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the games with a white elo in a range. Games without elo have elo 0.
+     *
+     *@param games the games to filter, null for all games
+     *@param min the minimal elo
+     *@param max the maximal elo
+     */
+    public GameBitmap filterWhiteElo(GameBitmap games, int min, int max)
+    {
+        return filter(games, WHITE_ELO, min, max);
+    }
+
+    public GameBitmap filterBlackElo(GameBitmap games, int min, int max)
+    {
+        return filter(games, BLACK_ELO, min, max);
+    }
+
+    /**
+     * Returns the games played in a range of dates.
+     *
+     *@param games the games to filter, null for all games
+     *@param from the first date as yyyymmdd, unknown parts are 0
+     *@param to the last date as yyyymmdd
+     */
+    public GameBitmap filterDate(GameBitmap games, int from, int to)
+    {
+        return filter(games, DATE, from, to);
+    }
+
+    public GameBitmap filterYear(GameBitmap games, int from, int to)
+    {
+        return filter(games, YEAR, from, to);
+    }
+
+    /**
+     *@param games the games to filter, null for all games
+     *@param result the result, eg {@link Chess#RES_WHITE_WINS}
+     */
+    public GameBitmap filterResult(GameBitmap games, int result)
+    {
+        return filter(games, RESULT, result, result);
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: SymbolTable.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.game;
+
+/**
+ * Dictionary of strings. Each distinct string is stored once and identified by
+ * a symbol, an int starting at 0. Symbols are never removed. Used to store
+ * the values repeating over many game headers, like player names and events.
+ *
+ * A table may be shared between threads. Only adding a string takes a lock,
+ * strings and symbols are looked up without locking: the arrays are only
+ * appended to and published through volatile fields after each change.
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class SymbolTable
+{
+
+    public static final int NO_SYMBOL = -1;
+
+    //======================================================================
+
+    private volatile String[] m_strings;
+    private volatile int[] m_table;       // open addressing, symbol + 1, 0 is empty
+    private volatile int m_size;
+
+    //======================================================================
+
+    public SymbolTable()
+    {
+        m_strings = new String[256];
+        m_table = new int[512];
+        m_size = 0;
+    }
+
+    //======================================================================
+
+    private static int getSlot(String s, int[] table, String[] strings)
+    {
+        int mask = table.length - 1;
+        int slot = (s.hashCode() * 0x9E3779B9) >>> 1 & mask;
+        while (table[slot] != 0 && !s.equals(strings[table[slot] - 1])) {  // null while being added by another thread
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow()
+    {
+        String[] strings = new String[2 * m_strings.length];
+        System.arraycopy(m_strings, 0, strings, 0, m_size);
+
+        int[] table = new int[2 * m_table.length];
+        for (int i=0; i<m_size; i++) {
+            table[getSlot(strings[i], table, strings)] = i + 1;
+        }
+        // readers of the old arrays still find all symbols they know of
+        m_strings = strings;
+        m_table = table;
+    }
+
+    /**
+     * Returns the symbol of a string, the string is added if it is not yet
+     * in the table.
+     *
+     *@param s the string
+     *@return the symbol, NO_SYMBOL if s is null
+     */
+    public synchronized int getSymbol(String s)
+    {
+        if (s == null) return NO_SYMBOL;  // =====>
+
+        int slot = getSlot(s, m_table, m_strings);
+        if (m_table[slot] != 0) return m_table[slot] - 1;  // =====>
+
+        if (m_size == m_strings.length) {
+            grow();
+            slot = getSlot(s, m_table, m_strings);
+        }
+        // the string is published before the slot, the slot before the size
+        int symbol = m_size;
+        String[] strings = m_strings;
+        strings[symbol] = s;
+        m_strings = strings;
+        int[] table = m_table;
+        table[slot] = symbol + 1;
+        m_table = table;
+        m_size = symbol + 1;
+        return symbol;
+    }
+
+    /**
+     * Returns the symbol of a string without adding it.
+     *
+     *@param s the string
+     *@return the symbol, NO_SYMBOL if s is null or not in the table
+     */
+    public int lookup(String s)
+    {
+        if (s == null) return NO_SYMBOL;  // =====>
+        int[] table = m_table;  // read before the strings, which are at least as recent
+        String[] strings = m_strings;
+        return table[getSlot(s, table, strings)] - 1;
+    }
+
+    /**
+     *@param symbol the symbol
+     *@return the string of the symbol, null if symbol is NO_SYMBOL
+     */
+    public String getString(int symbol)
+    {
+        return (symbol == NO_SYMBOL ? null : m_strings[symbol]);
+    }
+
+    /**
+     *@return the number of symbols in the table
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+}
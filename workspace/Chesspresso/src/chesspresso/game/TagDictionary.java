@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: TagDictionary.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.game;
+
+import java.io.*;
+
+/**
+ * Dictionary of the tag names and values of the game headers stored in one
+ * file. Headers saved with a dictionary (see
+ * {@link GameHeaderModel#save(DataOutput, int, TagDictionary)}) refer to
+ * names and values by their symbol in the dictionary, the dictionary itself
+ * is saved once per file.
+ *
+ * When headers are loaded, the symbols of the file are translated to the
+ * symbols of the symbol table of the header models, so a header is loaded
+ * without creating any strings. The translations are kept for the table last
+ * used.
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class TagDictionary
+{
+
+    private SymbolTable m_symbols;
+    private SymbolTable m_globalSymbols;  // the table of the header models translated to and from
+    private int[] m_fileToGlobal;   // global symbol + 1, 0 if not yet translated
+    private int[] m_globalToFile;   // file symbol + 1, 0 if not yet translated
+
+    //======================================================================
+
+    /**
+     * Creates an empty dictionary, to be filled while saving headers.
+     */
+    public TagDictionary()
+    {
+        m_symbols = new SymbolTable();
+        m_globalSymbols = null;
+        m_fileToGlobal = new int[0];
+        m_globalToFile = new int[0];
+    }
+
+    /**
+     * Loads a dictionary saved with {@link #save(DataOutput)}.
+     */
+    public TagDictionary(DataInput in) throws IOException
+    {
+        this();
+        int size = in.readInt();
+        for (int i=0; i<size; i++) {
+            m_symbols.getSymbol(in.readUTF());
+        }
+        if (m_symbols.size() != size) throw new IOException("Corrupt tag dictionary");
+    }
+
+    public void save(DataOutput out) throws IOException
+    {
+        int size = m_symbols.size();
+        out.writeInt(size);
+        for (int i=0; i<size; i++) {
+            out.writeUTF(m_symbols.getString(i));
+        }
+    }
+
+    //======================================================================
+
+    /**
+     *@return the number of symbols in the dictionary
+     */
+    public int size()
+    {
+        return m_symbols.size();
+    }
+
+    /**
+     * Returns the symbol of a string in this dictionary, the string is added if
+     * it is not yet in the dictionary.
+     */
+    int getFileSymbol(String s)
+    {
+        return m_symbols.getSymbol(s);
+    }
+
+    private void setGlobalSymbolTable(SymbolTable globalSymbols)
+    {
+        if (globalSymbols != m_globalSymbols) {
+            m_globalSymbols = globalSymbols;
+            m_fileToGlobal = new int[0];
+            m_globalToFile = new int[0];
+        }
+    }
+
+    /**
+     * Returns the symbol in this dictionary of a symbol of the header models,
+     * adding the string if needed.
+     *
+     *@param globalSymbol the symbol in the table of the header models
+     *@param globalSymbols the table of the header models
+     */
+    int getFileSymbol(int globalSymbol, SymbolTable globalSymbols)
+    {
+        if (globalSymbol == SymbolTable.NO_SYMBOL) return SymbolTable.NO_SYMBOL;  // =====>
+
+        setGlobalSymbolTable(globalSymbols);
+        if (globalSymbol >= m_globalToFile.length) {
+            int[] globalToFile = new int[Math.max(globalSymbol + 1, 2 * m_globalToFile.length)];
+            System.arraycopy(m_globalToFile, 0, globalToFile, 0, m_globalToFile.length);
+            m_globalToFile = globalToFile;
+        }
+        if (m_globalToFile[globalSymbol] == 0) {
+            m_globalToFile[globalSymbol] = m_symbols.getSymbol(m_globalSymbols.getString(globalSymbol)) + 1;
+        }
+        return m_globalToFile[globalSymbol] - 1;
+    }
+
+    /**
+     * Returns the string of a symbol of this dictionary.
+     */
+    String getString(int fileSymbol) throws IOException
+    {
+        if (fileSymbol == SymbolTable.NO_SYMBOL) return null;  // =====>
+        if (fileSymbol < 0 || fileSymbol >= m_symbols.size()) throw new IOException("Illegal tag symbol " + fileSymbol);
+        return m_symbols.getString(fileSymbol);
+    }
+
+    /**
+     * Returns the symbol of the header models of a symbol of this dictionary.
+     *
+     *@param fileSymbol the symbol in this dictionary
+     *@param globalSymbols the table of the header models, the string is added if needed
+     */
+    int getGlobalSymbol(int fileSymbol, SymbolTable globalSymbols) throws IOException
+    {
+        if (fileSymbol == SymbolTable.NO_SYMBOL) return SymbolTable.NO_SYMBOL;  // =====>
+        if (fileSymbol < 0 || fileSymbol >= m_symbols.size()) throw new IOException("Illegal tag symbol " + fileSymbol);
+
+        setGlobalSymbolTable(globalSymbols);
+        if (m_fileToGlobal.length < m_symbols.size()) {
+            int[] fileToGlobal = new int[m_symbols.size()];
+            System.arraycopy(m_fileToGlobal, 0, fileToGlobal, 0, m_fileToGlobal.length);
+            m_fileToGlobal = fileToGlobal;
+        }
+        if (m_fileToGlobal[fileSymbol] == 0) {
+            m_fileToGlobal[fileSymbol] = m_globalSymbols.getSymbol(m_symbols.getString(fileSymbol)) + 1;
+        }
+        return m_fileToGlobal[fileSymbol] - 1;
+    }
+
+}
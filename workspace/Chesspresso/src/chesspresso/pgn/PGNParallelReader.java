@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: PGNParallelReader.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.pgn;
+
+import chesspresso.game.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+
+/**
+ * Reader for large PGN files, parsing games on several threads.
+ *
+ * The input is split into chunks at game boundaries, a tag at the start of a
+ * line following a result token. Each chunk is parsed by its own
+ * {@link PGNReader} on a thread pool. The input itself is read and split by
+ * the thread calling {@link #parseGame()}. Looking for boundaries and
+ * counting lines is a plain byte scan, much faster than parsing.
+ *
+ * Games are returned in the order of the file, or in the order their chunks
+ * are parsed if the caller does not need the file order. Errors and warnings
+ * are passed to the error handler on the thread calling
+ * {@link #parseGame()}, with the line numbers of the file, before the games
+ * of their chunk are returned.
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public final class PGNParallelReader
+{
+
+    private static final boolean DEBUG = false;
+
+    private static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    //======================================================================
+
+    private InputStream m_in;
+    private String m_name;
+    private byte[] m_carry;              // bytes read after the last boundary
+    private int m_carryLength;
+    private int m_nextLineNumber;        // line number of the first line of the next chunk
+    private int m_chunkSize;
+    private boolean m_lazyMoves;
+    private SymbolTable m_symbols;
+
+    private ExecutorService m_executor;
+    private CompletionService<Chunk> m_completionService;  // unordered mode only
+    private LinkedList<Future<Chunk>> m_pending;  // futures of the chunks submitted, in file order, ordered mode only
+    private int m_numOfPending;
+    private int m_maxPending;
+    private boolean m_ordered;
+
+    private Iterator<GameModel> m_games;  // games of the current chunk
+    private PGNErrorHandler m_errorHandler;
+
+    //======================================================================
+
+    /**
+     * Creates a reader of a stream, decoded as by
+     * {@link PGNReader#PGNReader(InputStream, String)}.
+     *
+     *@param in the input stream, closed by {@link #close()}
+     *@param name the name of the input, used for error messages
+     *@param numOfThreads the number of threads parsing games
+     *@param ordered whether games are returned in the order of the input
+     */
+    public PGNParallelReader(InputStream in, String name, int numOfThreads, boolean ordered)
+    {
+        if (numOfThreads < 1) throw new IllegalArgumentException("Number of threads must be at least 1: " + numOfThreads);
+        m_in = in;
+        m_name = name;
+        m_carry = new byte[0];
+        m_carryLength = 0;
+        m_nextLineNumber = 1;
+        m_chunkSize = DEFAULT_CHUNK_SIZE;
+        m_lazyMoves = false;
+        m_symbols = null;
+
+        m_executor = Executors.newFixedThreadPool(numOfThreads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PGNParallelReader");
+                thread.setDaemon(true);  // do not keep the vm alive if the reader is not closed
+                return thread;
+            }
+        });
+        m_completionService = (ordered ? null : new ExecutorCompletionService<Chunk>(m_executor));
+        m_pending = (ordered ? new LinkedList<Future<Chunk>>() : null);
+        m_numOfPending = 0;
+        m_maxPending = 2 * numOfThreads;  // keep the threads busy while chunks are returned
+        m_ordered = ordered;
+        m_games = null;
+        m_errorHandler = null;
+    }
+
+    /**
+     * Creates a reader of a PGN file, which may be gzipped.
+     *
+     *@param file the file
+     *@param numOfThreads the number of threads parsing games
+     *@param ordered whether games are returned in the order of the file
+     */
+    public PGNParallelReader(File file, int numOfThreads, boolean ordered) throws IOException
+    {
+        this(openFile(file), file.getPath(), numOfThreads, ordered);
+    }
+
+    private static InputStream openFile(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().toLowerCase().endsWith(".gz")) {
+            return new GZIPInputStream(in, 65536);
+        } else {
+            return in;
+        }
+    }
+
+    /**
+     * Sets the handler of errors and warnings. The handler is called on the
+     * thread calling {@link #parseGame()}, or on the thread accessing the
+     * moves if they are parsed on demand.
+     */
+    public void setErrorHandler(PGNErrorHandler handler)
+    {
+        m_errorHandler = handler;
+    }
+
+    /**
+     * Sets the size of the chunks passed to the threads. Chunks are extended
+     * to the next game boundary, a chunk holds at least one game.
+     *
+     *@param chunkSize the size in bytes
+     */
+    public void setChunkSize(int chunkSize)
+    {
+        if (chunkSize < 1) throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        m_chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets whether games are returned with their moves parsed on demand, see
+     * {@link PGNReader#setLazyMoves(boolean)}. The games keep the chunk of
+     * their movetext until their moves are parsed.
+     *
+     *@param lazyMoves whether to parse moves on demand
+     */
+    public void setLazyMoves(boolean lazyMoves)
+    {
+        m_lazyMoves = lazyMoves;
+    }
+
+    /**
+     * Sets the symbol table of the headers, see
+     * {@link PGNReader#setSymbolTable(SymbolTable)}.
+     *
+     *@param symbols the table, null for the default table
+     */
+    public void setSymbolTable(SymbolTable symbols)
+    {
+        m_symbols = symbols;
+    }
+
+    //======================================================================
+    // splitting the input
+
+    /**
+     * Returns the last game boundary in data, 0 if there is none.
+     */
+    private static int findLastGameStart(byte[] data, int length)
+    {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        for (int index = length - 1; index > 0; index--) {
+            if (PGNReader.isGameStart(buf, index)) return index;  // =====>
+        }
+        return 0;
+    }
+
+    /**
+     * Reads bytes until data is full or the input ends.
+     *
+     *@return the number of bytes in data
+     */
+    private int fill(byte[] data, int length) throws IOException
+    {
+        while (length < data.length) {
+            int num = m_in.read(data, length, data.length - length);
+            if (num < 0) break;
+            length += num;
+        }
+        return length;
+    }
+
+    /**
+     * Reads the next chunk, ending at a game boundary or at the end of the
+     * input.
+     *
+     *@return the chunk, null if the input is exhausted
+     */
+    private Chunk readChunk() throws IOException
+    {
+        if (m_in == null) return null;  // =====>
+
+        byte[] data = new byte[Math.max(m_chunkSize, m_carryLength + 1)];
+        System.arraycopy(m_carry, 0, data, 0, m_carryLength);
+        int length = fill(data, m_carryLength);
+        int end;
+        for (;;) {
+            if (length < data.length) {
+                end = length;  // end of input
+                m_in.close();
+                m_in = null;
+                break;
+            }
+            end = findLastGameStart(data, length);
+            if (end > 0) break;
+            // a game longer than the chunk, extend it
+            byte[] newData = new byte[2 * data.length];
+            System.arraycopy(data, 0, newData, 0, length);
+            data = newData;
+            length = fill(data, length);
+        }
+
+        m_carryLength = length - end;
+        if (m_carry.length < m_carryLength) m_carry = new byte[m_carryLength];
+        System.arraycopy(data, end, m_carry, 0, m_carryLength);
+        if (end == 0) return null;  // =====>
+
+        // chunks end with a line end, a CR LF is never split
+        Chunk chunk = new Chunk(data, end, m_nextLineNumber);
+        for (int i=0; i<end; i++) {
+            if (data[i] == '\r' || (data[i] == '\n' && (i == 0 || data[i - 1] != '\r'))) m_nextLineNumber++;
+        }
+        if (DEBUG) System.out.println("Chunk of " + end + " bytes at line " + chunk.m_firstLineNumber);
+        return chunk;
+    }
+
+    //======================================================================
+
+    /**
+     * A chunk of the input, parsed by a thread of the pool.
+     */
+    private class Chunk implements Callable<Chunk>, PGNErrorHandler
+    {
+        private byte[] m_data;
+        private int m_length;
+        private int m_firstLineNumber;
+        private List<GameModel> m_games;
+        private List<PGNSyntaxError> m_errors;  // errors and warnings, in the order found
+        private volatile boolean m_delivered;  // errors of lazily parsed moves are passed on directly
+
+        Chunk(byte[] data, int length, int firstLineNumber)
+        {
+            m_data = data;
+            m_length = length;
+            m_firstLineNumber = firstLineNumber;
+            m_games = new ArrayList<GameModel>();
+            m_errors = new ArrayList<PGNSyntaxError>();
+        }
+
+        public Chunk call() throws Exception
+        {
+            PGNReader reader = new PGNReader(ByteBuffer.wrap(m_data, 0, m_length), m_name);
+            reader.setFirstLineNumber(m_firstLineNumber);
+            reader.setErrorHandler(this);
+            reader.setLazyMoves(m_lazyMoves);
+            reader.setSymbolTable(m_symbols);
+            for (;;) {
+                GameModel gameModel = reader.parseGame();
+                if (gameModel == null) break;
+                m_games.add(gameModel);
+            }
+            m_data = null;  // not needed any more, free it while the chunk waits in the queue
+            return this;
+        }
+
+        public void handleError(PGNSyntaxError error)
+        {
+            if (!m_delivered) {
+                m_errors.add(error);
+            } else if (m_errorHandler != null) {
+                m_errorHandler.handleError(error);
+            }
+        }
+
+        public void handleWarning(PGNSyntaxError warning)
+        {
+            if (!m_delivered) {
+                m_errors.add(warning);
+            } else if (m_errorHandler != null) {
+                m_errorHandler.handleWarning(warning);
+            }
+        }
+    }
+
+    //======================================================================
+
+    private void submitChunks() throws IOException
+    {
+        while (m_numOfPending < m_maxPending) {
+            Chunk chunk = readChunk();
+            if (chunk == null) break;
+            if (m_ordered) {
+                m_pending.addLast(m_executor.submit(chunk));
+            } else {
+                m_completionService.submit(chunk);
+            }
+            m_numOfPending++;
+        }
+    }
+
+    private Chunk takeChunk() throws IOException
+    {
+        Future<Chunk> future;
+        try {
+            if (m_ordered) {
+                future = m_pending.removeFirst();
+            } else {
+                future = m_completionService.take();
+            }
+            m_numOfPending--;
+            return future.get();
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while parsing " + m_name);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException)cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Returns the next game.
+     *
+     *@return the next game, null if all games have been read
+     */
+    public GameModel parseGame() throws IOException
+    {
+        while (m_games == null || !m_games.hasNext()) {
+            submitChunks();
+            if (m_numOfPending == 0) {
+                close();
+                return null;  // =====>
+            }
+            Chunk chunk = takeChunk();
+            if (m_errorHandler != null) {
+                for (Iterator<PGNSyntaxError> it = chunk.m_errors.iterator(); it.hasNext(); ) {
+                    PGNSyntaxError error = it.next();
+                    if (error.getSeverity() == PGNSyntaxError.ERROR) {
+                        m_errorHandler.handleError(error);
+                    } else {
+                        m_errorHandler.handleWarning(error);
+                    }
+                }
+            }
+            chunk.m_delivered = true;
+            m_games = chunk.m_games.iterator();
+        }
+        return m_games.next();
+    }
+
+    /**
+     * Stops the threads and closes the input. Called when all games have been
+     * read, needs to be called only if reading is stopped before.
+     */
+    public void close() throws IOException
+    {
+        m_executor.shutdownNow();
+        if (m_pending != null) m_pending.clear();
+        m_numOfPending = 0;
+        if (m_in != null) {
+            m_in.close();
+            m_in = null;
+        }
+    }
+
+}
@@ -22,10 +22,13 @@ import chesspresso.position.NAG;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.*;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.*;
 import java.util.zip.*;
 import javax.swing.filechooser.FileFilter;
-//1.4 import java.nio.*;
 
 
 /**
@@ -70,6 +73,7 @@ public final class PGNReader extends PGN
     
 	private static final int INPUT_BUFFER_SIZE = 16 * 65536;
     private static final int MAX_TOKEN_SIZE    =  8192;
+    private static final int MIN_SPLIT_SIZE    = 65536;
     
     private static boolean[] s_isToken;
 
@@ -97,11 +101,21 @@ public final class PGNReader extends PGN
 
     //======================================================================
     
-    private LineNumberReader m_in;
-//1.4     private CharBuffer m_charBuf;
+    private LineNumberReader m_in;        // char input, null for byte input
+    private ByteBuffer m_bytes;           // byte input, null for char input
+    private InputStream m_byteStream;     // refills m_bytes, null if m_bytes holds all input
+    private int m_lineNumber;             // byte input: lines up to m_lineCountPosition, counted on demand
+    private int m_lineCountPosition;
+    private boolean m_lastCountedCR;
+    private long m_bytesOffset;           // byte input: offset in the input of index 0 of m_bytes
+    private int m_keepPosition;           // stream input: bytes from this index are kept when refilling, -1 if none
+    private boolean m_lazyMoves;
+    private SymbolTable m_symbols;        // of the headers, null for the default table
     private String m_filename;
     
     private Game m_curGame;
+    private GameHeaderModel m_curHeader;  // header only mode, m_curGame is null
+    private long m_movetextStart, m_movetextEnd;
     private int m_lastChar;
     private int m_lastToken;
     private boolean m_pushedBack;
@@ -112,10 +126,43 @@ public final class PGNReader extends PGN
     
     //======================================================================
     
+    /**
+     * Creates a reader of the bytes of a stream, decoded as UTF-8. Bytes not
+     * forming UTF-8 characters are read as ISO-8859-1.
+     *
+     *@param in the input stream
+     *@param name the name of the input, used for error messages
+     */
     public PGNReader(InputStream in, String name)
     {
         init();
-        setInput(new InputStreamReader(in), name);
+        setInput(in, name);
+    }
+
+    /**
+     * Creates a reader of the bytes of a buffer, eg a memory-mapped file,
+     * decoded as UTF-8. Bytes not forming UTF-8 characters are read as
+     * ISO-8859-1.
+     *
+     *@param buf the bytes, read from the current position to the limit
+     *@param name the name of the input, used for error messages
+     */
+    public PGNReader(ByteBuffer buf, String name)
+    {
+        init();
+        setInput(buf, name);
+    }
+
+    /**
+     * Creates a reader of a PGN file, which is memory-mapped unless it is
+     * gzipped.
+     *
+     *@param file the file
+     */
+    public PGNReader(File file) throws IOException
+    {
+        init();
+        setInput(file);
     }
 
     /**
@@ -124,11 +171,7 @@ public final class PGNReader extends PGN
     public PGNReader(String filename) throws IOException
     {
         init();
-        if(filename.toLowerCase().endsWith(".gz")) {
-            setInput(new InputStreamReader(new GZIPInputStream(new FileInputStream(filename))), filename);
-        } else {
-            setInput(new FileReader(filename), filename);
-        }
+        setInput(new File(filename));
     }
 
     /**
@@ -166,6 +209,9 @@ public final class PGNReader extends PGN
         m_errorHandler = null;
         m_pushedBack = false;
         m_lastToken = TOK_EOL;
+        m_keepPosition = -1;
+        m_lazyMoves = false;
+        m_symbols = null;
     }
     
     //======================================================================
@@ -177,14 +223,93 @@ public final class PGNReader extends PGN
         } else {
             m_in = new LineNumberReader(reader, INPUT_BUFFER_SIZE);
         }
+        m_bytes = null;
+        m_byteStream = null;
+        m_filename = name;
+    }
+
+    protected void setInput(ByteBuffer buf, String name)
+    {
+        m_in = null;
+        m_bytes = buf;
+        m_byteStream = null;
+        m_lineNumber = 0;
+        m_lineCountPosition = buf.position();
+        m_lastCountedCR = false;
+        m_bytesOffset = 0L;
         m_filename = name;
     }
 
+    protected void setInput(InputStream in, String name)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+        buf.flip();  // empty, filled on first read
+        setInput(buf, name);
+        m_byteStream = in;
+    }
+
+    private void setInput(File file) throws IOException
+    {
+        String name = file.getPath();
+        if (name.toLowerCase().endsWith(".gz")) {
+            setInput(new GZIPInputStream(new FileInputStream(file)), name);
+        } else if (file.length() > Integer.MAX_VALUE) {
+            setInput(new FileInputStream(file), name);   // too large to be mapped as a whole
+        } else {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                setInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), name);
+            } finally {
+                in.close();  // the mapping stays valid
+            }
+        }
+    }
+
     public void setErrorHandler(PGNErrorHandler handler)
     {
         m_errorHandler = handler;
     }
 
+    /**
+     * Sets whether {@link #parseGame()} returns games whose moves are parsed
+     * when first accessed. Only the header is parsed when reading, the bytes
+     * of the movetext are kept by the game: a slice of the input if all
+     * input is in memory, eg for a memory-mapped file, a copy otherwise.
+     * Errors in the moves are passed to the error handler when the moves are
+     * parsed. Moves of char input are always parsed when reading.
+     *
+     *@param lazyMoves whether to parse moves on demand
+     */
+    public void setLazyMoves(boolean lazyMoves)
+    {
+        m_lazyMoves = lazyMoves;
+    }
+
+    /**
+     * Sets the symbol table the headers of the games store their strings in.
+     * A table owned by the caller is released with the games read, the
+     * default table of the header models keeps all strings it has seen.
+     *
+     *@param symbols the table, null for the default table
+     */
+    public void setSymbolTable(SymbolTable symbols)
+    {
+        m_symbols = symbols;
+    }
+
+    /**
+     * Sets the line number of the first line of a byte input, for inputs
+     * which are part of a larger file. To be called before reading.
+     *
+     *@param lineNumber the line number of the first line
+     */
+    void setFirstLineNumber(int lineNumber)
+    {
+        if (m_bytes == null) throw new RuntimeException("Line numbers can only be set for byte input");
+        m_lineNumber = lineNumber - 1;
+    }
+
     //======================================================================
     
     final static int 
@@ -199,7 +324,66 @@ public final class PGNReader extends PGN
      *
      *@return the current line number
      */
-    private int getLineNumber() {return m_in != null ? m_in.getLineNumber() + 1 : 0;}
+    private int getLineNumber()
+    {
+        if (m_in != null) return m_in.getLineNumber() + 1;  // =====>
+        if (m_bytes == null) return 0;  // =====>
+        countLines();
+        return m_lineNumber + 1;
+    }
+    
+    /**
+     * Counts the lines of the bytes read since the last count. Lines end with
+     * CR, LF or CR LF, as counted by LineNumberReader. Lines are not counted
+     * while reading, each byte is counted once when a line number is needed.
+     */
+    private void countLines()
+    {
+        int end = m_bytes.position();
+        for (int i = m_lineCountPosition; i < end; i++) {
+            byte b = m_bytes.get(i);
+            if (b == '\n') {
+                if (!m_lastCountedCR) m_lineNumber++;
+                m_lastCountedCR = false;
+            } else if (b == '\r') {
+                m_lineNumber++;
+                m_lastCountedCR = true;
+            } else {
+                m_lastCountedCR = false;
+            }
+        }
+        m_lineCountPosition = end;
+    }
+
+    /**
+     * Returns the offset in the input of the next char to be read, -1 for
+     * char input. If a char has been pushed back its UTF-8 length is
+     * assumed, chars pushed back are ASCII except at the start of a line.
+     */
+    private long getBytePosition()
+    {
+        if (m_bytes == null) return -1L;  // =====>
+        long pos = m_bytesOffset + m_bytes.position();
+        if (m_pushedBack && m_lastChar >= 0) {
+            pos -= (m_lastChar < 0x80 ? 1 : (m_lastChar < 0x800 ? 2 : 3));
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the line number of a byte already read.
+     *
+     *@param index the index of the byte in m_bytes
+     */
+    private int getLineNumberOf(int index)
+    {
+        int lineNumber = getLineNumber();
+        for (int i = m_bytes.position() - 1; i >= index; i--) {
+            byte b = m_bytes.get(i);
+            if (b == '\r' || (b == '\n' && (i == 0 || m_bytes.get(i - 1) != '\r'))) lineNumber--;
+        }
+        return lineNumber;
+    }
 
     private String getLastTokenAsDebugString()
     {
@@ -234,8 +418,73 @@ public final class PGNReader extends PGN
     
     private final int get() throws IOException
     {
-        return m_in.read();
-//1.4        return m_in != null ? m_in.read() : (m_charBuf.hasRemaining() ? m_charBuf.get() : TOK_EOF);
+        if (m_bytes == null) return m_in.read();  // =====>
+        if (!m_bytes.hasRemaining() && !fillBytes()) return -1;  // =====>
+        int b = m_bytes.get() & 0xFF;
+        return (b < 0x80 ? b : decodeUTF8(b));
+    }
+    
+    /**
+     * Reads more bytes from the stream, keeping the bytes not yet read.
+     *
+     *@return whether there are bytes to read
+     */
+    private boolean fillBytes() throws IOException
+    {
+        if (m_byteStream == null) return m_bytes.hasRemaining();  // =====>
+        countLines();  // the bytes read are dropped
+        int keep = (m_keepPosition >= 0 ? m_keepPosition : m_bytes.position());
+        int pos = m_bytes.position() - keep;
+        m_bytesOffset += keep;
+        m_bytes.position(keep);
+        m_bytes.compact();
+        if (!m_bytes.hasRemaining()) {
+            // the bytes to keep fill the buffer
+            ByteBuffer buf = ByteBuffer.allocate(2 * m_bytes.capacity());
+            m_bytes.flip();
+            buf.put(m_bytes);
+            m_bytes = buf;
+        }
+        while (m_bytes.hasRemaining()) {
+            int num = m_byteStream.read(m_bytes.array(), m_bytes.arrayOffset() + m_bytes.position(), m_bytes.remaining());
+            if (num < 0) break;
+            m_bytes.position(m_bytes.position() + num);
+        }
+        m_bytes.flip();
+        m_bytes.position(pos);
+        m_lineCountPosition = pos;
+        if (m_keepPosition >= 0) m_keepPosition = 0;
+        return m_bytes.hasRemaining();
+    }
+    
+    /**
+     * Decodes a character of more than one byte. If the bytes are no valid
+     * UTF-8 sequence, the first byte is taken as ISO-8859-1 character.
+     *
+     *@param first the first byte, already read
+     *@return the character
+     */
+    private int decodeUTF8(int first) throws IOException
+    {
+        int num, ch;
+        if      (first >= 0xC2 && first <= 0xDF) {num = 1; ch = first & 0x1F;}
+        else if (first >= 0xE0 && first <= 0xEF) {num = 2; ch = first & 0x0F;}
+        else if (first >= 0xF0 && first <= 0xF4) {num = 3; ch = first & 0x07;}
+        else return first;  // =====>
+        
+        if (m_bytes.remaining() < num) fillBytes();
+        if (m_bytes.remaining() < num) return first;  // =====>
+        int pos = m_bytes.position();
+        for (int i = 0; i < num; i++) {
+            int b = m_bytes.get(pos + i) & 0xFF;
+            if ((b & 0xC0) != 0x80) return first;  // =====>
+            ch = (ch << 6) | (b & 0x3F);
+        }
+        if ((num == 2 && ch < 0x800) || (ch >= 0xD800 && ch <= 0xDFFF) || (num == 3 && (ch < 0x10000 || ch > 0x10FFFF))) {
+            return first;  // =====> overlong or surrogate
+        }
+        m_bytes.position(pos + num);
+        return (ch > 0xFFFF ? 0xFFFD : ch);  // characters outside the BMP are not supported
     }
     
     private final int getChar() throws IOException
@@ -425,7 +674,11 @@ public final class PGNReader extends PGN
             }
             
             try {
-                m_curGame.setTag(tagName, tagValue);
+                if (m_curGame != null) {
+                    m_curGame.setTag(tagName, tagValue);
+                } else {
+                    m_curHeader.setTag(tagName, tagValue);
+                }
             } catch(Exception ex) {
                 syntaxError(ex.getMessage());
             }
@@ -442,7 +695,10 @@ public final class PGNReader extends PGN
     private void parseTagPairSection() throws PGNSyntaxError, IOException
     {
         findNextGameStart();
-        while(parseTag()) getNextToken();
+        while(parseTag()) {
+            m_movetextStart = getBytePosition();  // after the tag end
+            getNextToken();
+        }
     }
 
     //======================================================================
@@ -699,8 +955,111 @@ public final class PGNReader extends PGN
             warning("Unfinished variations in game: " + level);
     }
 
+    private void setMovetextEnd()
+    {
+        m_movetextEnd = getBytePosition();
+        if (getLastToken() == TOK_TAG_BEGIN && m_movetextEnd > 0) m_movetextEnd--;  // result missing, before the next tag
+    }
+
+    /**
+     * Skips a movetext section without parsing the moves. The section ends
+     * where {@link #parseMovetextSection()} would end it.
+     */
+    private void skipMovetextSection() throws PGNSyntaxError, IOException
+    {
+        if (getLastToken() != TOK_EOF && getLastToken() != TOK_TAG_BEGIN && !isLastTokenResult()) {
+            if (m_bytes != null && (!m_pushedBack || m_lastChar < 0x80)) {
+                if (m_pushedBack && m_lastChar >= 0) m_bytes.position(m_bytes.position() - 1);  // read it again
+                m_pushedBack = false;
+                skipMovetextBytes();
+            } else {
+                do {
+                    getNextToken();
+                } while (getLastToken() != TOK_EOF && getLastToken() != TOK_TAG_BEGIN && !isLastTokenResult());
+            }
+        }
+        setMovetextEnd();
+    }
+
+    private int getByte() throws IOException
+    {
+        if (!m_bytes.hasRemaining() && !fillBytes()) return -1;  // =====>
+        return m_bytes.get() & 0xFF;
+    }
+
+    private static boolean isResult(byte[] s, int len)
+    {
+        if (len == 3) {
+            return (s[0] == '1' && s[1] == '-' && s[2] == '0') || (s[0] == '0' && s[1] == '-' && s[2] == '1');
+        } else if (len == 7) {
+            return s[0] == '1' && s[1] == '/' && s[2] == '2' && s[3] == '-' && s[4] == '1' && s[5] == '/' && s[6] == '2';
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Skips the remaining movetext directly on the bytes, splitting them into
+     * tokens as {@link #getNextToken()} but without copying them. Only the
+     * first chars of a token are kept to find the result. Bytes of multi-byte
+     * characters are never ASCII, so they need not be decoded.
+     */
+    private void skipMovetextBytes() throws PGNSyntaxError, IOException
+    {
+        byte[] token = new byte[8];
+        for (;;) {
+            int b = getByte();
+            if (b < 0) {
+                m_lastToken = TOK_EOF;
+                return;  // =====>
+            } else if (b <= ' ') {
+                // white space
+            } else if (b == TOK_LINE_COMMENT || b == TOK_PGN_ESCAPE) {
+                do {b = getByte();} while (b != '\n' && b != '\r' && b >= 0);
+            } else if (b == TOK_COMMENT_BEGIN || b == TOK_QUOTE) {
+                int end = (b == TOK_COMMENT_BEGIN ? TOK_COMMENT_END : TOK_QUOTE);
+                int len = 0;
+                for (;;) {
+                    b = getByte();
+                    if (b == end) break;
+                    if (b < 0) {
+                        m_lastToken = TOK_EOF;
+                        syntaxError(end == TOK_QUOTE ? "Unfinished string" : "Unfinished comment");
+                    }
+                    if (len < token.length) token[len] = (byte)b;
+                    len++;
+                }
+                // comments and strings are checked for results by parseMovetextSection as well
+                if (isResult(token, len)) {
+                    m_lastToken = (end == TOK_QUOTE ? TOK_STRING : TOK_COMMENT_BEGIN);
+                    return;  // =====>
+                }
+            } else if (b == TOK_TAG_BEGIN || b == TOK_ASTERISK) {
+                m_lastToken = b;
+                return;  // =====>
+            } else if (b >= s_isToken.length || !s_isToken[b]) {
+                int len = 0;
+                do {
+                    if (len < token.length) token[len] = (byte)b;
+                    len++;
+                    b = getByte();
+                } while (b >= 0 && (b >= s_isToken.length || !s_isToken[b]) && b != TOK_LINE_COMMENT && b != TOK_PGN_ESCAPE);
+                if (b >= 0) m_bytes.position(m_bytes.position() - 1);  // read the end of the token again
+                if (isResult(token, len)) {
+                    m_lastToken = TOK_IDENT;
+                    return;  // =====>
+                }
+            }
+        }
+    }
+
     //======================================================================
     
+    private GameHeaderModel createHeaderModel()
+    {
+        return (m_symbols != null ? new GameHeaderModel(m_symbols) : new GameHeaderModel());
+    }
+    
     /**
      * Returns the next game in the current pgn file.
      *
@@ -709,19 +1068,22 @@ public final class PGNReader extends PGN
     public GameModel parseGame() throws PGNSyntaxError, IOException
     {
         if (DEBUG) System.out.println("===> new game");
-        if(m_in == null) return null;
-//1.4        if(m_in == null && m_charBuf == null) return null;
+        if(m_in == null && m_bytes == null) return null;
+        if (m_lazyMoves && m_bytes != null) return parseLazyGame();  // =====>
+        m_movetextStart = m_movetextEnd = -1L;
         try {
             m_curGame = null;
+            m_curHeader = null;
             if (!findNextGameStart()) {
                 return null;
             }
-            m_curGame = new Game();
+            m_curGame = new Game(new GameModel(createHeaderModel(), new GameMoveModel()));
             m_curGame.setAlwaysAddLine(true);
             initForHeader();
             parseTagPairSection();
             initForMovetext();
             parseMovetextSection();
+            setMovetextEnd();
             m_curGame.pack();
         } catch(PGNSyntaxError ex) {
 //            System.out.println(ex);  // sent to a listener in syntaxError
@@ -729,20 +1091,312 @@ public final class PGNReader extends PGN
         return m_curGame.getModel();
     }
     
+    /**
+     * Reads the header of the next game and keeps the bytes of its movetext
+     * to parse the moves on demand.
+     */
+    private GameModel parseLazyGame() throws PGNSyntaxError, IOException
+    {
+        m_movetextStart = m_movetextEnd = -1L;
+        m_curGame = null;
+        m_curHeader = null;
+        if (!findNextGameStart()) {
+            return null;
+        }
+        m_curHeader = createHeaderModel();
+        if (m_byteStream != null) m_keepPosition = m_bytes.position();  // the movetext must not be dropped while skipping it
+        try {
+            try {
+                parseTagPairSection();
+                skipMovetextSection();
+            } catch(PGNSyntaxError ex) {
+//                System.out.println(ex);  // sent to a listener in syntaxError
+            }
+            if (m_movetextStart < 0L || m_movetextEnd < 0L) {
+                return new GameModel(m_curHeader, new GameMoveModel());  // =====> no moves after errors in the header
+            }
+            
+            int start = (int)(m_movetextStart - m_bytesOffset), end = (int)(m_movetextEnd - m_bytesOffset);
+            if (getLastToken() == TOK_TAG_BEGIN) end++;  // keep the tag begin ending a game without result
+            ByteBuffer movetext = m_bytes.duplicate();
+            movetext.limit(end);
+            movetext.position(start);
+            if (m_byteStream != null) {
+                byte[] data = new byte[end - start];  // the buffer is reused
+                movetext.get(data);
+                movetext = ByteBuffer.wrap(data);
+            }
+            // line numbers are needed for errors only, do not count them otherwise
+            int firstLineNumber = (m_errorHandler != null ? getLineNumberOf(start) : 1);
+            return new LazyGameModel(m_curHeader, movetext, m_filename, firstLineNumber, m_errorHandler);
+        } finally {
+            m_keepPosition = -1;
+        }
+    }
+    
+    /**
+     * Parses the movetext of a game, the input of this reader.
+     *
+     *@param headerModel the header of the game, giving the start position
+     *@return the moves
+     */
+    private GameMoveModel parseMovetext(GameHeaderModel headerModel) throws IOException
+    {
+        GameMoveModel moveModel = new GameMoveModel();
+        try {
+            try {
+                m_curGame = new Game(new GameModel(headerModel, moveModel));
+            } catch(Exception ex) {
+                syntaxError(ex.getMessage());  // eg illegal FEN
+            }
+            m_curGame.setAlwaysAddLine(true);
+            getNextToken();
+            initForMovetext();
+            parseMovetextSection();
+            m_curGame.pack();
+        } catch(PGNSyntaxError ex) {
+//            System.out.println(ex);  // sent to a listener in syntaxError
+        }
+        return moveModel;
+    }
+    
+    /**
+     * Game whose moves are parsed from the bytes of its movetext when first
+     * accessed.
+     */
+    private static class LazyGameModel extends GameModel
+    {
+        private ByteBuffer m_movetext;
+        private String m_filename;
+        private int m_firstLineNumber;
+        private PGNErrorHandler m_errorHandler;
+        
+        LazyGameModel(GameHeaderModel headerModel, ByteBuffer movetext, String filename, int firstLineNumber, PGNErrorHandler errorHandler)
+        {
+            super(headerModel, 0L);
+            m_movetext = movetext;
+            m_filename = filename;
+            m_firstLineNumber = firstLineNumber;
+            m_errorHandler = errorHandler;
+        }
+        
+        protected GameMoveModel loadMoveModel()
+        {
+            // called once, the game keeps the moves
+            PGNReader reader = new PGNReader(m_movetext.duplicate(), m_filename);
+            reader.setFirstLineNumber(m_firstLineNumber);
+            reader.setErrorHandler(m_errorHandler);
+            try {
+                GameMoveModel moveModel = reader.parseMovetext(getHeaderModel());
+                m_movetext = null;  // release the bytes
+                return moveModel;
+            } catch (IOException ex) {
+                throw new RuntimeException("Cannot parse moves of game in " + m_filename + ": " + ex.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Returns the header of the next game, skipping its moves. The moves are
+     * scanned for the end of the game only, without resolving them, which is
+     * much faster than {@link #parseGame()}. The tags are not checked, eg
+     * a FEN tag is not parsed. The byte range of the moves is returned by
+     * {@link #getMovetextStart()} and {@link #getMovetextEnd()}.
+     *
+     *@return the header of the next game, null if there are no more games
+     */
+    public GameHeaderModel parseHeader() throws PGNSyntaxError, IOException
+    {
+        if (DEBUG) System.out.println("===> new header");
+        if(m_in == null && m_bytes == null) return null;
+        m_movetextStart = m_movetextEnd = -1L;
+        try {
+            m_curGame = null;
+            m_curHeader = null;
+            if (!findNextGameStart()) {
+                return null;
+            }
+            m_curHeader = createHeaderModel();
+            parseTagPairSection();
+            skipMovetextSection();
+        } catch(PGNSyntaxError ex) {
+//            System.out.println(ex);  // sent to a listener in syntaxError
+        }
+        return m_curHeader;
+    }
+    
+    /**
+     * Returns the offset in the input of the movetext of the game read last,
+     * following the end of its last tag. Offsets are byte offsets in the
+     * input stream, or indexes of the byte buffer read.
+     *
+     *@return the offset of the movetext, -1 if not known, eg for char input
+     */
+    public long getMovetextStart()
+    {
+        return m_movetextStart;
+    }
+    
+    /**
+     * Returns the offset in the input following the movetext of the game read
+     * last, following its result. After {@link #parseGame()}, the movetext
+     * may include the white space and comment lines after the result. The
+     * end is not known for games with syntax errors.
+     *
+     *@return the offset following the movetext, -1 if not known
+     */
+    public long getMovetextEnd()
+    {
+        return m_movetextEnd;
+    }
+    
     public GameModel[] parseAll() throws PGNSyntaxError, IOException
     {
-        List gameList = new ArrayList();
+        List<GameModel> gameList = new ArrayList<GameModel>();
         for (;;) {
             GameModel gameModel = parseGame();
             if (gameModel == null) break;
             gameList.add(gameModel);
         }
-        GameModel[] res = new GameModel[gameList.size()];
-        int index =0;
-        for (Iterator it = gameList.iterator(); it.hasNext(); ) {
-            res[index++] = (GameModel)it.next();
+        return gameList.toArray(new GameModel[gameList.size()]);
+    }
+
+    /**
+     * Returns the remaining games as a stream, parsed as the stream is
+     * consumed. The stream can be made parallel if the whole input is in
+     * memory, eg a memory-mapped file read with {@link #PGNReader(File)}:
+     * the input is then split at game boundaries, each part parsed by its
+     * own reader. The error handler must be thread-safe in this case.
+     *
+     *@return the stream of games
+     */
+    public Stream<GameModel> stream()
+    {
+        return StreamSupport.stream(new GameSpliterator(this), false);
+    }
+
+    //======================================================================
+
+    /**
+     * Returns whether a game starts at the given index of a buffer: a tag at
+     * the start of a line, preceded by a result token. A game starting right
+     * after an unfinished game or a comment ending with a result is not
+     * found, games are only split where this is certain.
+     *
+     *@param buf the buffer
+     *@param index the index, at least 1
+     */
+    static boolean isGameStart(ByteBuffer buf, int index)
+    {
+        if (buf.get(index) != TOK_TAG_BEGIN) return false;  // =====>
+        byte b = buf.get(index - 1);
+        if (b != '\n' && b != '\r') return false;  // =====>
+        int end = index;
+        while (end > 0 && isWhiteSpace(buf.get(end - 1))) end--;
+        return endsWith(buf, end, "1-0") || endsWith(buf, end, "0-1")
+            || endsWith(buf, end, "1/2-1/2") || endsWith(buf, end, "*");
+    }
+
+    private static boolean isWhiteSpace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static boolean endsWith(ByteBuffer buf, int end, String token)
+    {
+        int start = end - token.length();
+        if (start < 0) return false;  // =====>
+        for (int i=0; i<token.length(); i++) {
+            if (buf.get(start + i) != token.charAt(i)) return false;  // =====>
+        }
+        return start == 0 || isWhiteSpace(buf.get(start - 1)) || buf.get(start - 1) == TOK_COMMENT_END;
+    }
+
+    /**
+     * Splits the remaining input at a game boundary near its middle. This
+     * reader continues with the second part.
+     *
+     *@return a reader of the first part, null if the input cannot be split
+     */
+    private PGNReader splitOff()
+    {
+        if (m_bytes == null || m_byteStream != null) return null;  // =====> not all input in memory
+
+        int start = m_bytes.position(), end = m_bytes.limit();
+        if (m_pushedBack) {
+            if (m_lastChar < 0 || m_lastChar >= 0x80) return null;  // =====>
+            start--;  // the single byte of the char pushed back
+        }
+        if (end - start < MIN_SPLIT_SIZE) return null;  // =====>
+
+        countLines();
+        int firstLineNumber = m_lineNumber + 1;
+        if (m_lastCountedCR && !m_pushedBack && m_bytes.get(start) == '\n') start++;  // LF of a CR LF already counted
+
+        int boundary = start + (end - start) / 2;
+        while (boundary < end && !isGameStart(m_bytes, boundary)) boundary++;
+        if (boundary == end) return null;  // =====>
+
+        ByteBuffer prefix = m_bytes.duplicate();
+        prefix.limit(boundary);
+        prefix.position(start);
+        PGNReader reader = new PGNReader(prefix, m_filename);
+        reader.setFirstLineNumber(firstLineNumber);
+        reader.setErrorHandler(m_errorHandler);
+        reader.setLazyMoves(m_lazyMoves);
+        reader.setSymbolTable(m_symbols);
+
+        m_bytes.position(boundary);
+        m_pushedBack = false;
+        m_lastToken = TOK_EOL;
+        return reader;
+    }
+
+    /**
+     * Spliterator of the games of a reader, split by splitting the input of
+     * the reader.
+     */
+    private static class GameSpliterator implements Spliterator<GameModel>
+    {
+        private PGNReader m_reader;
+
+        GameSpliterator(PGNReader reader)
+        {
+            m_reader = reader;
+        }
+
+        public boolean tryAdvance(Consumer<? super GameModel> action)
+        {
+            GameModel gameModel;
+            try {
+                gameModel = m_reader.parseGame();
+            } catch (PGNSyntaxError ex) {
+                throw new RuntimeException(ex);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            if (gameModel == null) return false;  // =====>
+            action.accept(gameModel);
+            return true;
+        }
+
+        public Spliterator<GameModel> trySplit()
+        {
+            PGNReader reader = m_reader.splitOff();
+            return (reader == null ? null : new GameSpliterator(reader));
+        }
+
+        public long estimateSize()
+        {
+            // bytes, not games, but proportional to the games left
+            if (m_reader.m_bytes == null || m_reader.m_byteStream != null) return Long.MAX_VALUE;  // =====>
+            return m_reader.m_bytes.remaining();
+        }
+
+        public int characteristics()
+        {
+            return ORDERED | NONNULL;
         }
-        return res;
     }
 
     //======================================================================
@@ -160,6 +160,24 @@ public abstract class AbstractPosition implements ImmutablePosition
         return hashCode;
     }
 
+    public long getPawnHashCode()
+    {
+        long hashCode = 0L;
+        for (int sqi=0; sqi < Chess.NUM_OF_SQUARES; sqi++) {
+            int stone = getStone(sqi);
+            if (isPawnHashStone(stone)) {
+                hashCode ^= s_hashMod[sqi][stone - Chess.MIN_STONE];
+            }
+        }
+        return hashCode;
+    }
+    
+    protected static final boolean isPawnHashStone(int stone)
+    {
+        return stone == Chess.WHITE_PAWN || stone == Chess.BLACK_PAWN
+            || stone == Chess.WHITE_KING || stone == Chess.BLACK_KING;
+    }
+
     public final int hashCode()
     {
         return (int)getHashCode();
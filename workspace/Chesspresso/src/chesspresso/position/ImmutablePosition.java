@@ -122,6 +122,14 @@ public interface ImmutablePosition
      */
     public long getHashCode();
     
+    /**
+     * Returns a 64bit hash code of the pawns and kings of the current position.
+     * Useful to cache pawn structure evaluations.
+     *
+     *@return a 64bit hash code of pawns and kings only
+     */
+    public long getPawnHashCode();
+    
     /**
      * Returns a 32bit hash code of the current position.
      * 32 bit is not enough to distinguish positions reliably, use only if
@@ -353,7 +353,7 @@ public final class Position extends AbstractMoveablePosition
     private final static int
         OTHER_CHANGE_MOVE     = Move.OTHER_SPECIALS;
     
-        // can use up to 47 bits (64 bits - 2 * 6 to store king squares - 5 for change mask)
+        // can use up to 46 bits (64 bits - 2 * 6 to store king squares - 6 for change mask)
     
 
     //======================================================================
@@ -362,6 +362,7 @@ public final class Position extends AbstractMoveablePosition
     private int m_whiteKing, m_blackKing;  // actually only a short (6 bit)
     private long m_flags;
     private long m_hashCode;
+    private long m_pawnHashCode;   // pawns and kings only
     
     private long[] m_bakStack;
     private int m_bakIndex;
@@ -427,6 +428,7 @@ public final class Position extends AbstractMoveablePosition
     public final int getHalfMoveClock()         {return (int) (m_flags >> HALF_MOVE_CLOCK_SHIFT) & HALF_MOVE_CLOCK_MASK;}
     public final int getPlyNumber()             {return (int) (m_flags >> PLY_NUMBER_SHIFT) & PLY_NUMBER_MASK;}
     public final long getHashCode()             {return m_hashCode;}
+    public final long getPawnHashCode()         {return m_pawnHashCode;}
     
     public final int getStone(int sqi)
     {
@@ -497,6 +499,16 @@ public final class Position extends AbstractMoveablePosition
         }
     }
 
+    // raw bitboards, used by PositionBatch to load positions without getStone
+    final long getWhitesBB()  {return m_bbWhites;}
+    final long getBlacksBB()  {return m_bbBlacks;}
+    final long getPawnsBB()   {return m_bbPawns;}
+    final long getKnightsBB() {return m_bbKnights;}
+    final long getBishopsBB() {return m_bbBishops;}
+    final long getRooksBB()   {return m_bbRooks;}
+    final int getWhitesKingSquare() {return m_whiteKing;}
+    final int getBlacksKingSquare() {return m_blackKing;}
+
 // unused
 //    
 //    private final long getBitBoard(int piece, int color)
@@ -565,6 +577,8 @@ public final class Position extends AbstractMoveablePosition
             /*---------- hash value ----------*/
             if (old != Chess.NO_STONE)   m_hashCode ^= s_hashMod[sqi][old   - Chess.MIN_STONE];
             if (stone != Chess.NO_STONE) m_hashCode ^= s_hashMod[sqi][stone - Chess.MIN_STONE];
+            if (isPawnHashStone(old))    m_pawnHashCode ^= s_hashMod[sqi][old   - Chess.MIN_STONE];
+            if (isPawnHashStone(stone))  m_pawnHashCode ^= s_hashMod[sqi][stone - Chess.MIN_STONE];
             //System.out.println("hash code set: " + m_hashCode);
             
             /*---------- listeners ----------*/
@@ -701,6 +715,7 @@ public final class Position extends AbstractMoveablePosition
                     squaresChanged = WHITE_SHORT_CASTLE_KING_CHANGE_MASK | WHITE_SHORT_CASTLE_ROOK_CHANGE_MASK;
                     m_bbWhites ^= WHITE_SHORT_CASTLE_KING_CHANGE_MASK | WHITE_SHORT_CASTLE_ROOK_CHANGE_MASK;
                     m_whiteKing = Chess.G1;
+                    m_pawnHashCode ^= s_hashMod[Chess.E1][Chess.WHITE_KING - Chess.MIN_STONE] ^ s_hashMod[Chess.G1][Chess.WHITE_KING - Chess.MIN_STONE];
                     m_bbRooks  ^= WHITE_SHORT_CASTLE_ROOK_CHANGE_MASK;
                     m_hashCode ^= s_hashMod[Chess.E1][Chess.WHITE_KING - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.F1][Chess.WHITE_ROOK - Chess.MIN_STONE];
@@ -710,6 +725,7 @@ public final class Position extends AbstractMoveablePosition
                     squaresChanged = WHITE_LONG_CASTLE_KING_CHANGE_MASK | WHITE_LONG_CASTLE_ROOK_CHANGE_MASK;
                     m_bbWhites ^= WHITE_LONG_CASTLE_KING_CHANGE_MASK | WHITE_LONG_CASTLE_ROOK_CHANGE_MASK;
                     m_whiteKing = Chess.C1;
+                    m_pawnHashCode ^= s_hashMod[Chess.E1][Chess.WHITE_KING - Chess.MIN_STONE] ^ s_hashMod[Chess.C1][Chess.WHITE_KING - Chess.MIN_STONE];
                     m_bbRooks  ^= WHITE_LONG_CASTLE_ROOK_CHANGE_MASK;
                     m_hashCode ^= s_hashMod[Chess.E1][Chess.WHITE_KING - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.D1][Chess.WHITE_ROOK - Chess.MIN_STONE];
@@ -722,6 +738,7 @@ public final class Position extends AbstractMoveablePosition
                     squaresChanged = BLACK_SHORT_CASTLE_KING_CHANGE_MASK | BLACK_SHORT_CASTLE_ROOK_CHANGE_MASK;
                     m_bbBlacks ^= BLACK_SHORT_CASTLE_KING_CHANGE_MASK | BLACK_SHORT_CASTLE_ROOK_CHANGE_MASK;
                     m_blackKing = Chess.G8;
+                    m_pawnHashCode ^= s_hashMod[Chess.E8][Chess.BLACK_KING - Chess.MIN_STONE] ^ s_hashMod[Chess.G8][Chess.BLACK_KING - Chess.MIN_STONE];
                     m_bbRooks  ^= BLACK_SHORT_CASTLE_ROOK_CHANGE_MASK;
                     m_hashCode ^= s_hashMod[Chess.E8][Chess.BLACK_KING - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.F8][Chess.BLACK_ROOK - Chess.MIN_STONE];
@@ -731,6 +748,7 @@ public final class Position extends AbstractMoveablePosition
                     squaresChanged = BLACK_LONG_CASTLE_KING_CHANGE_MASK | BLACK_LONG_CASTLE_ROOK_CHANGE_MASK;
                     m_bbBlacks ^= BLACK_LONG_CASTLE_KING_CHANGE_MASK | BLACK_LONG_CASTLE_ROOK_CHANGE_MASK;
                     m_blackKing = Chess.C8;
+                    m_pawnHashCode ^= s_hashMod[Chess.E8][Chess.BLACK_KING - Chess.MIN_STONE] ^ s_hashMod[Chess.C8][Chess.BLACK_KING - Chess.MIN_STONE];
                     m_bbRooks  ^= BLACK_LONG_CASTLE_ROOK_CHANGE_MASK;
                     m_hashCode ^= s_hashMod[Chess.E8][Chess.BLACK_KING - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.D8][Chess.BLACK_ROOK - Chess.MIN_STONE];
@@ -759,11 +777,15 @@ public final class Position extends AbstractMoveablePosition
                     notBBTo = ~ofSquare(pawnSqi);
                     squaresChanged |= ~notBBTo;
                     m_hashCode ^= s_hashMod[pawnSqi][(getToPlay() == Chess.WHITE ? Chess.BLACK_PAWN : Chess.WHITE_PAWN) - Chess.MIN_STONE];
+                    m_pawnHashCode ^= s_hashMod[pawnSqi][(getToPlay() == Chess.WHITE ? Chess.BLACK_PAWN : Chess.WHITE_PAWN) - Chess.MIN_STONE];
                 } else {
                     notBBTo = ~bbTo;
 //                    int capturedStone = Chess.pieceToStone(ChMove.getCapturedPiece(move), getNotToPlay());
                     int capturedStone = getStone(Move.getToSqi(move));
                     m_hashCode ^= s_hashMod[sqiTo][capturedStone - Chess.MIN_STONE];
+                    if (capturedStone == Chess.WHITE_PAWN || capturedStone == Chess.BLACK_PAWN) {
+                        m_pawnHashCode ^= s_hashMod[sqiTo][capturedStone - Chess.MIN_STONE];
+                    }
                 }
                 //                this.printBoard(notBBTo);
                 //TODO:  remove all bits -> faster than switching?
@@ -779,6 +801,7 @@ public final class Position extends AbstractMoveablePosition
                 if (getToPlay() == Chess.WHITE) {
                     m_bbWhites ^= bbFromTo; m_bbPawns ^= bbFrom;
                     m_hashCode ^= s_hashMod[sqiFrom][Chess.WHITE_PAWN - Chess.MIN_STONE];
+                    m_pawnHashCode ^= s_hashMod[sqiFrom][Chess.WHITE_PAWN - Chess.MIN_STONE];
                     switch(promotionStone) {
                         case Chess.WHITE_KNIGHT: m_bbKnights ^= bbTo; break;
                         case Chess.WHITE_BISHOP: m_bbBishops ^= bbTo; break;
@@ -789,6 +812,7 @@ public final class Position extends AbstractMoveablePosition
                 } else {
                     m_bbBlacks ^= bbFromTo; m_bbPawns ^= bbFrom;
                     m_hashCode ^= s_hashMod[sqiFrom][Chess.BLACK_PAWN - Chess.MIN_STONE];
+                    m_pawnHashCode ^= s_hashMod[sqiFrom][Chess.BLACK_PAWN - Chess.MIN_STONE];
                     switch(promotionStone) {
                         case Chess.BLACK_KNIGHT: m_bbKnights ^= bbTo; break;
                         case Chess.BLACK_BISHOP: m_bbBishops ^= bbTo; break;
@@ -823,6 +847,10 @@ public final class Position extends AbstractMoveablePosition
                 }
                 m_hashCode ^= s_hashMod[sqiFrom][stone - Chess.MIN_STONE];
                 m_hashCode ^= s_hashMod[sqiTo][stone - Chess.MIN_STONE];
+                if (isPawnHashStone(stone)) {
+                    m_pawnHashCode ^= s_hashMod[sqiFrom][stone - Chess.MIN_STONE];
+                    m_pawnHashCode ^= s_hashMod[sqiTo][stone - Chess.MIN_STONE];
+                }
             }
             
             /*---------- update castles ----------*/
@@ -879,7 +907,7 @@ public final class Position extends AbstractMoveablePosition
     
     private void checkBackupStack()
     {
-        if (m_bakIndex + 7 >= m_bakStack.length) {
+        if (m_bakIndex + 8 >= m_bakStack.length) {
             long[] oldBak = m_bakStack;
             m_bakStack = new long[2 * oldBak.length];
             System.arraycopy(oldBak, 0, m_bakStack, 0, oldBak.length);
@@ -890,7 +918,7 @@ public final class Position extends AbstractMoveablePosition
     private long getAllFlags(int changeMask)
     {
         long allFlags  = (((m_flags << 6) | (long)m_whiteKing) << 6) | (long)m_blackKing;
-        return (allFlags << 5) | changeMask;
+        return (allFlags << 6) | changeMask;
     }
     
     public void takeBaseline()
@@ -903,10 +931,11 @@ public final class Position extends AbstractMoveablePosition
         m_bakStack[m_bakIndex++] = m_bbKnights;
         m_bakStack[m_bakIndex++] = m_bbBishops;
         m_bakStack[m_bakIndex++] = m_bbRooks;
+        m_bakStack[m_bakIndex++] = m_pawnHashCode;
         
-        int changeMask = 0x1F;
+        int changeMask = 0x3F;
         long bakFlags  = (((m_flags << 6) | (long)m_whiteKing) << 6) | (long)m_blackKing;
-        m_bakStack[m_bakIndex++] = (bakFlags << 5) | changeMask;
+        m_bakStack[m_bakIndex++] = (bakFlags << 6) | changeMask;
         m_bakStack[m_bakIndex] = 0L;  // prevent redos
         
         checkMoveStack();
@@ -937,6 +966,7 @@ public final class Position extends AbstractMoveablePosition
         long bakKnights  = m_bbKnights;
         long bakBishops  = m_bbBishops;
         long bakRooks    = m_bbRooks;
+        long bakPawnHash = m_pawnHashCode;
         long bakFlags    = (((m_flags << 6) | (long)m_whiteKing) << 6) | (long)m_blackKing;  //       (((((long)m_whiteKing) << 6) | m_blackKing) << 47) | m_flags;
         m_bakStack[m_bakIndex++] = m_hashCode;
         
@@ -950,14 +980,16 @@ public final class Position extends AbstractMoveablePosition
         /*---------- compare state and push changes ----------*/
         // only push data that have actually changed
         // on average, we need about 3.75 longs per position (instead of 7 if we back up all)
-        // (hashCode, flags, 1/2 whites, 1 piece bb, plus sometimes another piece bb for captures, promotions, castles)
+        // (hashCode, flags, 1/2 whites, 1 piece bb, plus sometimes another piece bb for captures, promotions, castles,
+        //  plus the pawn hash code for pawn and king moves)
         int changeMask = 0;
         if (bakWhites  != m_bbWhites)  {m_bakStack[m_bakIndex++] = bakWhites;  changeMask++;} changeMask <<= 1;
         if (bakPawns   != m_bbPawns)   {m_bakStack[m_bakIndex++] = bakPawns;   changeMask++;} changeMask <<= 1;
         if (bakKnights != m_bbKnights) {m_bakStack[m_bakIndex++] = bakKnights; changeMask++;} changeMask <<= 1;
         if (bakBishops != m_bbBishops) {m_bakStack[m_bakIndex++] = bakBishops; changeMask++;} changeMask <<= 1;
-        if (bakRooks   != m_bbRooks)   {m_bakStack[m_bakIndex++] = bakRooks;   changeMask++;}
-        m_bakStack[m_bakIndex++] = (bakFlags << 5) | changeMask;
+        if (bakRooks   != m_bbRooks)   {m_bakStack[m_bakIndex++] = bakRooks;   changeMask++;} changeMask <<= 1;
+        if (bakPawnHash != m_pawnHashCode) {m_bakStack[m_bakIndex++] = bakPawnHash; changeMask++;}
+        m_bakStack[m_bakIndex++] = (bakFlags << 6) | changeMask;
         m_bakStack[m_bakIndex] = 0L;
 
         m_notifyPositionChanged = notify;
@@ -993,9 +1025,10 @@ public final class Position extends AbstractMoveablePosition
             
             /*---------- reset pieces ----------*/
             long allFlags  = m_bakStack[--m_bakIndex];
-            int changeMask = (int)(allFlags & 0x1F); allFlags >>>=  5;
+            int changeMask = (int)(allFlags & 0x3F); allFlags >>>=  6;
             
             int newChangeMask = 0;
+            if ((changeMask & 1) != 0) {m_bakStack[m_bakIndex] = m_pawnHashCode; m_pawnHashCode = m_bakStack[--m_bakIndex]; newChangeMask++;} changeMask >>>= 1; newChangeMask <<= 1;
             if ((changeMask & 1) != 0) {m_bakStack[m_bakIndex] = m_bbRooks;   m_bbRooks   = m_bakStack[--m_bakIndex]; newChangeMask++;} changeMask >>>= 1; newChangeMask <<= 1;
             if ((changeMask & 1) != 0) {m_bakStack[m_bakIndex] = m_bbBishops; m_bbBishops = m_bakStack[--m_bakIndex]; newChangeMask++;} changeMask >>>= 1; newChangeMask <<= 1;
             if ((changeMask & 1) != 0) {m_bakStack[m_bakIndex] = m_bbKnights; m_bbKnights = m_bakStack[--m_bakIndex]; newChangeMask++;} changeMask >>>= 1; newChangeMask <<= 1;
@@ -1066,7 +1099,7 @@ public final class Position extends AbstractMoveablePosition
             
             /*---------- reset pieces ----------*/
             long allFlags  = m_bakStack[m_bakIndex];
-            int changeMask = (int)(allFlags & 0x1F); allFlags >>>=  5;
+            int changeMask = (int)(allFlags & 0x3F); allFlags >>>=  6;
             
             int newChangeMask = 0;
             m_bakStack[m_bakIndex] = m_hashCode; m_hashCode = m_bakStack[++m_bakIndex];
@@ -1074,7 +1107,8 @@ public final class Position extends AbstractMoveablePosition
             if ((changeMask & 1) != 0) {m_bakStack[m_bakIndex] = m_bbPawns;   m_bbPawns   = m_bakStack[++m_bakIndex]; newChangeMask++;} changeMask >>>= 1; newChangeMask <<= 1;
             if ((changeMask & 1) != 0) {m_bakStack[m_bakIndex] = m_bbKnights; m_bbKnights = m_bakStack[++m_bakIndex]; newChangeMask++;} changeMask >>>= 1; newChangeMask <<= 1;
             if ((changeMask & 1) != 0) {m_bakStack[m_bakIndex] = m_bbBishops; m_bbBishops = m_bakStack[++m_bakIndex]; newChangeMask++;} changeMask >>>= 1; newChangeMask <<= 1;
-            if ((changeMask & 1) != 0) {m_bakStack[m_bakIndex] = m_bbRooks;   m_bbRooks   = m_bakStack[++m_bakIndex]; newChangeMask++;}            
+            if ((changeMask & 1) != 0) {m_bakStack[m_bakIndex] = m_bbRooks;   m_bbRooks   = m_bakStack[++m_bakIndex]; newChangeMask++;} changeMask >>>= 1; newChangeMask <<= 1;
+            if ((changeMask & 1) != 0) {m_bakStack[m_bakIndex] = m_pawnHashCode; m_pawnHashCode = m_bakStack[++m_bakIndex]; newChangeMask++;}
             m_bakStack[m_bakIndex++] = getAllFlags(newChangeMask);
             
             m_blackKing    = (int)(allFlags & 0x3F); allFlags >>>=  6;
@@ -1113,6 +1147,177 @@ public final class Position extends AbstractMoveablePosition
         }
     }
     
+    //======================================================================
+    // snapshots
+    
+    /**
+     * Returns a snapshot of the complete position including the moves
+     * played so far. Moves which could be redone are not part of the snapshot.
+     *
+     *@return the snapshot
+     */
+    public PositionSnapshot createSnapshot()
+    {
+        long[] bakStack = new long[m_bakIndex];
+        System.arraycopy(m_bakStack, 0, bakStack, 0, m_bakIndex);
+        short[] moveStack = new short[m_moveStackIndex];
+        System.arraycopy(m_moveStack, 0, moveStack, 0, m_moveStackIndex);
+        return new PositionSnapshot(m_bbWhites, m_bbBlacks, m_bbPawns, m_bbKnights, m_bbBishops, m_bbRooks,
+                                    m_whiteKing, m_blackKing, m_flags, m_hashCode, m_pawnHashCode,
+                                    bakStack, moveStack);
+    }
+    
+    /**
+     * Restores a snapshot created by {@link #createSnapshot()}. The moves stored
+     * with the snapshot can be taken back afterwards, there are no moves to redo.
+     *
+     *@param snapshot the snapshot to restore
+     */
+    public void restoreSnapshot(PositionSnapshot snapshot)
+    {
+        long bbWhites = m_bbWhites, bbBlacks = m_bbBlacks;
+        long bbPawns = m_bbPawns, bbKnights = m_bbKnights, bbBishops = m_bbBishops, bbRooks = m_bbRooks;
+        int sqiEP = getSqiEP();
+        int castles = getCastles();
+        
+        /*---------- copy state and stacks ----------*/
+        m_bbWhites = snapshot.m_bbWhites; m_bbBlacks = snapshot.m_bbBlacks;
+        m_bbPawns = snapshot.m_bbPawns; m_bbKnights = snapshot.m_bbKnights;
+        m_bbBishops = snapshot.m_bbBishops; m_bbRooks = snapshot.m_bbRooks;
+        m_whiteKing = snapshot.m_whiteKing; m_blackKing = snapshot.m_blackKing;
+        m_flags = snapshot.m_flags;
+        m_hashCode = snapshot.m_hashCode;
+        m_pawnHashCode = snapshot.m_pawnHashCode;
+        
+        m_bakIndex = snapshot.m_bakStack.length;
+        if (m_bakIndex + 8 >= m_bakStack.length) m_bakStack = new long[2 * m_bakIndex + 8];
+        System.arraycopy(snapshot.m_bakStack, 0, m_bakStack, 0, m_bakIndex);
+        m_bakStack[m_bakIndex] = 0L;  // prevent redos
+        
+        m_moveStackIndex = snapshot.m_moveStack.length;
+        if (m_moveStackIndex >= m_moveStack.length) m_moveStack = new short[2 * m_moveStackIndex + 1];
+        System.arraycopy(snapshot.m_moveStack, 0, m_moveStack, 0, m_moveStackIndex);
+        
+        /*---------- notify listeners ----------*/
+        if (m_notifyListeners) {
+            if (m_listeners != null) {
+                long squaresChanged = (bbWhites ^ m_bbWhites) | (bbBlacks ^ m_bbBlacks)
+                                    | (bbPawns ^ m_bbPawns) | (bbKnights ^ m_bbKnights)
+                                    | (bbBishops ^ m_bbBishops) | (bbRooks ^ m_bbRooks);
+                while (squaresChanged != 0L) {
+                    int sqi = getFirstSqi(squaresChanged);
+                    fireSquareChanged(sqi);
+                    squaresChanged &= squaresChanged - 1;
+                }
+                if (getSqiEP() != sqiEP) fireSqiEPChanged();
+                if (getCastles() != castles) fireCastlesChanged();
+                fireHalfMoveClockChanged();
+                fireToPlayChanged();
+            }
+            firePositionChanged();
+        }
+    }
+    
+    //======================================================================
+    // hash codes of child positions
+    
+    /**
+     * Returns the hash code of the position after the given move, without
+     * making the move. The move must be legal in the current position.
+     *
+     *@param move the move
+     *@return the hash code of the resulting position
+     */
+    public long getHashCodeAfter(short move)
+    {
+        if (!Move.isValid(move)) throw new IllegalArgumentException("Illegal move " + Move.getString(move));
+        
+        long hashCode = m_hashCode;
+        int castles = getCastles();
+        int sqiEP = Chess.NO_SQUARE;
+        
+        /*---------- pieces ----------*/
+        if (Move.isCastle(move)) {
+            if (getToPlay() == Chess.WHITE) {
+                if (Move.isShortCastle(move)) {
+                    hashCode ^= s_hashMod[Chess.E1][Chess.WHITE_KING - Chess.MIN_STONE] ^ s_hashMod[Chess.G1][Chess.WHITE_KING - Chess.MIN_STONE];
+                    hashCode ^= s_hashMod[Chess.H1][Chess.WHITE_ROOK - Chess.MIN_STONE] ^ s_hashMod[Chess.F1][Chess.WHITE_ROOK - Chess.MIN_STONE];
+                } else {
+                    hashCode ^= s_hashMod[Chess.E1][Chess.WHITE_KING - Chess.MIN_STONE] ^ s_hashMod[Chess.C1][Chess.WHITE_KING - Chess.MIN_STONE];
+                    hashCode ^= s_hashMod[Chess.A1][Chess.WHITE_ROOK - Chess.MIN_STONE] ^ s_hashMod[Chess.D1][Chess.WHITE_ROOK - Chess.MIN_STONE];
+                }
+                castles &= ~WHITE_CASTLE;
+            } else {
+                if (Move.isShortCastle(move)) {
+                    hashCode ^= s_hashMod[Chess.E8][Chess.BLACK_KING - Chess.MIN_STONE] ^ s_hashMod[Chess.G8][Chess.BLACK_KING - Chess.MIN_STONE];
+                    hashCode ^= s_hashMod[Chess.H8][Chess.BLACK_ROOK - Chess.MIN_STONE] ^ s_hashMod[Chess.F8][Chess.BLACK_ROOK - Chess.MIN_STONE];
+                } else {
+                    hashCode ^= s_hashMod[Chess.E8][Chess.BLACK_KING - Chess.MIN_STONE] ^ s_hashMod[Chess.C8][Chess.BLACK_KING - Chess.MIN_STONE];
+                    hashCode ^= s_hashMod[Chess.A8][Chess.BLACK_ROOK - Chess.MIN_STONE] ^ s_hashMod[Chess.D8][Chess.BLACK_ROOK - Chess.MIN_STONE];
+                }
+                castles &= ~BLACK_CASTLE;
+            }
+        } else {
+            int sqiFrom = Move.getFromSqi(move);
+            int sqiTo = Move.getToSqi(move);
+            int stone = getStone(sqiFrom);
+            
+            if (Move.isCapturing(move)) {
+                if (Move.isEPMove(move)) {
+                    int pawnSqi = getSqiEP() + (getToPlay() == Chess.WHITE ? -Chess.NUM_OF_COLS : Chess.NUM_OF_COLS);
+                    hashCode ^= s_hashMod[pawnSqi][(getToPlay() == Chess.WHITE ? Chess.BLACK_PAWN : Chess.WHITE_PAWN) - Chess.MIN_STONE];
+                } else {
+                    hashCode ^= s_hashMod[sqiTo][getStone(sqiTo) - Chess.MIN_STONE];
+                }
+            }
+            hashCode ^= s_hashMod[sqiFrom][stone - Chess.MIN_STONE];
+            if (Move.isPromotion(move)) {
+                hashCode ^= s_hashMod[sqiTo][Chess.pieceToStone(Move.getPromotionPiece(move), getToPlay()) - Chess.MIN_STONE];
+            } else {
+                hashCode ^= s_hashMod[sqiTo][stone - Chess.MIN_STONE];
+                if      (stone == Chess.WHITE_PAWN && sqiTo - sqiFrom == 2 * Chess.NUM_OF_COLS) sqiEP = sqiTo - Chess.NUM_OF_COLS;
+                else if (stone == Chess.BLACK_PAWN && sqiFrom - sqiTo == 2 * Chess.NUM_OF_COLS) sqiEP = sqiTo + Chess.NUM_OF_COLS;
+            }
+            
+            /*---------- castles, same rules as in setMove ----------*/
+            if (castles != NO_CASTLES) {
+                if      (sqiFrom == Chess.A1 || sqiTo == Chess.A1) {castles &= ~WHITE_LONG_CASTLE;}
+                else if (sqiFrom == Chess.H1 || sqiTo == Chess.H1) {castles &= ~WHITE_SHORT_CASTLE;}
+                else if (sqiFrom == Chess.A8 || sqiTo == Chess.A8) {castles &= ~BLACK_LONG_CASTLE;}
+                else if (sqiFrom == Chess.H8 || sqiTo == Chess.H8) {castles &= ~BLACK_SHORT_CASTLE;}
+                else if (sqiFrom == Chess.E1) {castles &= ~WHITE_CASTLE;}
+                else if (sqiFrom == Chess.E8) {castles &= ~BLACK_CASTLE;}
+            }
+        }
+        hashCode ^= s_hashCastleMod[getCastles()] ^ s_hashCastleMod[castles];
+        
+        /*---------- ep square, hashed only if an opponent pawn can capture ----------*/
+        int hashColEP = getHashColEP();
+        if (hashColEP != Chess.NO_SQUARE) hashCode ^= s_hashEPMod[hashColEP];
+        if (sqiEP != Chess.NO_SQUARE) {
+            long bbCapturers = (sqiEP < Chess.A4 ? WHITE_PAWN_ATTACKS[sqiEP] & m_bbPawns & m_bbBlacks
+                                                 : BLACK_PAWN_ATTACKS[sqiEP] & m_bbPawns & m_bbWhites);
+            if (bbCapturers != 0L) hashCode ^= s_hashEPMod[Chess.sqiToCol(sqiEP)];
+        }
+        
+        /*---------- to play ----------*/
+        return hashCode ^ HASH_TOPLAY_MULT;
+    }
+    
+    /**
+     * Computes the hash codes of all positions reached by the given moves,
+     * without making the moves.
+     *
+     *@param moves the moves, legal in the current position
+     *@param hashCodes receives the hash codes, must be at least as long as moves
+     */
+    public void getChildHashCodes(short[] moves, long[] hashCodes)
+    {
+        for (int i = 0; i < moves.length; i++) {
+            hashCodes[i] = getHashCodeAfter(moves[i]);
+        }
+    }
+    
     //======================================================================
     
     public boolean isLegal()
@@ -1165,6 +1370,10 @@ public final class Position extends AbstractMoveablePosition
             System.out.println(FEN.getFEN(new LightWeightPosition(this)));
             throw new IllegalPositionException("Wrong hash code " + getHashCode() + " should be " + super.getHashCode() + " difference " + (getHashCode() - super.getHashCode()));
         }
+        
+        if (super.getPawnHashCode() != getPawnHashCode()) {
+            throw new IllegalPositionException("Wrong pawn hash code " + getPawnHashCode() + " should be " + super.getPawnHashCode());
+        }
     }
     
     //======================================================================
@@ -1191,6 +1400,70 @@ public final class Position extends AbstractMoveablePosition
         }
     }
     
+    /**
+     * Returns whether the given move checks the opponent king, without making
+     * the move. The move must be legal in the current position.
+     *
+     *@param move the move
+     *@return whether the move gives check
+     */
+    public boolean givesCheck(short move)
+    {
+        int kingSqi = (getToPlay() == Chess.WHITE ? m_blackKing : m_whiteKing);
+        long bbToPlay = (getToPlay() == Chess.WHITE ? m_bbWhites : m_bbBlacks);
+        long bbAllPieces = m_bbWhites | m_bbBlacks;
+        long bbPawns    = m_bbPawns   & bbToPlay;
+        long bbKnights  = m_bbKnights & bbToPlay;
+        long bbDiagonal = m_bbBishops & bbToPlay;  // bishops and queens
+        long bbStraight = m_bbRooks   & bbToPlay;  // rooks and queens
+        
+        /*---------- pieces after the move ----------*/
+        if (Move.isCastle(move)) {
+            long bbKing, bbRook;
+            if (getToPlay() == Chess.WHITE) {
+                bbKing = Move.isShortCastle(move) ? WHITE_SHORT_CASTLE_KING_CHANGE_MASK : WHITE_LONG_CASTLE_KING_CHANGE_MASK;
+                bbRook = Move.isShortCastle(move) ? WHITE_SHORT_CASTLE_ROOK_CHANGE_MASK : WHITE_LONG_CASTLE_ROOK_CHANGE_MASK;
+            } else {
+                bbKing = Move.isShortCastle(move) ? BLACK_SHORT_CASTLE_KING_CHANGE_MASK : BLACK_LONG_CASTLE_KING_CHANGE_MASK;
+                bbRook = Move.isShortCastle(move) ? BLACK_SHORT_CASTLE_ROOK_CHANGE_MASK : BLACK_LONG_CASTLE_ROOK_CHANGE_MASK;
+            }
+            bbAllPieces ^= bbKing ^ bbRook;
+            bbStraight ^= bbRook;
+        } else {
+            int sqiFrom = Move.getFromSqi(move);
+            int sqiTo = Move.getToSqi(move);
+            long bbFrom = ofSquare(sqiFrom);
+            long bbTo = ofSquare(sqiTo);
+            
+            int piece = (Move.isPromotion(move) ? Move.getPromotionPiece(move) : getPiece(sqiFrom));
+            if (Move.isEPMove(move)) {
+                bbAllPieces &= ~ofSquare(getSqiEP() + (getToPlay() == Chess.WHITE ? -Chess.NUM_OF_COLS : Chess.NUM_OF_COLS));
+            }
+            bbAllPieces = (bbAllPieces & ~bbFrom) | bbTo;
+            bbPawns &= ~bbFrom; bbKnights &= ~bbFrom; bbDiagonal &= ~bbFrom; bbStraight &= ~bbFrom;
+            switch (piece) {
+                case Chess.PAWN:   bbPawns    |= bbTo; break;
+                case Chess.KNIGHT: bbKnights  |= bbTo; break;
+                case Chess.BISHOP: bbDiagonal |= bbTo; break;
+                case Chess.ROOK:   bbStraight |= bbTo; break;
+                case Chess.QUEEN:  bbDiagonal |= bbTo; bbStraight |= bbTo; break;
+            }
+        }
+        
+        /*---------- attacks on the king ----------*/
+        if ((KNIGHT_ATTACKS[kingSqi] & bbKnights) != 0L) return true;  // =====>
+        long bbPawnAttackers = (getToPlay() == Chess.WHITE ? BLACK_PAWN_ATTACKS[kingSqi] : WHITE_PAWN_ATTACKS[kingSqi]);
+        if ((bbPawnAttackers & bbPawns) != 0L) return true;  // =====>
+        
+        long bbSliders = (BISHOP_ATTACKS[kingSqi] & bbDiagonal) | (ROOK_ATTACKS[kingSqi] & bbStraight);
+        while (bbSliders != 0L) {
+            int sqi = getFirstSqi(bbSliders);
+            if ((SQUARES_BETWEEN[sqi][kingSqi] & bbAllPieces) == 0L) return true;  // =====>
+            bbSliders &= bbSliders - 1;
+        }
+        return false;
+    }
+    
     public boolean isTerminal()
     {
         return !canMove() || getHalfMoveClock() >= 100;
@@ -1546,14 +1819,13 @@ public final class Position extends AbstractMoveablePosition
         return attackers;
     }
     
-    private final int getAllKnightMoves(int moveIndex, long bbTargets)
+    private final int getAllKnightMoves(int moveIndex, long bbTargets, long bbPieces)
     {
         if (bbTargets == 0L) return moveIndex;
         
         long bbToPlay = (getToPlay() == Chess.WHITE ? m_bbWhites : m_bbBlacks);
         
         /*---------- knights moves ----------*/
-        long bbPieces = m_bbKnights & bbToPlay;
         while (bbPieces != 0L) {
             int from = getFirstSqi(bbPieces);
             if (getPinnedDirection(from, getToPlay()) == NO_DIR) {
@@ -1662,7 +1934,7 @@ public final class Position extends AbstractMoveablePosition
         return moveIndex;
     }
     
-    private final int getAllPawnMoves(int moveIndex, long bbTargets)
+    private final int getAllPawnMoves(int moveIndex, long bbTargets, long bbPieces)
     {
         if (bbTargets == 0L) return moveIndex;
         
@@ -1691,7 +1963,6 @@ public final class Position extends AbstractMoveablePosition
             }
         }
         
-        long bbPieces = m_bbPawns & bbToPlay;
         while (bbPieces != 0L) {
             int from = getFirstSqi(bbPieces);
             
@@ -1811,40 +2082,85 @@ public final class Position extends AbstractMoveablePosition
         
         if (bbTargets == 0L) return new short[0];  // =====>
         
+        int moveIndex = getAllMovesInBuffer(bbTargets, bbPawnTargets, ~0L);
+        
+        short[] onlyTheMoves = new short[moveIndex];
+        System.arraycopy(m_moves, 0, onlyTheMoves, 0, moveIndex);
+        
+        return onlyTheMoves;
+    }
+    
+    /**
+     * Generates the legal moves of the pieces in bbFrom into m_moves.
+     *
+     *@return the number of moves generated
+     */
+    private final int getAllMovesInBuffer(long bbTargets, long bbPawnTargets, long bbFrom)
+    {
         int moveIndex = 0;  // TODO: make class?
         
-        long bbToPlay = (getToPlay() == Chess.WHITE ? m_bbWhites : m_bbBlacks);
+        long bbToPlay = (getToPlay() == Chess.WHITE ? m_bbWhites : m_bbBlacks) & bbFrom;
+        boolean withKing = (ofSquare(getToPlay() == Chess.WHITE ? m_whiteKing : m_blackKing) & bbFrom) != 0L;
         if (isCheck()) {
-            moveIndex = getAllKingMoves(moveIndex, bbTargets, false);
+            if (withKing) moveIndex = getAllKingMoves(moveIndex, bbTargets, false);
             long attackers = getDirectAttackers((getToPlay() == Chess.WHITE ? m_whiteKing : m_blackKing), getNotToPlay(), false);
             //ChBitBoard.printBoard(attackers);
             if (isExactlyOneBitSet(attackers)) {
                 //                System.out.println("investigate piece moves");
                 attackers = getDirectAttackers((getToPlay() == Chess.WHITE ? m_whiteKing : m_blackKing), getNotToPlay(), true);
                 bbTargets &= attackers; bbPawnTargets &= attackers;
-                moveIndex = getAllKnightMoves(moveIndex, bbTargets);
+                moveIndex = getAllKnightMoves(moveIndex, bbTargets, m_bbKnights & bbToPlay);
                 moveIndex = getAllSlidingMoves(moveIndex, bbTargets, m_bbBishops & (~m_bbRooks) & bbToPlay, Chess.BISHOP);
                 moveIndex = getAllSlidingMoves(moveIndex, bbTargets, m_bbRooks & (~m_bbBishops) & bbToPlay, Chess.ROOK);
                 moveIndex = getAllSlidingMoves(moveIndex, bbTargets, m_bbRooks & m_bbBishops & bbToPlay, Chess.QUEEN);
                 //                moveIndex = getAllSlidingMoves(moveIndex, bbTargets, m_bbBishops & bbToPlay, SW);
                 //                moveIndex = getAllSlidingMoves(moveIndex, bbTargets, m_bbRooks & bbToPlay, S);
-                moveIndex = getAllPawnMoves(moveIndex, bbPawnTargets);
+                moveIndex = getAllPawnMoves(moveIndex, bbPawnTargets, m_bbPawns & bbToPlay);
             } else { // double check
                 //printBoard(attackers);
             }
         } else {
-            moveIndex = getAllKnightMoves(moveIndex, bbTargets);
+            moveIndex = getAllKnightMoves(moveIndex, bbTargets, m_bbKnights & bbToPlay);
             moveIndex = getAllSlidingMoves(moveIndex, bbTargets, m_bbBishops & (~m_bbRooks) & bbToPlay, Chess.BISHOP);
             moveIndex = getAllSlidingMoves(moveIndex, bbTargets, m_bbRooks & (~m_bbBishops) & bbToPlay, Chess.ROOK);
             moveIndex = getAllSlidingMoves(moveIndex, bbTargets, m_bbRooks & m_bbBishops & bbToPlay, Chess.QUEEN);
-            moveIndex = getAllKingMoves(moveIndex, bbTargets, true);
-            moveIndex = getAllPawnMoves(moveIndex, bbPawnTargets);
+            if (withKing) moveIndex = getAllKingMoves(moveIndex, bbTargets, true);
+            moveIndex = getAllPawnMoves(moveIndex, bbPawnTargets, m_bbPawns & bbToPlay);
         }
-        
-        short[] onlyTheMoves = new short[moveIndex];
-        System.arraycopy(m_moves, 0, onlyTheMoves, 0, moveIndex);
-        
-        return onlyTheMoves;
+        return moveIndex;
+    }
+    
+    /**
+     * Returns the squares the piece on the given square can legally move to.
+     * Castles are reported as the destination square of the king.
+     *
+     *@param fromSqi the square of the piece
+     *@return a bitboard of the destination squares, 0 if the square is empty or not of the player to move
+     */
+    public long getLegalDestinations(int fromSqi)
+    {
+        int numOfMoves = getAllMovesInBuffer(~0L, ~0L, ofSquare(fromSqi));
+        long bbDestinations = 0L;
+        for (int i = 0; i < numOfMoves; i++) {
+            bbDestinations |= ofSquare(Move.getToSqi(m_moves[i]));
+        }
+        return bbDestinations;
+    }
+    
+    /**
+     * Returns the squares of all pieces of the player to move that have at
+     * least one legal move.
+     *
+     *@return a bitboard of the squares
+     */
+    public long getAllLegalFromSquares()
+    {
+        int numOfMoves = getAllMovesInBuffer(~0L, ~0L, ~0L);
+        long bbFrom = 0L;
+        for (int i = 0; i < numOfMoves; i++) {
+            bbFrom |= ofSquare(Move.getFromSqi(m_moves[i]));
+        }
+        return bbFrom;
     }
     
     public boolean canMove()
@@ -1865,8 +2181,8 @@ public final class Position extends AbstractMoveablePosition
                     long attackers = getDirectAttackers((getToPlay() == Chess.WHITE ? m_whiteKing : m_blackKing), getNotToPlay(), false);
                     if (isExactlyOneBitSet(attackers)) {
                         attackers = getDirectAttackers((getToPlay() == Chess.WHITE ? m_whiteKing : m_blackKing), getNotToPlay(), true);
-                        canMove = (getAllKnightMoves(-1, attackers) > 0) ||
-                                  (getAllPawnMoves(-1, attackers) > 0) ||
+                        canMove = (getAllKnightMoves(-1, attackers, m_bbKnights & bbToPlay) > 0) ||
+                                  (getAllPawnMoves(-1, attackers, m_bbPawns & bbToPlay) > 0) ||
                                   (getAllSlidingMoves(-1, attackers, m_bbBishops & (~m_bbRooks) & bbToPlay, Chess.BISHOP) > 0) ||
                                   (getAllSlidingMoves(-1, attackers, m_bbRooks & (~m_bbBishops) & bbToPlay, Chess.ROOK) > 0) ||
                                   (getAllSlidingMoves(-1, attackers, m_bbRooks & m_bbBishops & bbToPlay, Chess.QUEEN) > 0);
@@ -1874,8 +2190,8 @@ public final class Position extends AbstractMoveablePosition
                 }
             } else {
                 long bbTargets = ~0L;
-                canMove = (getAllKnightMoves(-1, bbTargets) > 0) ||
-                          (getAllPawnMoves(-1, bbTargets) > 0) ||
+                canMove = (getAllKnightMoves(-1, bbTargets, m_bbKnights & bbToPlay) > 0) ||
+                          (getAllPawnMoves(-1, bbTargets, m_bbPawns & bbToPlay) > 0) ||
                           (getAllSlidingMoves(-1, bbTargets, m_bbBishops & (~m_bbRooks) & bbToPlay, Chess.BISHOP) > 0) ||
                           (getAllSlidingMoves(-1, bbTargets, m_bbRooks & (~m_bbBishops) & bbToPlay, Chess.ROOK) > 0) ||
                           (getAllSlidingMoves(-1, bbTargets, m_bbRooks & m_bbBishops & bbToPlay, Chess.QUEEN) > 0) ||
@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: PositionBatch.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.position;
+
+import chesspresso.*;
+
+/**
+ * A batch of positions stored column-wise, one <code>long[]</code> per bitboard.
+ *
+ * The bulk kernels run a flat loop over each column such that the VM can unroll
+ * and vectorize them, instead of touching one <code>Position</code> object at a time.
+ * The bitboard layout is the same as in <code>Position</code>: queens are set in
+ * both the bishops and the rooks column.
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public final class PositionBatch
+{
+    //======================================================================
+    // flags: to play (1 bit), castles (4 bits), en passant square + 1 (7 bits)
+
+    private final static int
+        TO_PLAY_SHIFT = 0,
+        TO_PLAY_MASK  = 0x01,
+        CASTLES_SHIFT = 1,
+        CASTLES_MASK  = 0x0F,
+        SQI_EP_SHIFT  = 5,
+        SQI_EP_MASK   = 0x7F;
+
+    private final static long
+        NOT_A_FILE  = 0xFEFEFEFEFEFEFEFEL,
+        NOT_AB_FILE = 0xFCFCFCFCFCFCFCFCL,
+        NOT_H_FILE  = 0x7F7F7F7F7F7F7F7FL,
+        NOT_GH_FILE = 0x3F3F3F3F3F3F3F3FL;
+
+    //======================================================================
+
+    private long[] m_bbWhites, m_bbBlacks, m_bbPawns, m_bbKnights, m_bbBishops, m_bbRooks;
+    private int[] m_whiteKing, m_blackKing;
+    private int[] m_flags;
+    private int m_size;
+
+    //======================================================================
+
+    public PositionBatch()
+    {
+        this(1024);
+    }
+
+    public PositionBatch(int capacity)
+    {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        m_bbWhites  = new long[capacity];
+        m_bbBlacks  = new long[capacity];
+        m_bbPawns   = new long[capacity];
+        m_bbKnights = new long[capacity];
+        m_bbBishops = new long[capacity];
+        m_bbRooks   = new long[capacity];
+        m_whiteKing = new int[capacity];
+        m_blackKing = new int[capacity];
+        m_flags     = new int[capacity];
+        m_size = 0;
+    }
+
+    //======================================================================
+
+    public int size()             {return m_size;}
+    public int getCapacity()      {return m_flags.length;}
+    public void clear()           {m_size = 0;}
+
+    public long getWhites(int index)  {return m_bbWhites[index];}
+    public long getBlacks(int index)  {return m_bbBlacks[index];}
+    public long getPawns(int index)   {return m_bbPawns[index];}
+    public long getKnights(int index) {return m_bbKnights[index];}
+    public long getBishops(int index) {return m_bbBishops[index];}
+    public long getRooks(int index)   {return m_bbRooks[index];}
+    public int getWhitesKingSquare(int index) {return m_whiteKing[index];}
+    public int getBlacksKingSquare(int index) {return m_blackKing[index];}
+    public int getToPlay(int index)   {return ((m_flags[index] >> TO_PLAY_SHIFT) & TO_PLAY_MASK) == 0 ? Chess.WHITE : Chess.BLACK;}
+    public int getCastles(int index)  {return (m_flags[index] >> CASTLES_SHIFT) & CASTLES_MASK;}
+    public int getSqiEP(int index)    {return ((m_flags[index] >> SQI_EP_SHIFT) & SQI_EP_MASK) + Chess.NO_SQUARE;}
+
+    //======================================================================
+
+    private void enlarge(int minCapacity)
+    {
+        int capacity = 2 * getCapacity();
+        if (capacity < minCapacity) capacity = minCapacity;
+        m_bbWhites  = enlarge(m_bbWhites,  capacity);
+        m_bbBlacks  = enlarge(m_bbBlacks,  capacity);
+        m_bbPawns   = enlarge(m_bbPawns,   capacity);
+        m_bbKnights = enlarge(m_bbKnights, capacity);
+        m_bbBishops = enlarge(m_bbBishops, capacity);
+        m_bbRooks   = enlarge(m_bbRooks,   capacity);
+        m_whiteKing = enlarge(m_whiteKing, capacity);
+        m_blackKing = enlarge(m_blackKing, capacity);
+        m_flags     = enlarge(m_flags,     capacity);
+    }
+
+    private long[] enlarge(long[] column, int capacity)
+    {
+        long[] newColumn = new long[capacity];
+        System.arraycopy(column, 0, newColumn, 0, m_size);
+        return newColumn;
+    }
+
+    private int[] enlarge(int[] column, int capacity)
+    {
+        int[] newColumn = new int[capacity];
+        System.arraycopy(column, 0, newColumn, 0, m_size);
+        return newColumn;
+    }
+
+    private void setFlags(int index, int toPlay, int castles, int sqiEP)
+    {
+        m_flags[index] = ((toPlay == Chess.WHITE ? 0 : 1) << TO_PLAY_SHIFT)
+                       | (castles << CASTLES_SHIFT)
+                       | ((sqiEP - Chess.NO_SQUARE) << SQI_EP_SHIFT);
+    }
+
+    /**
+     * Append a position to the batch.
+     *
+     *@param position the position to add
+     *@return the index of the position in the batch
+     */
+    public int add(ImmutablePosition position)
+    {
+        if (m_size == getCapacity()) enlarge(m_size + 1);
+        int index = m_size;
+
+        if (position instanceof Position) {
+            Position pos = (Position)position;
+            m_bbWhites[index]  = pos.getWhitesBB();
+            m_bbBlacks[index]  = pos.getBlacksBB();
+            m_bbPawns[index]   = pos.getPawnsBB();
+            m_bbKnights[index] = pos.getKnightsBB();
+            m_bbBishops[index] = pos.getBishopsBB();
+            m_bbRooks[index]   = pos.getRooksBB();
+            m_whiteKing[index] = pos.getWhitesKingSquare();
+            m_blackKing[index] = pos.getBlacksKingSquare();
+        } else {
+            long whites = 0L, blacks = 0L, pawns = 0L, knights = 0L, bishops = 0L, rooks = 0L;
+            int whiteKing = Chess.NO_SQUARE, blackKing = Chess.NO_SQUARE;
+            for (int sqi = 0; sqi < Chess.NUM_OF_SQUARES; sqi++) {
+                int stone = position.getStone(sqi);
+                if (stone == Chess.NO_STONE) continue;
+                long bb = 1L << sqi;
+                if (stone < 0) whites |= bb; else blacks |= bb;
+                switch (stone) {
+                    case Chess.WHITE_KING:   whiteKing = sqi; break;
+                    case Chess.BLACK_KING:   blackKing = sqi; break;
+                    case Chess.WHITE_PAWN:
+                    case Chess.BLACK_PAWN:   pawns |= bb; break;
+                    case Chess.WHITE_KNIGHT:
+                    case Chess.BLACK_KNIGHT: knights |= bb; break;
+                    case Chess.WHITE_BISHOP:
+                    case Chess.BLACK_BISHOP: bishops |= bb; break;
+                    case Chess.WHITE_ROOK:
+                    case Chess.BLACK_ROOK:   rooks |= bb; break;
+                    case Chess.WHITE_QUEEN:
+                    case Chess.BLACK_QUEEN:  bishops |= bb; rooks |= bb; break;
+                }
+            }
+            m_bbWhites[index]  = whites;
+            m_bbBlacks[index]  = blacks;
+            m_bbPawns[index]   = pawns;
+            m_bbKnights[index] = knights;
+            m_bbBishops[index] = bishops;
+            m_bbRooks[index]   = rooks;
+            m_whiteKing[index] = whiteKing;
+            m_blackKing[index] = blackKing;
+        }
+        setFlags(index, position.getToPlay(), position.getCastles(), position.getSqiEP());
+
+        m_size++;
+        return index;
+    }
+
+    /**
+     * Copy a position of the batch back into a mutable position. Ply number
+     * and half move clock are not stored in the batch and are reset.
+     */
+    public void getPosition(int index, MutablePosition position)
+    {
+        if (index < 0 || index >= m_size) throw new IllegalArgumentException("Illegal index " + index);
+
+        position.clear();
+        for (int sqi = 0; sqi < Chess.NUM_OF_SQUARES; sqi++) {
+            int stone = getStone(index, sqi);
+            if (stone != Chess.NO_STONE) position.setStone(sqi, stone);
+        }
+        position.setCastles(getCastles(index));
+        position.setSqiEP(getSqiEP(index));
+        position.setToPlay(getToPlay(index));
+    }
+
+    public int getStone(int index, int sqi)
+    {
+        long bb = 1L << sqi;
+        int color;
+        if ((m_bbWhites[index] & bb) != 0L) color = Chess.WHITE;
+        else if ((m_bbBlacks[index] & bb) != 0L) color = Chess.BLACK;
+        else return Chess.NO_STONE;  // =====>
+
+        int piece;
+        if ((m_bbPawns[index] & bb) != 0L) piece = Chess.PAWN;
+        else if ((m_bbKnights[index] & bb) != 0L) piece = Chess.KNIGHT;
+        else if ((m_bbBishops[index] & bb) != 0L) piece = ((m_bbRooks[index] & bb) != 0L ? Chess.QUEEN : Chess.BISHOP);
+        else if ((m_bbRooks[index] & bb) != 0L) piece = Chess.ROOK;
+        else piece = Chess.KING;
+        return Chess.pieceToStone(piece, color);
+    }
+
+    //======================================================================
+    // kernels
+
+    private void checkOut(int length)
+    {
+        if (length < m_size) throw new IllegalArgumentException("Output array too small: " + length + " < " + m_size);
+    }
+
+    /**
+     * Compute the material balance of every position, from the view of the
+     * player to move. Same values as <code>Position.getMaterial</code>.
+     */
+    public void getMaterial(int[] out)
+    {
+        checkOut(out.length);
+        long[] whites = m_bbWhites, blacks = m_bbBlacks, pawns = m_bbPawns,
+               knights = m_bbKnights, bishops = m_bbBishops, rooks = m_bbRooks;
+        int[] flags = m_flags;
+        for (int i = 0; i < m_size; i++) {
+            long w = whites[i], b = blacks[i];
+            long p = pawns[i], n = knights[i];
+            long q = bishops[i] & rooks[i];
+            long bi = bishops[i] & ~rooks[i];
+            long r = rooks[i] & ~bishops[i];
+            int value = 100 * (Long.bitCount(p & w)  - Long.bitCount(p & b))
+                      + 300 * (Long.bitCount(n & w)  - Long.bitCount(n & b))
+                      + 325 * (Long.bitCount(bi & w) - Long.bitCount(bi & b))
+                      + 500 * (Long.bitCount(r & w)  - Long.bitCount(r & b))
+                      + 900 * (Long.bitCount(q & w)  - Long.bitCount(q & b));
+            int sign = 1 - 2 * ((flags[i] >> TO_PLAY_SHIFT) & TO_PLAY_MASK);
+            out[i] = sign * value;
+        }
+    }
+
+    /**
+     * Count the given stone in every position of the batch.
+     */
+    public void countStones(int stone, int[] out)
+    {
+        checkOut(out.length);
+        if (stone == Chess.WHITE_KING || stone == Chess.BLACK_KING) {
+            int[] kings = (stone == Chess.WHITE_KING ? m_whiteKing : m_blackKing);
+            for (int i = 0; i < m_size; i++) out[i] = (kings[i] == Chess.NO_SQUARE ? 0 : 1);
+            return;  // =====>
+        }
+
+        long[] colors = (Chess.stoneToColor(stone) == Chess.WHITE ? m_bbWhites : m_bbBlacks);
+        long[] bishops = m_bbBishops, rooks = m_bbRooks;
+        switch (Chess.stoneToPiece(stone)) {
+            case Chess.PAWN:
+                for (int i = 0; i < m_size; i++) out[i] = Long.bitCount(m_bbPawns[i] & colors[i]);
+                break;
+            case Chess.KNIGHT:
+                for (int i = 0; i < m_size; i++) out[i] = Long.bitCount(m_bbKnights[i] & colors[i]);
+                break;
+            case Chess.BISHOP:
+                for (int i = 0; i < m_size; i++) out[i] = Long.bitCount(bishops[i] & ~rooks[i] & colors[i]);
+                break;
+            case Chess.ROOK:
+                for (int i = 0; i < m_size; i++) out[i] = Long.bitCount(rooks[i] & ~bishops[i] & colors[i]);
+                break;
+            case Chess.QUEEN:
+                for (int i = 0; i < m_size; i++) out[i] = Long.bitCount(bishops[i] & rooks[i] & colors[i]);
+                break;
+            default:
+                throw new IllegalArgumentException("Illegal stone " + stone);
+        }
+    }
+
+    /**
+     * Compute the set of squares attacked by the given color in every position
+     * of the batch. Sliding attacks stop at the first occupied square.
+     */
+    public void getAttacks(int color, long[] out)
+    {
+        checkOut(out.length);
+        long[] own = (color == Chess.WHITE ? m_bbWhites : m_bbBlacks);
+        int[] kings = (color == Chess.WHITE ? m_whiteKing : m_blackKing);
+        for (int i = 0; i < m_size; i++) {
+            long bbOwn = own[i];
+            long empty = ~(m_bbWhites[i] | m_bbBlacks[i]);
+            long pawns = m_bbPawns[i] & bbOwn;
+            long diagonal = m_bbBishops[i] & bbOwn;
+            long straight = m_bbRooks[i] & bbOwn;
+
+            long attacks;
+            if (color == Chess.WHITE) {
+                attacks = ((pawns << 7) & NOT_H_FILE) | ((pawns << 9) & NOT_A_FILE);
+            } else {
+                attacks = ((pawns >>> 9) & NOT_H_FILE) | ((pawns >>> 7) & NOT_A_FILE);
+            }
+            attacks |= getKnightAttacks(m_bbKnights[i] & bbOwn);
+            if (kings[i] != Chess.NO_SQUARE) attacks |= getKingAttacks(1L << kings[i]);
+            attacks |= slide(straight, empty,  8, -1L)        | slide(straight, empty, -8, -1L)
+                     | slide(straight, empty,  1, NOT_A_FILE) | slide(straight, empty, -1, NOT_H_FILE);
+            attacks |= slide(diagonal, empty,  9, NOT_A_FILE) | slide(diagonal, empty,  7, NOT_H_FILE)
+                     | slide(diagonal, empty, -7, NOT_A_FILE) | slide(diagonal, empty, -9, NOT_H_FILE);
+            out[i] = attacks;
+        }
+    }
+
+    private static long getKnightAttacks(long knights)
+    {
+        long l1 = (knights >>> 1) & NOT_H_FILE, l2 = (knights >>> 2) & NOT_GH_FILE;
+        long r1 = (knights <<  1) & NOT_A_FILE, r2 = (knights <<  2) & NOT_AB_FILE;
+        long h1 = l1 | r1, h2 = l2 | r2;
+        return (h1 << 16) | (h1 >>> 16) | (h2 << 8) | (h2 >>> 8);
+    }
+
+    private static long getKingAttacks(long king)
+    {
+        long attacks = ((king << 1) & NOT_A_FILE) | ((king >>> 1) & NOT_H_FILE);
+        king |= attacks;
+        return attacks | (king << 8) | (king >>> 8);
+    }
+
+    // occluded fill (Kogge-Stone) in one direction, no branches in the fill itself
+    private static long slide(long gen, long empty, int shift, long mask)
+    {
+        empty &= mask;
+        if (shift > 0) {
+            gen |= empty & (gen << shift);      empty &= empty << shift;
+            gen |= empty & (gen << 2 * shift);  empty &= empty << 2 * shift;
+            gen |= empty & (gen << 4 * shift);
+            return (gen << shift) & mask;
+        } else {
+            shift = -shift;
+            gen |= empty & (gen >>> shift);      empty &= empty >>> shift;
+            gen |= empty & (gen >>> 2 * shift);  empty &= empty >>> 2 * shift;
+            gen |= empty & (gen >>> 4 * shift);
+            return (gen >>> shift) & mask;
+        }
+    }
+
+    /**
+     * Recompute the hash code of every position of the batch. The result is
+     * identical to <code>Position.getHashCode</code>.
+     */
+    public void getHashCodes(long[] out)
+    {
+        checkOut(out.length);
+        long[][] hashMod = AbstractPosition.s_hashMod;
+        for (int i = 0; i < m_size; i++) {
+            long whites = m_bbWhites[i], blacks = m_bbBlacks[i];
+            long bishops = m_bbBishops[i], rooks = m_bbRooks[i];
+            long hashCode = 0L;
+            hashCode ^= getHashCode(hashMod, m_bbPawns[i] & whites,            Chess.WHITE_PAWN);
+            hashCode ^= getHashCode(hashMod, m_bbPawns[i] & blacks,            Chess.BLACK_PAWN);
+            hashCode ^= getHashCode(hashMod, m_bbKnights[i] & whites,          Chess.WHITE_KNIGHT);
+            hashCode ^= getHashCode(hashMod, m_bbKnights[i] & blacks,          Chess.BLACK_KNIGHT);
+            hashCode ^= getHashCode(hashMod, bishops & ~rooks & whites,        Chess.WHITE_BISHOP);
+            hashCode ^= getHashCode(hashMod, bishops & ~rooks & blacks,        Chess.BLACK_BISHOP);
+            hashCode ^= getHashCode(hashMod, rooks & ~bishops & whites,        Chess.WHITE_ROOK);
+            hashCode ^= getHashCode(hashMod, rooks & ~bishops & blacks,        Chess.BLACK_ROOK);
+            hashCode ^= getHashCode(hashMod, rooks & bishops & whites,         Chess.WHITE_QUEEN);
+            hashCode ^= getHashCode(hashMod, rooks & bishops & blacks,         Chess.BLACK_QUEEN);
+            if (m_whiteKing[i] != Chess.NO_SQUARE) hashCode ^= hashMod[m_whiteKing[i]][Chess.WHITE_KING - Chess.MIN_STONE];
+            if (m_blackKing[i] != Chess.NO_SQUARE) hashCode ^= hashMod[m_blackKing[i]][Chess.BLACK_KING - Chess.MIN_STONE];
+
+            int flags = m_flags[i];
+            hashCode ^= AbstractPosition.s_hashCastleMod[(flags >> CASTLES_SHIFT) & CASTLES_MASK];
+
+            /*---------- en passant, only if a pawn can capture ----------*/
+            int sqiEP = ((flags >> SQI_EP_SHIFT) & SQI_EP_MASK) + Chess.NO_SQUARE;
+            if (sqiEP != Chess.NO_SQUARE) {
+                int col = Chess.sqiToCol(sqiEP);
+                long bbCapturers;
+                if (sqiEP < Chess.A4) {
+                    bbCapturers = m_bbPawns[i] & blacks & Position.ofRow(3);
+                } else {
+                    bbCapturers = m_bbPawns[i] & whites & Position.ofRow(4);
+                }
+                long bbAdjacent = 0L;
+                if (col > 0) bbAdjacent |= Position.ofCol(col - 1);
+                if (col < 7) bbAdjacent |= Position.ofCol(col + 1);
+                if ((bbCapturers & bbAdjacent) != 0L) hashCode ^= AbstractPosition.s_hashEPMod[col];
+            }
+
+            if (((flags >> TO_PLAY_SHIFT) & TO_PLAY_MASK) != 0) hashCode |= AbstractPosition.HASH_TOPLAY_MULT;
+            out[i] = hashCode;
+        }
+    }
+
+    private static long getHashCode(long[][] hashMod, long bb, int stone)
+    {
+        long hashCode = 0L;
+        int index = stone - Chess.MIN_STONE;
+        while (bb != 0L) {
+            hashCode ^= hashMod[Long.numberOfTrailingZeros(bb)][index];
+            bb &= bb - 1;
+        }
+        return hashCode;
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: PositionSnapshot.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.position;
+
+
+/**
+ * Immutable copy of the complete state of a {@link Position}, including the
+ * moves played to reach it. Restoring a snapshot is much cheaper than
+ * replaying the moves, and the moves can still be taken back afterwards.
+ *
+ * Snapshots are created by {@link Position#createSnapshot()} and restored by
+ * {@link Position#restoreSnapshot(PositionSnapshot)}.
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public final class PositionSnapshot
+{
+    final long m_bbWhites, m_bbBlacks, m_bbPawns, m_bbKnights, m_bbBishops, m_bbRooks;
+    final int m_whiteKing, m_blackKing;
+    final long m_flags;
+    final long m_hashCode;
+    final long m_pawnHashCode;
+    final long[] m_bakStack;    // exactly the used part of the backup stack
+    final short[] m_moveStack;  // exactly the used part of the move stack
+    
+    /*================================================================================*/
+    
+    PositionSnapshot(long bbWhites, long bbBlacks, long bbPawns, long bbKnights, long bbBishops, long bbRooks,
+                     int whiteKing, int blackKing, long flags, long hashCode, long pawnHashCode,
+                     long[] bakStack, short[] moveStack)
+    {
+        m_bbWhites = bbWhites; m_bbBlacks = bbBlacks;
+        m_bbPawns = bbPawns; m_bbKnights = bbKnights; m_bbBishops = bbBishops; m_bbRooks = bbRooks;
+        m_whiteKing = whiteKing; m_blackKing = blackKing;
+        m_flags = flags;
+        m_hashCode = hashCode;
+        m_pawnHashCode = pawnHashCode;
+        m_bakStack = bakStack;
+        m_moveStack = moveStack;
+    }
+    
+    /*================================================================================*/
+    
+    public long getHashCode() {return m_hashCode;}
+    
+    /**
+     * Returns the number of moves stored with the snapshot, i.e. the number of
+     * moves that can be taken back after restoring it.
+     */
+    public int getNumOfMoves() {return m_moveStack.length;}
+    
+    /**
+     * Returns the approximate memory used by the snapshot in bytes.
+     */
+    public int getSize() {return 128 + 8 * m_bakStack.length + 2 * m_moveStack.length;}
+    
+}
@@ -22,6 +22,7 @@ public abstract class AbstractPositionReadWriteMap extends ChAbstractPositionRea
 {
     
     private GameScorer m_gameScorer;
+    private ECOClassifier m_ecoClassifier;
     
     /*================================================================================*/
     
@@ -42,8 +43,22 @@ public abstract class AbstractPositionReadWriteMap extends ChAbstractPositionRea
     
     protected GameScorer getGameScorer() {return m_gameScorer;}
     
+    public ECOClassifier getECOClassifier() {return m_ecoClassifier;}
+    
+    /**
+     * Sets the classifier to set the ECO tag of games without one when they
+     * are put into the map. Frozen games are put as they are, their header
+     * cannot be changed.
+     *
+     *@param ecoClassifier the classifier, null to not classify games
+     */
+    public void setECOClassifier(ECOClassifier ecoClassifier) {m_ecoClassifier = ecoClassifier;}
+    
     public void putData(GameModel gameModel, int untilPlyNumber)
     {
+        // the main line positions are computed for the duplicate check anyway
+        if (m_ecoClassifier != null && !gameModel.getHeaderModel().isFrozen()) m_ecoClassifier.classify(gameModel, false);
+        
         if (containsGameModel(gameModel)) {
             GameModel existingGameModel = getGameModel(gameModel);
             if (existingGameModel.getHeaderModel().isSimilar(gameModel.getHeaderModel())) {
@@ -70,6 +85,7 @@ public abstract class AbstractPositionReadWriteMap extends ChAbstractPositionRea
             if (!game.hasNextMove()) break;
             game.goForward();
         }
+        gameModel.getMainLineHashCodes();  // index the main line while the game is at hand
         // TODO fireGameModelChanged
     }
     
@@ -108,6 +124,33 @@ public abstract class AbstractPositionReadWriteMap extends ChAbstractPositionRea
         return numOfGames;
     }
     
+    /**
+     * Puts the games of a reader parsing on several threads. Games are put
+     * by the calling thread, in the order returned by the reader.
+     *
+     *@param reader the reader
+     *@param untilPlyNumber the number of plies of each game to put
+     *@return the number of games put
+     */
+    public int putData(PGNParallelReader reader, int untilPlyNumber) throws IOException
+    {
+        int numOfGames = 0;
+        try {
+            for (;;) {
+                GameModel gameModel = reader.parseGame();
+                if (gameModel == null) break;
+                int res = gameModel.getHeaderModel().getResult();
+                if (res == Chess.RES_WHITE_WINS || res == Chess.RES_DRAW || res == Chess.RES_BLACK_WINS) {
+                    putData(gameModel, untilPlyNumber);
+                    numOfGames++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return numOfGames;
+    }
+    
     public int putData(PositionReadMap map, int untilPlyNumber) throws Exception
     {
 //        if (listener != null) listener.startActivity("Load Position Map");
@@ -103,6 +103,20 @@ public abstract class ChAbstractPositionReadMap implements PositionReadMap
         public double eval(ImmutablePosition position);
         public String toString();
     }
+    
+    /**
+     * Evaluator depending on the position data only. Such evaluators can be
+     * applied to child positions by hash code, without making the moves.
+     */
+    public abstract class ChDataEvaluator implements IChPositionEvaluator
+    {
+        public double eval(ImmutablePosition position)
+        {
+            return eval(getData(position), position.getToPlay());
+        }
+        
+        public abstract double eval(PositionData data, int toPlay);
+    }
        
     public IChPositionEvaluator[] getAllEvaluators()
     {
@@ -130,52 +144,47 @@ public abstract class ChAbstractPositionReadMap implements PositionReadMap
 
     /*================================================================================*/
     
-    public class ChNumOfGamesEvaluator implements IChPositionEvaluator
+    public class ChNumOfGamesEvaluator extends ChDataEvaluator
     {
-        public double eval(ImmutablePosition position)
+        public double eval(PositionData data, int toPlay)
         {
-            PositionData data = getData(position);
             return data == null ? 0.0 : (double)data.getNumOfGames();
         }
         public String toString() {return "Number of games";}
     }
     
-    public class ChResultEvaluator implements IChPositionEvaluator
+    public class ChResultEvaluator extends ChDataEvaluator
     {
-        public double eval(ImmutablePosition position)
+        public double eval(PositionData data, int toPlay)
         {
-            PositionData data = getData(position);
             return data == null ? 0.0 : (double)data.getWhiteResult();
         }
         public String toString() {return "Result";}
     }
     
-    public class ChWeightedResultEvaluator implements IChPositionEvaluator
+    public class ChWeightedResultEvaluator extends ChDataEvaluator
     {
-        public double eval(ImmutablePosition position)
+        public double eval(PositionData data, int toPlay)
         {
-            PositionData data = getData(position);
             return data == null ? 0.0 : (double)data.getWhiteResult() * data.getNumOfGames();
         }
         public String toString() {return "Weighted result";}
     }
     
-    public class ChEloEvaluator implements IChPositionEvaluator
+    public class ChEloEvaluator extends ChDataEvaluator
     {
-        public double eval(ImmutablePosition position)
+        public double eval(PositionData data, int toPlay)
         {
-            PositionData data = getData(position);
             return data == null ? 0.0 : (double)data.getEloAverage(Chess.otherPlayer(data.getToPlay()));
         }
         public String toString() {return "Elo";}
     }
     
-    public class ChDeltaPerformanceEvaluator implements IChPositionEvaluator
+    public class ChDeltaPerformanceEvaluator extends ChDataEvaluator
     {
-        public double eval(ImmutablePosition position)
+        public double eval(PositionData data, int toPlay)
         {
-            PositionData data = getData(position);
-            int movingPlayer = Chess.otherPlayer(position.getToPlay());
+            int movingPlayer = Chess.otherPlayer(toPlay);
             return data == null ? 0.0 : (double)data.getResult(movingPlayer) - data.getExpectation(movingPlayer);
         }
         public String toString() {return "Performance delta";}
@@ -196,14 +205,26 @@ public abstract class ChAbstractPositionReadMap implements PositionReadMap
             short[] moves = pos.getAllMoves();
             double[] values = new double[moves.length];
             double sum = 0;
-            for (int i=0; i<moves.length; i++) {
-                try {
-                    pos.doMove(moves[i]);
-                    values[i] = m_evaluator.eval(pos);
+            if (m_evaluator instanceof ChDataEvaluator) {
+                // look up the children by hash code, no need to make the moves
+                ChDataEvaluator evaluator = (ChDataEvaluator)m_evaluator;
+                long[] hashCodes = new long[moves.length];
+                pos.getChildHashCodes(moves, hashCodes);
+                int childToPlay = Chess.otherPlayer(pos.getToPlay());
+                for (int i=0; i<moves.length; i++) {
+                    values[i] = evaluator.eval(getData(hashCodes[i]), childToPlay);
                     sum += values[i];
-                    pos.undoMove();
-                } catch (IllegalMoveException ex) {
-                    ex.printStackTrace();
+                }
+            } else {
+                for (int i=0; i<moves.length; i++) {
+                    try {
+                        pos.doMove(moves[i]);
+                        values[i] = m_evaluator.eval(pos);
+                        sum += values[i];
+                        pos.undoMove();
+                    } catch (IllegalMoveException ex) {
+                        ex.printStackTrace();
+                    }
                 }
             }
             double entropy = 0;
@@ -268,29 +289,30 @@ public abstract class ChAbstractPositionReadMap implements PositionReadMap
             if (numOfGames < minGames) outOfMap++; else outOfMap = 0;
             path[depth - 1] = hashCode;
             short[] moves = pos.getAllMoves();
+            long[] hashCodes = new long[moves.length];
+            pos.getChildHashCodes(moves, hashCodes);
             double bestValue = -9999;
             bestLine[depth-1][0] = 0;
             for (int i = 0; i < moves.length; i++) {
+                PositionData moveData = getData(hashCodes[i]);
+                if (moveData == null || (moveData.getNumOfGames() < minGames && outOfMap >= 3)) continue;
                 try {
                     pos.doMove(moves[i]);
-                    PositionData moveData = getData(pos);
-                    if (moveData != null && (moveData.getNumOfGames() >= minGames || outOfMap < 3)) {
 //                        if (depth > 1) java.util.Arrays.fill(bestLine[depth-2], 0);  //TODO necessary?
-                        double value = 0;
-                        if (takePerformance) {
-                            value = -getMiniMax(pos, -beta, -Math.max(bestValue, alpha), depth - 1, minGames, takePerformance, outOfMap, path, bestLine);
-                            if (value != -VALUE_IGNORE_PERF && value > bestValue) {
-                                bestValue = value;
-                                if (depth > 1) System.arraycopy(bestLine[depth-2], 0, bestLine[depth-1], 1, depth - 1);
-                                bestLine[depth-1][0] = moves[i];
-                            }
-                        } else {
-                            value = 1 - getMiniMax(pos, 1-beta, 1-Math.max(bestValue, alpha), depth - 1, minGames, takePerformance, outOfMap, path, bestLine);
-                            if (value != (1 - VALUE_IGNORE_RES) && value > bestValue) {
-                                bestValue = value;
-                                if (depth > 1) System.arraycopy(bestLine[depth-2], 0, bestLine[depth-1], 1, depth - 1);
-                                bestLine[depth-1][0] = moves[i];
-                            }
+                    double value = 0;
+                    if (takePerformance) {
+                        value = -getMiniMax(pos, -beta, -Math.max(bestValue, alpha), depth - 1, minGames, takePerformance, outOfMap, path, bestLine);
+                        if (value != -VALUE_IGNORE_PERF && value > bestValue) {
+                            bestValue = value;
+                            if (depth > 1) System.arraycopy(bestLine[depth-2], 0, bestLine[depth-1], 1, depth - 1);
+                            bestLine[depth-1][0] = moves[i];
+                        }
+                    } else {
+                        value = 1 - getMiniMax(pos, 1-beta, 1-Math.max(bestValue, alpha), depth - 1, minGames, takePerformance, outOfMap, path, bestLine);
+                        if (value != (1 - VALUE_IGNORE_RES) && value > bestValue) {
+                            bestValue = value;
+                            if (depth > 1) System.arraycopy(bestLine[depth-2], 0, bestLine[depth-1], 1, depth - 1);
+                            bestLine[depth-1][0] = moves[i];
                         }
                     }
                     pos.undoMove();
@@ -469,9 +491,15 @@ public abstract class ChAbstractPositionReadMap implements PositionReadMap
         short[] moves = data.getPlayedMoves();
         for (int i = 0; i < moves.length; i++) {
             try {
+                long hashCode = pos.getHashCodeAfter(moves[i]);
+                if (hashSet.contains(hashCode)) continue;
+                PositionData moveData = getData(hashCode);
+                if (moveData == null || moveData.getNumOfGames() <= 5) continue;
                 pos.doMove(moves[i]);
                 findHotSpots(pos, selector, listener, data, hashSet);
                 pos.undoMove();
+            } catch (IllegalArgumentException ex) {
+                // invalid stored move, skip it
             } catch (IllegalMoveException ex) {}
         }
     }
@@ -515,9 +543,15 @@ public abstract class ChAbstractPositionReadMap implements PositionReadMap
         short[] moves = data.getPlayedMoves();
         for (int i = 0; i < moves.length; i++) {
             try {
+                long hashCode = pos.getHashCodeAfter(moves[i]);
+                if (hashSet.contains(hashCode)) continue;
+                PositionData moveData = getData(hashCode);
+                if (moveData == null || moveData.getNumOfGames() <= 5) continue;
                 pos.doMove(moves[i]);
                 findHotSpots(pos, evaluator, values, hotspots, fen, data, hashSet);
                 pos.undoMove();
+            } catch (IllegalArgumentException ex) {
+                // invalid stored move, skip it
             } catch (IllegalMoveException ex) {}
         }
     }
@@ -747,8 +781,7 @@ public abstract class ChAbstractPositionReadMap implements PositionReadMap
         Collection games = new ArrayList();
         for (GameModelIterator it = getGameModelIterator(); it.hasNext(); ) {
             GameModel model = it.nextGameModel();
-            Game game = new Game(model);
-            if (game.containsPosition(pos)) {
+            if (model.containsPosition(pos.getHashCode())) {
                 games.add(model);
 //                System.out.println(model + " " + model.hashCode());
             }
@@ -766,13 +799,35 @@ public abstract class ChAbstractPositionReadMap implements PositionReadMap
     public void initForWriting() {}
         
     public void writeGames(DataOutput gameIndices, File gamesFile, int headerMode, int movesMode) throws IOException
+    {
+        writeGames(gameIndices, gamesFile, headerMode, movesMode, null);
+    }
+    
+    /**
+     * Writes the games.
+     *
+     *@param tagDictionary the dictionary to code the headers against, null for none
+     */
+    public void writeGames(DataOutput gameIndices, File gamesFile, int headerMode, int movesMode, TagDictionary tagDictionary) throws IOException
+    {
+        writeGames(gameIndices, gamesFile, headerMode, movesMode, tagDictionary, null);
+    }
+    
+    /**
+     * Writes the games.
+     *
+     *@param tagDictionary the dictionary to code the headers against, null for none
+     *@param headerColumns the store to add the headers to, in the order of the games, null for none
+     */
+    public void writeGames(DataOutput gameIndices, File gamesFile, int headerMode, int movesMode, TagDictionary tagDictionary, HeaderColumnStore headerColumns) throws IOException
     {
         DataOutputStream outGames = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(gamesFile)));
         for (Iterator it = getGameModelIterator(); it.hasNext(); ) {
             GameModel gameModel = (GameModel)it.next();
             gameIndices.writeInt(outGames.size());
 //            System.out.println(gameModel);
-            gameModel.save(outGames, headerMode, movesMode);
+            gameModel.save(outGames, headerMode, movesMode, tagDictionary);
+            if (headerColumns != null) headerColumns.add(gameModel.getHeaderModel());
         }
         outGames.close();
     }
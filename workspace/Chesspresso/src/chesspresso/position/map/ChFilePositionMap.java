@@ -20,9 +20,9 @@ public class ChFilePositionMap extends ChAbstractPositionReadMap implements Posi
 {
     private static final boolean EXTRA_CHECKS = true;
     
-    // A position map file consists of six parts:
+    // A position map file consists of eight parts:
     //
-    // 1) The header
+    // 1) The header, see Header for the exact layout
     //     - numOfEntries                   int   4
     //     - numOfPositions                 int   4
     //     - numOfGames                     int   4
@@ -52,10 +52,21 @@ public class ChFilePositionMap extends ChAbstractPositionReadMap implements Posi
     //     - records are read and written by ChGameHeaderModel and ChGameMoveModel, called
     //       by ChPositionDataGame
     //     - records have different length
+    //     - from version 4, each record ends with the bloom filter of the main line
+    //       positions, see GameModel.getMainLineFilter, so positions can be looked
+    //       up without reading the moves
     //
     // 6) The addons
     //     - additional data for ChPositionData (eg movesPlayed)
     //     - record may have different length
+    //
+    // 7) The tag dictionary
+    //     - names and values of the tags, the headers of the games refer to them
+    //     - missing in older files, where headers are written in MODE_STANDARD_TAGS
+    //
+    // 8) The header columns, see HeaderColumnStore
+    //     - the tags of all games by column, with bitmap indexes for filtering
+    //     - missing in older files, built from the game headers when first needed
     
     /*================================================================================*/
     
@@ -376,6 +387,33 @@ int bitsForMoves       = 64;
     }
     /*================================================================================*/
     
+    /**
+     * Game of the map reading its moves from the file when they are first
+     * accessed. The moves cannot be read once the map has been closed.
+     */
+    private class LazyGameModel extends GameModel
+    {
+        private long m_startOfMoves;
+        
+        LazyGameModel(GameHeaderModel headerModel, long fingerprint, long[] mainLineFilter, long startOfMoves)
+        {
+            super(headerModel, fingerprint, mainLineFilter);
+            m_startOfMoves = startOfMoves;
+        }
+        
+        protected GameMoveModel loadMoveModel()
+        {
+            synchronized (ChFilePositionMap.this) {
+                try {
+                    m_dataFile.seek(m_startOfMoves);
+                    return new GameMoveModel(m_dataFile, m_header.getMovesMode());
+                } catch (IOException ex) {
+                    throw new RuntimeException("Cannot read moves of game in " + m_name + ": " + ex.getMessage());
+                }
+            }
+        }
+    }
+    
     private class MyGameModelIterator implements GameModelIterator
     {
         private int m_index;
@@ -407,20 +445,37 @@ int bitsForMoves       = 64;
     {
         static final int SIZE = 128;
         
+        // Files of format version 1 and later start with MAGIC and the
+        // version. Older files start directly with numOfEntries, which is never
+        // negative, and end the header after variationDepth, the position data
+        // follows at 49. Version 1 adds movesMode, version 2 headerMode and
+        // startOfTagDictionary, version 3 startOfHeaderColumns, version 4 the
+        // main line filters of the games.
+        static final int MAGIC = 0xC8E5504D;
+        static final byte FORMAT_VERSION = 4;
+        
+        int m_version = FORMAT_VERSION;               // version of the file read
+        
         // data                                        size start total
-        int m_numOfEntries = 0;                       // 4    0     4
-        int m_numOfMultiPos = 0;                      // 4    4     8
-        int m_numOfSinglePos = 0;                     // 4    8    12
-        int m_numOfGames = 0;                         // 4   12    16
-        long m_startOfMultiPos = 0;                   // 8   16    24
-        long m_startOfSinglePos = 0;                  // 8   24    32
-        long m_startOfGames = 0;                      // 8   32    40
-        int m_largestGameCounter = 0;                 // 4   40    44
-        byte m_multiPosIndexBits = 0;                 // 1   44    45
-        byte m_multiPosIndexPointerBits = 0;          // 1   45    46
-        byte m_singlePosIndexBits = 0;                // 1   46    47
-        byte m_singlePosIndexPointerBits = 0;         // 1   47    48
-        byte m_variationDepth = 0;                    // 1   49    49
+        //   magic                                      4    0     4
+        //   formatVersion                              1    4     5
+        int m_numOfEntries = 0;                       // 4    5     9
+        int m_numOfMultiPos = 0;                      // 4    9    13
+        int m_numOfSinglePos = 0;                     // 4   13    17
+        int m_numOfGames = 0;                         // 4   17    21
+        long m_startOfMultiPos = 0;                   // 8   21    29
+        long m_startOfSinglePos = 0;                  // 8   29    37
+        long m_startOfGames = 0;                      // 8   37    45
+        int m_largestGameCounter = 0;                 // 4   45    49
+        byte m_multiPosIndexBits = 0;                 // 1   49    50
+        byte m_multiPosIndexPointerBits = 0;          // 1   50    51
+        byte m_singlePosIndexBits = 0;                // 1   51    52
+        byte m_singlePosIndexPointerBits = 0;         // 1   52    53
+        byte m_variationDepth = 0;                    // 1   53    54
+        byte m_movesMode = 0;                         // 1   54    55   version 1
+        byte m_headerMode = 0;                        // 1   55    56   version 2
+        long m_startOfTagDictionary = 0;              // 8   56    64   version 2
+        long m_startOfHeaderColumns = 0;              // 8   64    72   version 3
         
         public Header() {}
         
@@ -435,6 +490,11 @@ int bitsForMoves       = 64;
         public byte getSinglePosIndexBits()        {return m_singlePosIndexBits;}
         public byte getSinglePosIndexPointerBits() {return m_singlePosIndexPointerBits;}
         public byte getVariationDepth()            {return m_variationDepth;}
+        public byte getMovesMode()                 {return m_movesMode;}
+        public byte getHeaderMode()                {return m_headerMode;}
+        public long getStartOfTagDictionary()      {return m_startOfTagDictionary;}
+        public long getStartOfHeaderColumns()      {return m_startOfHeaderColumns;}
+        public int  getVersion()                   {return m_version;}
         
         public long getEndOfMultiPosData()          {return getStartOfMultiPosAddons();}
         public long getEndOfSinglePosData()         {return getStartOfGames();}
@@ -477,6 +537,10 @@ int bitsForMoves       = 64;
         public void setSinglePosIndexBits(byte val)        {m_singlePosIndexBits = val;}
         public void setSinglePosIndexPointerBits(byte val) {m_singlePosIndexPointerBits = val;}
         public void setVariationDepth(byte val)            {m_variationDepth = val;}
+        public void setMovesMode(byte val)                 {m_movesMode = val;}
+        public void setHeaderMode(byte val)                {m_headerMode = val;}
+        public void setStartOfTagDictionary(long val)      {m_startOfTagDictionary = val;}
+        public void setStartOfHeaderColumns(long val)      {m_startOfHeaderColumns = val;}
         
         public void read(DataInput in) throws IOException
         {
@@ -484,7 +548,13 @@ int bitsForMoves       = 64;
             in.readFully(data);
             DataInput dataIn = new DataInputStream(new ByteArrayInputStream(data));
             
+            int version = 0;
             m_numOfEntries              = dataIn.readInt();
+            if (m_numOfEntries == MAGIC) {
+                version = dataIn.readByte();
+                if (version > FORMAT_VERSION) throw new IOException("Unsupported position map format version " + version);
+                m_numOfEntries          = dataIn.readInt();
+            }
             m_numOfMultiPos             = dataIn.readInt();
             m_numOfSinglePos            = dataIn.readInt();
             m_numOfGames                = dataIn.readInt();
@@ -497,6 +567,12 @@ int bitsForMoves       = 64;
             m_singlePosIndexBits        = dataIn.readByte();
             m_singlePosIndexPointerBits = dataIn.readByte();
             m_variationDepth            = dataIn.readByte();
+            // older versions end the header earlier, the bytes following are position data
+            m_movesMode                 = (version >= 1 ? dataIn.readByte() : (byte)GameMoveModel.MODE_EVERYTHING);
+            m_headerMode                = (version >= 2 ? dataIn.readByte() : (byte)GameHeaderModel.MODE_STANDARD_TAGS);
+            m_startOfTagDictionary      = (version >= 2 ? dataIn.readLong() : 0L);
+            m_startOfHeaderColumns      = (version >= 3 ? dataIn.readLong() : 0L);
+            m_version                   = version;
         }
         
         public void write(DataOutput out) throws IOException
@@ -504,6 +580,8 @@ int bitsForMoves       = 64;
             ByteArrayOutputStream data = new ByteArrayOutputStream(SIZE);
             DataOutput dataOut = new DataOutputStream(data);
             
+            dataOut.writeInt(MAGIC);
+            dataOut.writeByte(FORMAT_VERSION);
             dataOut.writeInt(m_numOfEntries);
             dataOut.writeInt(m_numOfMultiPos);
             dataOut.writeInt(m_numOfSinglePos);
@@ -517,6 +595,10 @@ int bitsForMoves       = 64;
             dataOut.writeByte(m_singlePosIndexBits);
             dataOut.writeByte(m_singlePosIndexPointerBits);
             dataOut.writeByte(m_variationDepth);
+            dataOut.writeByte(m_movesMode);
+            dataOut.writeByte(m_headerMode);
+            dataOut.writeLong(m_startOfTagDictionary);
+            dataOut.writeLong(m_startOfHeaderColumns);
             
             out.write(data.toByteArray());
         }
@@ -543,7 +625,12 @@ int bitsForMoves       = 64;
             sb.append("multiPosIndexPointerBits  ").append(m_multiPosIndexPointerBits).append('\n');
             sb.append("singlePosIndexBits        ").append(m_singlePosIndexBits).append('\n');
             sb.append("singlePosIndexPointerBits ").append(m_singlePosIndexPointerBits).append('\n');
-            sb.append("variationDepth            ").append(m_variationDepth);
+            sb.append("variationDepth            ").append(m_variationDepth).append('\n');
+            sb.append("movesMode                 ").append(m_movesMode).append('\n');
+            sb.append("headerMode                ").append(m_headerMode).append('\n');
+            sb.append("startOfTagDictionary      ").append(m_startOfTagDictionary).append('\n');
+            sb.append("startOfHeaderColumns      ").append(m_startOfHeaderColumns).append('\n');
+            sb.append("version                   ").append(m_version);
             return sb.toString();
         }
     }
@@ -554,6 +641,8 @@ int bitsForMoves       = 64;
     private String m_name;
     
     private Header m_header;
+    private TagDictionary m_tagDictionary;
+    private HeaderColumnStore m_headerColumns;  // loaded on demand
     private int[] m_multiPosDataIndex;    
     private int[] m_singlePosDataIndex;
     
@@ -626,6 +715,13 @@ int bitsForMoves       = 64;
         m_dataFile.seek(0L);
         m_header = new Header();
         m_header.read(m_dataFile);
+        
+        if (m_header.getStartOfTagDictionary() != 0L) {
+            m_dataFile.seek(m_header.getStartOfTagDictionary());
+            m_tagDictionary = new TagDictionary(m_dataFile);
+        } else {
+            m_tagDictionary = null;
+        }
     }
     
     private void initPosDataIndices() throws IOException
@@ -844,13 +940,73 @@ int bitsForMoves       = 64;
             m_dataFile.seek(m_header.getStartOfGameIndices() + 4 * index);
             int gamePointer = m_dataFile.readInt();
             m_dataFile.seek(m_header.getStartOfGameData() + gamePointer);
-            return new GameModel(m_dataFile, GameHeaderModel.MODE_STANDARD_TAGS, GameMoveModel.MODE_EVERYTHING);
+            GameHeaderModel headerModel = new GameHeaderModel(m_dataFile, m_header.getHeaderMode(), m_tagDictionary);
+            long startOfMoves = m_dataFile.getFilePointer();
+            long fingerprint = 0L;
+            long[] mainLineFilter = null;
+            if (m_header.getMovesMode() == GameMoveModel.MODE_COMPACT) {
+                GameMoveModel.skip(m_dataFile, GameMoveModel.MODE_COMPACT);
+                fingerprint = m_dataFile.readLong();
+                if (m_header.getVersion() >= 4) mainLineFilter = readMainLineFilter(m_dataFile);
+            }
+            return new LazyGameModel(headerModel, fingerprint, mainLineFilter, startOfMoves);
+        } catch (IOException ex) {
+//            Logger.log(ex, this);
+            return null;
+        }
+    }
+    
+    /**
+     * Returns the header of a game without reading its moves, eg to fill a
+     * list of games.
+     *
+     *@param index the index of the game
+     *@return the header, null if it cannot be read
+     */
+    public synchronized GameHeaderModel getGameHeaderModel(int index)
+    {
+        if (index < 0 || index >= m_header.getNumOfGames()) {
+            new Exception("Illegal index " + index).printStackTrace();
+            return null;
+        }
+        
+        try {
+            m_dataFile.seek(m_header.getStartOfGameIndices() + 4 * index);
+            int gamePointer = m_dataFile.readInt();
+            m_dataFile.seek(m_header.getStartOfGameData() + gamePointer);
+            return new GameHeaderModel(m_dataFile, m_header.getHeaderMode(), m_tagDictionary);
         } catch (IOException ex) {
 //            Logger.log(ex, this);
             return null;
         }
     }
     
+    /**
+     * Returns the standard tags of all games as columns, to select games
+     * without reading them. For files without header columns, the columns
+     * are built from the headers of the games.
+     *
+     *@return the header columns, the index of a game in the store is its index in the map
+     */
+    public synchronized HeaderColumnStore getHeaderColumnStore() throws IOException
+    {
+        if (m_headerColumns == null) {
+            if (m_header.getStartOfHeaderColumns() != 0L) {
+                m_dataFile.seek(m_header.getStartOfHeaderColumns());
+                m_headerColumns = new HeaderColumnStore(m_dataFile);
+            } else {
+                HeaderColumnStore headerColumns = new HeaderColumnStore();
+                for (int i=0; i<m_header.getNumOfGames(); i++) {
+                    GameHeaderModel headerModel = getGameHeaderModel(i);
+                    if (headerModel == null) throw new IOException("Cannot read header of game " + i);
+                    headerColumns.add(headerModel);
+                }
+                m_headerColumns = headerColumns;
+            }
+        }
+        return m_headerColumns;
+    }
+    
     public int getGameModelIndex(GameModel gameModel)
     {
         new Exception().printStackTrace();
@@ -940,8 +1096,9 @@ int bitsForMoves       = 64;
         int num = 0;
         try {
             m_dataFile.seek(m_header.getStartOfGameData());
-            for(;;) {
-                GameModel gameModel = new GameModel(m_dataFile, GameHeaderModel.MODE_STANDARD_TAGS, GameMoveModel.MODE_EVERYTHING);
+            long endOfGameData = (m_tagDictionary != null ? m_header.getStartOfTagDictionary() : Long.MAX_VALUE);
+            while (m_dataFile.getFilePointer() < endOfGameData) {
+                GameModel gameModel = new GameModel(m_dataFile, m_header.getHeaderMode(), m_header.getMovesMode(), m_tagDictionary);
                 if (verbose) System.out.println(gameModel);
                 num++;
             }
@@ -1043,6 +1200,37 @@ int bitsForMoves       = 64;
         } catch (EOFException ex) {}
     }
     
+    private static long[] readMainLineFilter(DataInput in) throws IOException
+    {
+        long[] filter = new long[in.readUnsignedShort()];
+        for (int i = 0; i < filter.length; i++) filter[i] = in.readLong();
+        return filter;
+    }
+    
+    private static void writeMainLineFilter(DataOutput out, long[] filter) throws IOException
+    {
+        out.writeShort(filter.length);
+        for (int i = 0; i < filter.length; i++) out.writeLong(filter[i]);
+    }
+    
+    /**
+     * Writes the games in MODE_ALL_TAGS and MODE_COMPACT, each followed by the
+     * bloom filter of its main line.
+     */
+    private static void writeGames(ChAbstractPositionReadMap map, DataOutput gameIndices, File gamesFile,
+                                   TagDictionary tagDictionary, HeaderColumnStore headerColumns) throws IOException
+    {
+        DataOutputStream outGames = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(gamesFile)));
+        for (Iterator it = map.getGameModelIterator(); it.hasNext(); ) {
+            GameModel gameModel = (GameModel)it.next();
+            gameIndices.writeInt(outGames.size());
+            gameModel.save(outGames, GameHeaderModel.MODE_ALL_TAGS, GameMoveModel.MODE_COMPACT, tagDictionary);
+            writeMainLineFilter(outGames, gameModel.getMainLineFilter());
+            headerColumns.add(gameModel.getHeaderModel());
+        }
+        outGames.close();
+    }
+    
     public static void writeToDataFile(ChAbstractPositionReadMap map, File file) throws IOException
     {        
 //        Logger.log("FilePositionMap.writeToDataFile", ChFilePositionMap.class);
@@ -1167,7 +1355,11 @@ int bitsForMoves       = 64;
         
         /*---------- game indices and games ----------*/
 //        if (Debug.debug()) System.out.println("Write Games");        
-        map.writeGames(outGameIndices, gameDataFile, GameHeaderModel.MODE_STANDARD_TAGS, GameMoveModel.MODE_EVERYTHING);
+        header.setMovesMode((byte)GameMoveModel.MODE_COMPACT);
+        header.setHeaderMode((byte)GameHeaderModel.MODE_ALL_TAGS);
+        TagDictionary tagDictionary = new TagDictionary();
+        HeaderColumnStore headerColumns = new HeaderColumnStore();
+        writeGames(map, outGameIndices, gameDataFile, tagDictionary, headerColumns);
         outGameIndices.close();
 
         map = null;   // allow gc to allocate map in low memory situation
@@ -1179,6 +1371,12 @@ int bitsForMoves       = 64;
         append(gameDataFile, out);        
         gameDataFile.delete();
         
+        header.setStartOfTagDictionary(out.size());
+        tagDictionary.save(out);
+        
+        header.setStartOfHeaderColumns(out.size());
+        headerColumns.save(out);
+        
         out.close();
         
         /*---------- complete header ----------*/
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *
+ * $Id: DuplicateGameIndex.java,v 1.1 2003/04/09 18:08:52 BerniMan Exp $
+ */
+
+package chesspresso.position.map;
+
+import chesspresso.game.*;
+import java.io.*;
+
+/**
+ * Index to find the duplicates of a game among a large number of games.
+ *
+ * A game is keyed by its fingerprint (see {@link GameModel#getFingerprint()})
+ * mixed with normalized header data: the last names of the players, the year
+ * and the result. A key maps to the numbers of the games having that key.
+ * Games with equal keys are the candidates for duplicates; only those need to
+ * be compared with {@link GameHeaderModel#isSimilar(GameHeaderModel)} or a
+ * game scorer.
+ *
+ * Entries are added while streaming through the games, the table in memory
+ * starts small and grows with them. Once more than the given number of
+ * entries is held in memory, they are written to a sorted run
+ * in a temporary file. For each run, only a bloom filter and the first key of
+ * every block stay in memory, so a lookup of a key not in a run does not
+ * touch the disk.
+ *
+ * @author  Bernhard Seybold
+ * @version $Revision: 1.1 $
+ */
+public class DuplicateGameIndex
+{
+
+    private final static boolean DEBUG = false;
+
+    private final static int
+        DEFAULT_MAX_ENTRIES_IN_MEMORY = 1 << 18,
+        INITIAL_CAPACITY = 16,             // of the hash table in memory, allocated with the first entry
+        MAX_CAPACITY = 1 << 30,            // of the hash table in memory, kept at most half full
+        BLOCK_SIZE = 256,                  // entries per block of a run
+        MAX_RUNS = 16,                     // runs are merged into one when reached
+        ENTRY_SIZE = 12;                   // key (long) and game number (int)
+
+    private final static int[] NO_GAMES = new int[0];
+
+    /*================================================================================*/
+
+    private static class Run
+    {
+        private File m_file;
+        private RandomAccessFile m_raf;
+        private int m_numOfEntries;
+        private long[] m_blockKeys;        // first key of every block
+        private long[] m_bloom;
+        private byte[] m_buffer;
+
+        private Run(File directory, int numOfEntries) throws IOException
+        {
+            m_file = File.createTempFile("chdup", ".tmp", directory);
+            m_file.deleteOnExit();   // remove at shutdown
+            m_numOfEntries = 0;
+            m_blockKeys = new long[(numOfEntries + BLOCK_SIZE - 1) / BLOCK_SIZE];
+            m_bloom = new long[Math.max(1, numOfEntries / 8)];   // 8 bits per entry
+            m_buffer = new byte[BLOCK_SIZE * ENTRY_SIZE];
+        }
+
+        /**
+         * Writes the next entry, entries must be written in ascending order of keys.
+         */
+        private void write(DataOutputStream out, long key, int gameNumber) throws IOException
+        {
+            if (m_numOfEntries % BLOCK_SIZE == 0) m_blockKeys[m_numOfEntries / BLOCK_SIZE] = key;
+            addToBloom(key);
+            out.writeLong(key);
+            out.writeInt(gameNumber);
+            m_numOfEntries++;
+        }
+
+        private DataOutputStream getOutputStream() throws IOException
+        {
+            return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_file)));
+        }
+
+        private DataInputStream getInputStream() throws IOException
+        {
+            return new DataInputStream(new BufferedInputStream(new FileInputStream(m_file)));
+        }
+
+        private void open() throws IOException
+        {
+            m_raf = new RandomAccessFile(m_file, "r");
+        }
+
+        private int getBloomBit(long key, int shift)
+        {
+            return (int)(((key >>> shift) & 0x7FFFFFFFL) % (m_bloom.length * 64L));
+        }
+
+        private void addToBloom(long key)
+        {
+            for (int shift = 0; shift < 63; shift += 21) {
+                int bit = getBloomBit(key, shift);
+                m_bloom[bit >>> 6] |= 1L << (bit & 63);
+            }
+        }
+
+        private boolean mayContain(long key)
+        {
+            for (int shift = 0; shift < 63; shift += 21) {
+                int bit = getBloomBit(key, shift);
+                if ((m_bloom[bit >>> 6] & (1L << (bit & 63))) == 0L) return false;  // =====>
+            }
+            return true;
+        }
+
+        private int[] get(long key, int[] gameNumbers) throws IOException
+        {
+            if (!mayContain(key)) return gameNumbers;  // =====>
+
+            /*---------- last block starting before key, equal keys may span blocks ----------*/
+            int low = 0, high = m_blockKeys.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (m_blockKeys[mid] < key) low = mid; else high = mid - 1;
+            }
+
+            for (int block = low; block < m_blockKeys.length && m_blockKeys[block] <= key; block++) {
+                int num = Math.min(BLOCK_SIZE, m_numOfEntries - block * BLOCK_SIZE);
+                m_raf.seek((long)block * BLOCK_SIZE * ENTRY_SIZE);
+                m_raf.readFully(m_buffer, 0, num * ENTRY_SIZE);
+                for (int i=0; i<num; i++) {
+                    long entryKey = getLong(m_buffer, i * ENTRY_SIZE);
+                    if (entryKey == key) {
+                        gameNumbers = append(gameNumbers, getInt(m_buffer, i * ENTRY_SIZE + 8));
+                    } else if (entryKey > key) {
+                        return gameNumbers;  // =====>
+                    }
+                }
+            }
+            return gameNumbers;
+        }
+
+        private void close() throws IOException
+        {
+            if (m_raf != null) m_raf.close();
+            m_file.delete();
+        }
+    }
+
+    /*================================================================================*/
+
+    private long[] m_keys;                  // open addressing, 0 is empty, null until the first entry
+    private int[] m_gameNumbers;
+    private int m_numOfEntries;
+    private int m_maxEntriesInMemory;
+    private File m_directory;
+    private java.util.List<Run> m_runs;
+    private int m_size;
+
+    /*================================================================================*/
+
+    public DuplicateGameIndex()
+    {
+        this(DEFAULT_MAX_ENTRIES_IN_MEMORY, null);
+    }
+
+    /**
+     * Creates a new index.
+     *
+     *@param maxEntriesInMemory the number of entries held in memory before they are written to disk,
+     *       at most half the maximal capacity of the table, larger values are reduced to that
+     *@param directory the directory for the temporary files, null for the default
+     */
+    public DuplicateGameIndex(int maxEntriesInMemory, File directory)
+    {
+        if (maxEntriesInMemory < 1) throw new IllegalArgumentException("Illegal number of entries in memory " + maxEntriesInMemory);
+        m_maxEntriesInMemory = Math.min(maxEntriesInMemory, MAX_CAPACITY / 2);  // a full table would never end probing
+        m_directory = directory;
+        m_runs = new java.util.ArrayList<Run>();
+
+        m_keys = null;
+        m_gameNumbers = null;
+        m_numOfEntries = 0;
+        m_size = 0;
+    }
+
+    /**
+     * Removes the temporary files. The index must not be used afterwards.
+     */
+    public void close()
+    {
+        for (int i=0; i<m_runs.size(); i++) {
+            try {
+                m_runs.get(i).close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        m_runs.clear();
+    }
+
+    /*================================================================================*/
+
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long getNameHash(String name)
+    {
+        String lastName = GameHeaderModel.getLastName(name);
+        if (lastName == null) return 0L;  // =====>
+        long hash = 0L;
+        for (int i=0; i<lastName.length(); i++) {
+            char ch = Character.toLowerCase(lastName.charAt(i));
+            if (Character.isLetterOrDigit(ch)) hash = 31 * hash + ch;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the key of a game. Games with the same moves, the same last
+     * names of the players, the same year and the same result have equal keys.
+     *
+     *@param gameModel the game
+     *@return the key, never 0
+     */
+    public static long getKey(GameModel gameModel)
+    {
+        GameHeaderModel headerModel = gameModel.getHeaderModel();
+        long key = mix(gameModel.getFingerprint() ^ getNameHash(headerModel.getWhite()));
+        key = mix(key ^ getNameHash(headerModel.getBlack()));
+        key = mix(key ^ (((long)headerModel.getYear() << 8) | (headerModel.getResult() & 0xFF)));
+        return (key == 0L ? 1L : key);  // 0 is reserved
+    }
+
+    /*================================================================================*/
+
+    /**
+     *@return the number of entries in the index
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     *@return the number of runs written to disk
+     */
+    public int getNumOfRuns()
+    {
+        return m_runs.size();
+    }
+
+    /**
+     * Adds an entry. A key may be added several times, with different game numbers.
+     *
+     *@param key the key of the game, see {@link #getKey(GameModel)}
+     *@param gameNumber the number of the game
+     */
+    public void add(long key, int gameNumber)
+    {
+        if (key == 0L) throw new IllegalArgumentException("Key 0 is reserved");
+
+        if (m_keys == null || 2 * (m_numOfEntries + 1) > m_keys.length) grow();
+        int mask = m_keys.length - 1;
+        int index = (int)mix(key) & mask;
+        while (m_keys[index] != 0L) index = (index + 1) & mask;
+        m_keys[index] = key;
+        m_gameNumbers[index] = gameNumber;
+        m_numOfEntries++;
+        m_size++;
+
+        if (m_numOfEntries >= m_maxEntriesInMemory) spill();
+    }
+
+    /**
+     * Returns the numbers of all games added with the given key, in no
+     * particular order.
+     *
+     *@param key the key of the game, see {@link #getKey(GameModel)}
+     *@return the game numbers, an empty array if there are none
+     */
+    public int[] get(long key)
+    {
+        int[] gameNumbers = NO_GAMES;
+
+        if (m_keys != null) {
+            int mask = m_keys.length - 1;
+            int index = (int)mix(key) & mask;
+            while (m_keys[index] != 0L) {
+                if (m_keys[index] == key) gameNumbers = append(gameNumbers, m_gameNumbers[index]);
+                index = (index + 1) & mask;
+            }
+        }
+
+        for (int i=0; i<m_runs.size(); i++) {
+            try {
+                gameNumbers = m_runs.get(i).get(key, gameNumbers);
+            } catch (IOException ex) {
+                throw new RuntimeException("Cannot read duplicate index: " + ex.getMessage());
+            }
+        }
+        return gameNumbers;
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Doubles the capacity of the hash table, the number of entries in memory
+     * keeps it below MAX_CAPACITY.
+     */
+    private void grow()
+    {
+        long[] oldKeys = m_keys;
+        int[] oldGameNumbers = m_gameNumbers;
+        int capacity = (oldKeys == null ? INITIAL_CAPACITY : 2 * oldKeys.length);
+        m_keys = new long[capacity];
+        m_gameNumbers = new int[capacity];
+        if (oldKeys == null) return;  // =====>
+
+        int mask = capacity - 1;
+        for (int i=0; i<oldKeys.length; i++) {
+            if (oldKeys[i] != 0L) {
+                int index = (int)mix(oldKeys[i]) & mask;
+                while (m_keys[index] != 0L) index = (index + 1) & mask;
+                m_keys[index] = oldKeys[i];
+                m_gameNumbers[index] = oldGameNumbers[i];
+            }
+        }
+    }
+
+    private void spill()
+    {
+        long[] keys = new long[m_numOfEntries];
+        int[] gameNumbers = new int[m_numOfEntries];
+        int num = 0;
+        for (int i=0; i<m_keys.length; i++) {
+            if (m_keys[i] != 0L) {
+                keys[num] = m_keys[i];
+                gameNumbers[num] = m_gameNumbers[i];
+                num++;
+            }
+        }
+        sort(keys, gameNumbers, 0, num - 1);
+
+        try {
+            Run run = new Run(m_directory, num);
+            DataOutputStream out = run.getOutputStream();
+            try {
+                for (int i=0; i<num; i++) run.write(out, keys[i], gameNumbers[i]);
+            } finally {
+                out.close();
+            }
+            run.open();
+            m_runs.add(run);
+            if (m_runs.size() >= MAX_RUNS) mergeRuns();
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot write duplicate index: " + ex.getMessage());
+        }
+        if (DEBUG) System.out.println("DuplicateGameIndex: spilled " + num + " entries, " + m_runs.size() + " runs");
+
+        java.util.Arrays.fill(m_keys, 0L);
+        m_numOfEntries = 0;
+    }
+
+    private void mergeRuns() throws IOException
+    {
+        int numOfRuns = m_runs.size();
+        int total = 0;
+        for (int i=0; i<numOfRuns; i++) total += m_runs.get(i).m_numOfEntries;
+
+        Run merged = new Run(m_directory, total);
+        DataInputStream[] in = new DataInputStream[numOfRuns];
+        int[] left = new int[numOfRuns];
+        long[] keys = new long[numOfRuns];
+        int[] gameNumbers = new int[numOfRuns];
+        DataOutputStream out = merged.getOutputStream();
+        try {
+            for (int i=0; i<numOfRuns; i++) {
+                Run run = m_runs.get(i);
+                in[i] = run.getInputStream();
+                left[i] = run.m_numOfEntries;
+                if (left[i] > 0) {keys[i] = in[i].readLong(); gameNumbers[i] = in[i].readInt();}
+            }
+            for (int n=0; n<total; n++) {
+                int min = -1;
+                for (int i=0; i<numOfRuns; i++) {
+                    if (left[i] > 0 && (min == -1 || keys[i] < keys[min])) min = i;
+                }
+                merged.write(out, keys[min], gameNumbers[min]);
+                if (--left[min] > 0) {keys[min] = in[min].readLong(); gameNumbers[min] = in[min].readInt();}
+            }
+        } finally {
+            out.close();
+            for (int i=0; i<numOfRuns; i++) if (in[i] != null) in[i].close();
+        }
+
+        for (int i=0; i<numOfRuns; i++) m_runs.get(i).close();
+        m_runs.clear();
+        merged.open();
+        m_runs.add(merged);
+    }
+
+    private static void sort(long[] keys, int[] gameNumbers, int low, int high)
+    {
+        while (low < high) {
+            long pivot = keys[(low + high) >>> 1];
+            int i = low, j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) {
+                    long key = keys[i]; keys[i] = keys[j]; keys[j] = key;
+                    int gameNumber = gameNumbers[i]; gameNumbers[i] = gameNumbers[j]; gameNumbers[j] = gameNumber;
+                    i++; j--;
+                }
+            }
+            /*---------- recurse into the smaller part ----------*/
+            if (j - low < high - i) {
+                sort(keys, gameNumbers, low, j);
+                low = i;
+            } else {
+                sort(keys, gameNumbers, i, high);
+                high = j;
+            }
+        }
+    }
+
+    private static int[] append(int[] arr, int value)
+    {
+        int[] newArr = new int[arr.length + 1];
+        System.arraycopy(arr, 0, newArr, 0, arr.length);
+        newArr[arr.length] = value;
+        return newArr;
+    }
+
+    private static int getInt(byte[] buffer, int offset)
+    {
+        return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16)
+             | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+    }
+
+    private static long getLong(byte[] buffer, int offset)
+    {
+        long value = 0L;
+        for (int i=0; i<8; i++) value = (value << 8) | (buffer[offset + i] & 0xFF);
+        return value;
+    }
+
+}
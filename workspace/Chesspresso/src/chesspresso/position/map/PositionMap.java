@@ -8,6 +8,7 @@ package chesspresso.position.map;
 
 import chesspresso.position.*;
 import chesspresso.game.*;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -64,14 +65,14 @@ public class PositionMap extends AbstractPositionReadWriteMap
     
     private class MyGameModelIterator implements GameModelIterator
     {
-        private Iterator m_iterator;
+        private int m_index;
 
-        MyGameModelIterator(Iterator iterator) {m_iterator = iterator;}
+        MyGameModelIterator() {m_index = 0;}
         
-        public boolean hasNext() {return m_iterator.hasNext();}
-        public Object next() {return m_iterator.next();}
-        public GameModel nextGameModel() {return (GameModel)m_iterator.next();}
-        public void remove() {m_iterator.remove();}
+        public boolean hasNext() {return m_index < m_numOfGames;}
+        public Object next() {return getGameModel(m_index++);}
+        public GameModel nextGameModel() {return getGameModel(m_index++);}
+        public void remove() {throw new UnsupportedOperationException("Remove not supported in GameModelIterator");}
     }
     
     
@@ -420,8 +421,18 @@ public class PositionMap extends AbstractPositionReadWriteMap
     
     private short[][] m_map;
 
-    private java.util.List m_games;
-    private java.util.Map m_gamesMap;
+    // the games are written to a temporary file as they are added, only
+    // their places in the file are kept in memory
+    private final static int
+        GAME_HEADER_MODE = GameHeaderModel.MODE_ALL_TAGS,
+        GAME_MOVES_MODE  = GameMoveModel.MODE_COMPACT;
+    
+    private File m_gameFile;
+    private RandomAccessFile m_games;     // created with the first game
+    private long[] m_gameOffsets;
+    private int[] m_gameLengths;
+    private int m_numOfGames;
+    private DuplicateGameIndex m_duplicateIndex;
 
     private GameScorer m_gameScorer;
     
@@ -457,8 +468,10 @@ public class PositionMap extends AbstractPositionReadWriteMap
         
         m_map = new short[1 << m_indexBits][];
         
-        m_games = new java.util.ArrayList();
-        m_gamesMap = new java.util.HashMap();
+        m_gameOffsets = new long[16];
+        m_gameLengths = new int[16];
+        m_numOfGames = 0;
+        m_duplicateIndex = new DuplicateGameIndex();
         m_gameScorer = new DefaultGameScorer();
         
         m_numOfData = 0;
@@ -477,8 +490,17 @@ public class PositionMap extends AbstractPositionReadWriteMap
 //        m_gameScorer = new ChDefaultGameScorer();
     }
     
-    public void close()
+    /**
+     * Removes the temporary files. The map must not be used afterwards.
+     */
+    public synchronized void close()
     {
+        m_duplicateIndex.close();
+        if (m_games != null) {
+            try {m_games.close();} catch (IOException ex) {ex.printStackTrace();}
+            m_gameFile.delete();
+            m_games = null;
+        }
     }
     
     /*================================================================================*/
@@ -495,43 +517,122 @@ public class PositionMap extends AbstractPositionReadWriteMap
     
     protected GameScorer getGameScorer() {return m_gameScorer;}
     
-    public GameModel getGameModel(int index)
+    /**
+     * Reads a game from the temporary file. Each call returns a new game
+     * model, changes to it are not stored in the map.
+     */
+    public synchronized GameModel getGameModel(int index)
+    {
+        if (index < 0 || index >= m_numOfGames) throw new IndexOutOfBoundsException("Illegal index " + index);
+        try {
+            byte[] data = new byte[m_gameLengths[index]];
+            m_games.seek(m_gameOffsets[index]);
+            m_games.readFully(data);
+            return new GameModel(new DataInputStream(new ByteArrayInputStream(data)), GAME_HEADER_MODE, GAME_MOVES_MODE);
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot read game " + index + ": " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * Writes a game to the end of the temporary file.
+     */
+    private void writeGameModel(int index, GameModel gameModel)
     {
-        return (GameModel)m_games.get(index);
+        try {
+            if (m_games == null) {
+                m_gameFile = File.createTempFile("chgames", ".tmp");
+                m_gameFile.deleteOnExit();   // remove at shutdown
+                m_games = new RandomAccessFile(m_gameFile, "rw");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            gameModel.save(new DataOutputStream(out), GAME_HEADER_MODE, GAME_MOVES_MODE);
+            long offset = m_games.length();
+            m_games.seek(offset);
+            m_games.write(out.toByteArray());
+            m_gameOffsets[index] = offset;
+            m_gameLengths[index] = out.size();
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot write game: " + ex.getMessage());
+        }
     }
     
-    protected void addGameModel(GameModel gameModel)
+    protected synchronized void addGameModel(GameModel gameModel)
     {
-//        System.out.println(gameModel);
-        m_games.add(gameModel);
-        m_gamesMap.put(gameModel, gameModel);
+        if (m_numOfGames == m_gameOffsets.length) {
+            long[] gameOffsets = new long[2 * m_numOfGames];
+            System.arraycopy(m_gameOffsets, 0, gameOffsets, 0, m_numOfGames);
+            m_gameOffsets = gameOffsets;
+            int[] gameLengths = new int[2 * m_numOfGames];
+            System.arraycopy(m_gameLengths, 0, gameLengths, 0, m_numOfGames);
+            m_gameLengths = gameLengths;
+        }
+        writeGameModel(m_numOfGames, gameModel);
+        m_numOfGames++;
+        m_duplicateIndex.add(DuplicateGameIndex.getKey(gameModel), m_numOfGames - 1);
     }
     
+    /**
+     * Returns the index of a stored game with the same moves and the same
+     * normalized header data, see {@link #getGameModel(GameModel)}.
+     */
     public int getGameModelIndex(GameModel gameModel)
     {
-        return m_games.indexOf(gameModel);
+        return getDuplicateIndex(gameModel);
     }
     
     public GameModelIterator getGameModelIterator()
     {
-        return new MyGameModelIterator(m_games.iterator());
+        return new MyGameModelIterator();
+    }
+    
+    /**
+     * Returns the index of a stored game with the same moves and the same
+     * normalized header data (see {@link DuplicateGameIndex#getKey(GameModel)}).
+     * Only the candidates with the same key are read from the file.
+     *
+     *@param gameModel the game
+     *@return the index of the stored game, -1 if there is none
+     */
+    private synchronized int getDuplicateIndex(GameModel gameModel)
+    {
+        long key = DuplicateGameIndex.getKey(gameModel);
+        int[] candidates = m_duplicateIndex.get(key);
+        int found = -1;
+        for (int i=0; i<candidates.length; i++) {
+            if (candidates[i] <= found) continue;                       // latest game, as the former map did
+            GameModel candidate = getGameModel(candidates[i]);
+            if (!candidate.equals(gameModel)) continue;
+            if (DuplicateGameIndex.getKey(candidate) != key) continue;   // stale entry, game was replaced
+            found = candidates[i];
+        }
+        return found;
     }
     
     public boolean containsGameModel(GameModel gameModel)
     {
-        return m_gamesMap.containsKey(gameModel);
+        return getDuplicateIndex(gameModel) != -1;
     }
     
     public GameModel getGameModel(GameModel gameModel)
     {
-        return (GameModel)m_gamesMap.get(gameModel);
+        int index = getDuplicateIndex(gameModel);
+        return (index == -1 ? null : getGameModel(index));
     }
     
-    public void replaceGameModel(GameModel oldGameModel, GameModel newGameModel)
+    /**
+     * Replaces a stored game, found as by {@link #getGameModel(GameModel)}.
+     * The new game is written to the end of the file.
+     */
+    public synchronized void replaceGameModel(GameModel oldGameModel, GameModel newGameModel)
     {
-        m_games.set(m_games.indexOf(oldGameModel), newGameModel);
-        m_gamesMap.remove(oldGameModel);
-        m_gamesMap.put(newGameModel, newGameModel);
+        int index = getDuplicateIndex(oldGameModel);
+        if (index == -1) throw new IllegalArgumentException("Game not in map " + oldGameModel);
+        writeGameModel(index, newGameModel);
+        long key = DuplicateGameIndex.getKey(newGameModel);
+        if (key != DuplicateGameIndex.getKey(oldGameModel)) {
+            m_duplicateIndex.add(key, index);
+        }
     }
     
     /*================================================================================*/
@@ -718,7 +819,7 @@ public class PositionMap extends AbstractPositionReadWriteMap
     
     public synchronized void putData(ImmutablePosition pos, Game game, short nextMove)
     {        
-        // assume: game is last in m_games!!!
+        // assume: game is the last one added!!!
         long hashCode = pos.getHashCode();
         m_numOfPositions++;
         
@@ -726,7 +827,7 @@ public class PositionMap extends AbstractPositionReadWriteMap
         
         short[] data = m_map[index];
         if (data == null) {
-            storePositionDataAt(create(hashCode, m_games.size()-1, nextMove), index, 0);
+            storePositionDataAt(create(hashCode, m_numOfGames-1, nextMove), index, 0);
             m_numOfData++;
         } else {
             int index2 = 0;
@@ -740,14 +841,14 @@ public class PositionMap extends AbstractPositionReadWriteMap
                     changed();
                     return;  // =====>
                 } else if (hc > hashCode) {
-                    storePositionDataAt(create(hashCode, m_games.size()-1, nextMove), index, index2);
+                    storePositionDataAt(create(hashCode, m_numOfGames-1, nextMove), index, index2);
                     m_numOfData++;
                     changed();
                     return;  // =====>
                 }
                 index2 += (data[index2] & 0xFF);
             }
-            storePositionDataAt(create(hashCode, m_games.size()-1, nextMove), index, data.length);
+            storePositionDataAt(create(hashCode, m_numOfGames-1, nextMove), index, data.length);
             m_numOfData++;
         }
         changed();
@@ -834,7 +935,7 @@ public class PositionMap extends AbstractPositionReadWriteMap
 
     public int getNumOfData() {return m_numOfData;}
     public int getNumOfPositions() {return m_numOfPositions;}
-    public int getNumOfGames() {return m_games.size();}
+    public int getNumOfGames() {return m_numOfGames;}
     
     /*================================================================================*/
     // iterator